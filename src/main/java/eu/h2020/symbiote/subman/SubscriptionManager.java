@@ -7,13 +7,16 @@ import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import eu.h2020.symbiote.cloud.model.internal.Subscription;
+import eu.h2020.symbiote.subman.matching.SubscriptionIndex;
 import eu.h2020.symbiote.subman.repositories.SubscriptionRepository;
 
 @EnableDiscoveryClient
 @EnableAutoConfiguration
 @SpringBootApplication
+@EnableScheduling
 public class SubscriptionManager {
 
 	@Value("${platform.id}")
@@ -25,14 +28,15 @@ public class SubscriptionManager {
     }
 	
 	@Bean
-	CommandLineRunner initData(SubscriptionRepository subscriptionRepo){
+	CommandLineRunner initData(SubscriptionRepository subscriptionRepo, SubscriptionIndex subscriptionIndex){
 	   return args -> {
 		   Subscription initial;
-		   initial = subscriptionRepo.findOne(platformId);
+		   initial = subscriptionIndex.getSubscription(platformId);
 		   if(initial == null) {
 			   initial = new Subscription();
 			   initial.setPlatformId(platformId);
 			   subscriptionRepo.save(initial);
+			   subscriptionIndex.put(initial);
 		   }
 	   };
 	}
@@ -0,0 +1,153 @@
+package eu.h2020.symbiote.subman.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.security.handler.IComponentSecurityHandler;
+
+/**
+ * Keeps a ready to use SecurityRequest generated with local credentials, for requests to federated platforms.
+ * SecurityRequest is regenerated in the background every refreshInterval milliseconds, which also renews the
+ * home token in the local AAM before it expires, so senders never wait for the AAM. Failed generation is retried
+ * with exponential backoff, and the last SecurityRequest is used until it is older than maxAge milliseconds.
+ */
+@Component
+public class CredentialManager implements PublicMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(CredentialManager.class);
+
+	private static final String PREFIX = "subscriptionManager.credentials.";
+
+	private IComponentSecurityHandler securityHandler;
+
+	private long refreshInterval;
+	private long maxAge;
+	private long initialBackoff;
+	private long maxBackoff;
+
+	private ScheduledThreadPoolExecutor scheduler;
+
+	private volatile GeneratedRequest current;
+	//consecutive failed generations, accessed only by the refresh thread
+	private int failures;
+	private volatile long totalFailures;
+
+	@Autowired
+	public CredentialManager(SecurityManager securityManager,
+			@Value("${symbiote.sm.credentials.refreshInterval:15000}") long refreshInterval,
+			@Value("${symbiote.sm.credentials.maxAge:30000}") long maxAge,
+			@Value("${symbiote.sm.credentials.initialBackoff:1000}") long initialBackoff,
+			@Value("${symbiote.sm.credentials.maxBackoff:15000}") long maxBackoff) {
+		this(securityManager.getSecurityHandler(), refreshInterval, maxAge, initialBackoff, maxBackoff);
+	}
+
+	public CredentialManager(IComponentSecurityHandler securityHandler, long refreshInterval, long maxAge,
+			long initialBackoff, long maxBackoff) {
+		this.securityHandler = securityHandler;
+		this.refreshInterval = refreshInterval;
+		this.maxAge = maxAge;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+
+		scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "credential-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (securityHandler == null)
+			logger.info("Security handler is not available, SecurityRequests are not generated.");
+		else
+			schedule(0);
+	}
+
+	/**
+	 * Method returns the last generated SecurityRequest, without waiting for the AAM.
+	 *
+	 * @return SecurityRequest, or null if there is no SecurityRequest younger than maxAge
+	 */
+	public SecurityRequest getSecurityRequest() {
+		GeneratedRequest generated = current;
+		if (generated == null || System.currentTimeMillis() - generated.generatedAt > maxAge)
+			return null;
+		return generated.securityRequest;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		GeneratedRequest generated = current;
+		if (generated != null)
+			metrics.add(new Metric<Long>(PREFIX + "age", System.currentTimeMillis() - generated.generatedAt));
+		metrics.add(new Metric<Long>(PREFIX + "failures", totalFailures));
+		return metrics;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Method returns delay before the next generation after the given number of consecutive failures.
+	 *
+	 * @param failures
+	 * @return
+	 */
+	long backoff(int failures) {
+		if (failures >= 31)
+			return maxBackoff;
+		return Math.min(maxBackoff, initialBackoff << (failures - 1));
+	}
+
+	private void refresh() {
+		try {
+			SecurityRequest securityRequest = securityHandler.generateSecurityRequestUsingLocalCredentials();
+			if (securityRequest == null)
+				throw new IllegalStateException("Security handler returned no SecurityRequest");
+			current = new GeneratedRequest(securityRequest, System.currentTimeMillis());
+			failures = 0;
+			schedule(refreshInterval);
+		} catch (Exception e) {
+			failures++;
+			totalFailures++;
+			long delay = backoff(failures);
+			logger.info("Failed to create SecurityRequest using local credentials (" + failures + " times), retrying in " + delay + " ms: " + e.getMessage());
+			schedule(delay);
+		}
+	}
+
+	private void schedule(long delay) {
+		try {
+			scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.debug("Credential refresh is shut down.");
+		}
+	}
+
+	private static class GeneratedRequest {
+
+		private final SecurityRequest securityRequest;
+		private final long generatedAt;
+
+		GeneratedRequest(SecurityRequest securityRequest, long generatedAt) {
+			this.securityRequest = securityRequest;
+			this.generatedAt = generatedAt;
+		}
+	}
+}
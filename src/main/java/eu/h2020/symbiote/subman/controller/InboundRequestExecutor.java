@@ -0,0 +1,115 @@
+package eu.h2020.symbiote.subman.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Executes requests received from federated platforms outside of servlet threads.
+ * Resource requests (/addOrUpdate, /delete) and subscription requests (/subscription) have separate
+ * bounded executors, so that large resource syncs do not delay subscriptions. Requests that do not fit
+ * into the queue of their executor are answered with 503 immediately. On shutdown, running and queued
+ * requests are completed, waiting at most shutdownTimeout seconds for each executor.
+ */
+@Component
+public class InboundRequestExecutor implements PublicMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(InboundRequestExecutor.class);
+
+	private static final String PREFIX = "subscriptionManager.inbound.";
+
+	private ThreadPoolTaskExecutor resourceExecutor;
+	private ThreadPoolTaskExecutor subscriptionExecutor;
+
+	private AtomicLong rejected = new AtomicLong();
+
+	@Autowired
+	public InboundRequestExecutor(@Value("${symbiote.sm.inbound.resourceThreads:8}") int resourceThreads,
+			@Value("${symbiote.sm.inbound.resourceQueue:100}") int resourceQueue,
+			@Value("${symbiote.sm.inbound.subscriptionThreads:2}") int subscriptionThreads,
+			@Value("${symbiote.sm.inbound.subscriptionQueue:50}") int subscriptionQueue,
+			@Value("${symbiote.sm.inbound.shutdownTimeout:30}") int shutdownTimeout) {
+		resourceExecutor = executor("inbound-resources-", resourceThreads, resourceQueue, shutdownTimeout);
+		subscriptionExecutor = executor("inbound-subscriptions-", subscriptionThreads, subscriptionQueue, shutdownTimeout);
+	}
+
+	/**
+	 * Method executes the given resource request processing on the resource executor.
+	 * 
+	 * @param request
+	 * @return future response, or completed future with 503 response if the executor is overloaded
+	 */
+	public CompletableFuture<ResponseEntity<?>> submitResourceRequest(Supplier<ResponseEntity<?>> request) {
+		return submit(resourceExecutor, request);
+	}
+
+	/**
+	 * Method executes the given subscription request processing on the subscription executor.
+	 * 
+	 * @param request
+	 * @return future response, or completed future with 503 response if the executor is overloaded
+	 */
+	public CompletableFuture<ResponseEntity<?>> submitSubscriptionRequest(Supplier<ResponseEntity<?>> request) {
+		return submit(subscriptionExecutor, request);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		addStats(metrics, PREFIX + "resources.", resourceExecutor);
+		addStats(metrics, PREFIX + "subscriptions.", subscriptionExecutor);
+		metrics.add(new Metric<Long>(PREFIX + "rejected", rejected.get()));
+		return metrics;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		resourceExecutor.shutdown();
+		subscriptionExecutor.shutdown();
+	}
+
+	private CompletableFuture<ResponseEntity<?>> submit(ThreadPoolTaskExecutor executor, Supplier<ResponseEntity<?>> request) {
+		try {
+			return CompletableFuture.supplyAsync(request, executor);
+		} catch (TaskRejectedException e) {
+			rejected.incrementAndGet();
+			logger.warn("Request rejected, " + executor.getThreadNamePrefix() + "queue is full.");
+			return CompletableFuture.completedFuture(new ResponseEntity<>("Service is overloaded, try again later!", HttpStatus.SERVICE_UNAVAILABLE));
+		}
+	}
+
+	private static ThreadPoolTaskExecutor executor(String threadNamePrefix, int threads, int queueCapacity, int shutdownTimeout) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix(threadNamePrefix);
+		//accepted requests are drained instead of interrupted, so their senders get a response
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(shutdownTimeout);
+		executor.initialize();
+		return executor;
+	}
+
+	private static void addStats(List<Metric<?>> metrics, String prefix, ThreadPoolTaskExecutor executor) {
+		metrics.add(new Metric<Integer>(prefix + "active", executor.getActiveCount()));
+		metrics.add(new Metric<Integer>(prefix + "queued", executor.getThreadPoolExecutor().getQueue().size()));
+	}
+}
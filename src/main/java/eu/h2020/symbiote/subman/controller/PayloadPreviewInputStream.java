@@ -0,0 +1,61 @@
+package eu.h2020.symbiote.subman.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Input stream that keeps a copy of at most limit first bytes read, so that the beginning of a large
+ * request payload can be logged without keeping the whole payload in memory.
+ */
+public class PayloadPreviewInputStream extends FilterInputStream {
+
+	private final int limit;
+	private final ByteArrayOutputStream preview = new ByteArrayOutputStream();
+	private long total;
+
+	public PayloadPreviewInputStream(InputStream in, int limit) {
+		super(in);
+		this.limit = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			if (preview.size() < limit)
+				preview.write(b);
+			total++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		if (read > 0) {
+			int kept = Math.min(read, limit - preview.size());
+			if (kept > 0)
+				preview.write(b, off, kept);
+			total += read;
+		}
+		return read;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Method returns beginning of the payload read so far, marked if the payload was longer than the limit.
+	 * 
+	 * @return
+	 */
+	public String getPreview() {
+		String text = new String(preview.toByteArray(), StandardCharsets.UTF_8);
+		return total > preview.size() ? text + "... (" + total + " bytes)" : text;
+	}
+}
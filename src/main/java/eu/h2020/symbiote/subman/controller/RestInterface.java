@@ -1,10 +1,18 @@
 package eu.h2020.symbiote.subman.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,14 +35,14 @@ import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesAddedOrUpdatedMessage;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesDeletedMessage;
 import eu.h2020.symbiote.cloud.model.internal.Subscription;
-import eu.h2020.symbiote.model.mim.Federation;
-import eu.h2020.symbiote.model.mim.FederationMember;
-import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.subman.matching.SubscriptionIndex;
+import eu.h2020.symbiote.subman.matching.SubscriptionPredicate;
 import eu.h2020.symbiote.subman.messaging.Consumers;
 import eu.h2020.symbiote.subman.messaging.RabbitManager;
 import eu.h2020.symbiote.subman.repositories.FederatedResourceRepository;
-import eu.h2020.symbiote.subman.repositories.FederationRepository;
 import eu.h2020.symbiote.subman.repositories.SubscriptionRepository;
+import eu.h2020.symbiote.subman.topology.FederationTopology;
+import eu.h2020.symbiote.subman.topology.TopologySnapshot;
 
 /**
  * SubscriptionManager REST interface.
@@ -46,6 +54,9 @@ public class RestInterface {
 
 	private static final Logger logger = LoggerFactory.getLogger(RestInterface.class);
 
+	private static final String NEW_FEDERATED_RESOURCES = "newFederatedResources";
+	private static final String DELETED_FEDERATED_RESOURCES = "deletedFederatedResources";
+
 	private RabbitManager rabbitManager;
 
 	private SecurityManager securityManager;
@@ -62,125 +73,203 @@ public class RestInterface {
 	@Value("${rabbit.routingKey.platformRegistry.removeFederatedResources}")
 	private String PRremovedFedResRK;
 	
-	private static FederationRepository fedRepo;
-
 	private FederatedResourceRepository fedResRepo;
 	
 	private SubscriptionRepository subscriptionRepo;
 	
+	private SubscriptionIndex subscriptionIndex;
+	
+	private FederationTopology federationTopology;
+	
+	private int chunkSize;
+	
+	private int logPayloadLimit;
+	
+	private InboundRequestExecutor requestExecutor;
+	
 	public static ObjectMapper mapper = new ObjectMapper();
 	
 	@Autowired
-    public RestInterface(RabbitManager rabbitManager, SecurityManager securityManager, FederationRepository fedRepo, FederatedResourceRepository fedResRepo, SubscriptionRepository subscriptionRepository) {
+    public RestInterface(RabbitManager rabbitManager, SecurityManager securityManager, FederatedResourceRepository fedResRepo, SubscriptionRepository subscriptionRepository, SubscriptionIndex subscriptionIndex, FederationTopology federationTopology, InboundRequestExecutor requestExecutor,
+    		@Value("${symbiote.sm.inbound.chunkSize:500}") int chunkSize, @Value("${symbiote.sm.inbound.logPayloadLimit:1024}") int logPayloadLimit) {
         this.rabbitManager = rabbitManager;
         this.securityManager = securityManager;
-        RestInterface.fedRepo = fedRepo;
         this.fedResRepo = fedResRepo;
         this.subscriptionRepo = subscriptionRepository;
+        this.subscriptionIndex = subscriptionIndex;
+        this.federationTopology = federationTopology;
+        this.requestExecutor = requestExecutor;
+        this.chunkSize = chunkSize;
+        this.logPayloadLimit = logPayloadLimit;
     }
 
 	/**
 	 * Endpoint for communication of federated SMs, when new resources are shared.
-	 * Method checks that sender platform is in federations where resource is being shared,
-	 * it validates security headers and if everything is ok, it forwards received data
+	 * Method validates security headers, checks that sender platform is in federations where
+	 * resource is being shared, and if everything is ok, it forwards received data
 	 * to PR component.
+	 * Message is read from the request stream in chunks of at most chunkSize resources, and each chunk is
+	 * stored and forwarded as soon as it is validated, so only one chunk is kept in memory. Chunks applied
+	 * before a rejected chunk are kept, and since saving is idempotent the sender can resend the whole message.
+	 * Request is processed on the inbound resource executor, and 503 is returned if its queue is full.
 	 * 
 	 * @param httpHeaders
-	 * @param receivedJson
+	 * @param body
 	 * @return
 	 */
 	@RequestMapping(value = "/subscriptionManager/addOrUpdate", method = RequestMethod.POST)
-	public ResponseEntity<?> resourcesAddedOrUpdated(@RequestHeader HttpHeaders httpHeaders,
-			@RequestBody String receivedJson) {
+	public CompletableFuture<ResponseEntity<?>> resourcesAddedOrUpdated(@RequestHeader HttpHeaders httpHeaders, InputStream body) {
 
-		logger.info("resourcesAddedOrUpdated HTTP-POST request received: " + receivedJson);
-		ResourcesAddedOrUpdatedMessage receivedMessage;
-		try {
-			receivedMessage = mapper.readValue(receivedJson, ResourcesAddedOrUpdatedMessage.class);
-		} catch (Exception e) {
-			logger.info("Exception trying to map received json to ResourcesAddedOrUpdatedMessage object!");
+		logger.info("resourcesAddedOrUpdated HTTP-POST request received.");
+		return requestExecutor.submitResourceRequest(() -> processResourcesAddedOrUpdated(httpHeaders, body));
+	}
+
+	private ResponseEntity<?> processResourcesAddedOrUpdated(HttpHeaders httpHeaders, InputStream body) {
+		PayloadPreviewInputStream payload = new PayloadPreviewInputStream(body, logPayloadLimit);
+		String senderPlatformId = null;
+		ResponseEntity<?> securityResponse = null;
+		List<CompletableFuture<Void>> forwarded = new ArrayList<>();
+		int received = 0;
+
+		try (StreamingMessageReader<FederatedResource> reader = new StreamingMessageReader<>(mapper, payload,
+				NEW_FEDERATED_RESOURCES, FederatedResource.class)) {
+			List<FederatedResource> chunk;
+			while (!(chunk = reader.next(chunkSize)).isEmpty()) {
+				received += chunk.size();
+				if (senderPlatformId == null)
+					senderPlatformId = chunk.get(0).getPlatformId();
+
+				if (securityResponse == null) {
+					securityResponse = AuthorizationServiceHelper
+							.checkSecurityRequestAndCreateServiceResponse(securityManager, httpHeaders, senderPlatformId);
+					if (securityResponse.getStatusCode() != HttpStatus.OK) {
+						logger.info("Request failed authorization check!");
+						return securityResponse;
+					}
+				}
+
+				//for every FedRes check if sender platformId is in federations where fedRes is being shared
+				if(!checkPlatformIdInFederationsCondition1(senderPlatformId, new ResourcesAddedOrUpdatedMessage(chunk)))
+					return new ResponseEntity<>("Sender not allowed to share all received federated resources, because sender platform is not member of all federations where resource is being shared!",HttpStatus.BAD_REQUEST);
+
+				//store received federatedResources to mongoDB
+				Map<String, String> failed = fedResRepo.bulkSave(chunk);
+				if (!failed.isEmpty()) {
+					logger.warn("Failed to store " + failed.size() + " received federated resources: " + failed);
+					//forward only stored federatedResources
+					chunk = chunk.stream().filter(fr -> !failed.containsKey(fr.getAggregationId())).collect(Collectors.toList());
+				}
+
+				//forward message to PR via RMQ
+				if (!chunk.isEmpty())
+					forwarded.add(rabbitManager.sendAsyncMessageJSON(PRexchange, PRaddedOrUpdatedFedResRK, new ResourcesAddedOrUpdatedMessage(chunk)));
+
+				//saving is idempotent, so sender can retry the whole message
+				if (!failed.isEmpty())
+					return new ResponseEntity<>("Failed to store federated resources " + failed.keySet() + ", message should be resent!",
+							HttpStatus.INTERNAL_SERVER_ERROR);
+			}
+		} catch (IOException e) {
+			logger.info("Exception trying to map received json to ResourcesAddedOrUpdatedMessage object after " + received
+					+ " federated resources! Payload: " + payload.getPreview());
 			return new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesAddedOrUpdatedMessage!",HttpStatus.BAD_REQUEST);
 		}
-		
-		String senderPlatformId = receivedMessage.getNewFederatedResources().get(0).getPlatformId();
-		//for every FedRes check if sender platformId is in federations where fedRes is being shared
-		if(!checkPlatformIdInFederationsCondition1(senderPlatformId, receivedMessage))
-			return new ResponseEntity<>("Sender not allowed to share all received federated resources, because sender platform is not member of all federations where resource is being shared!",HttpStatus.BAD_REQUEST);
 
-		ResponseEntity<?> securityResponse = AuthorizationServiceHelper
-				.checkSecurityRequestAndCreateServiceResponse(securityManager, httpHeaders, senderPlatformId);
-		if (securityResponse.getStatusCode() != HttpStatus.OK) {
-			logger.info("Request failed authorization check!");
-			return securityResponse;
+		if (securityResponse == null) {
+			logger.info("Received ResourcesAddedOrUpdatedMessage without federated resources!");
+			return new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesAddedOrUpdatedMessage!",HttpStatus.BAD_REQUEST);
 		}
 
-		//store received federatedResources to mongoDB
-		for (FederatedResource fr : receivedMessage.getNewFederatedResources()) {
-			fedResRepo.save(fr);
-		}
-		
-		//forward message to PR via RMQ
-		rabbitManager.sendAsyncMessageJSON(PRexchange, PRaddedOrUpdatedFedResRK, receivedMessage);
+		if (!confirmed(forwarded))
+			return new ResponseEntity<>("Failed to forward federated resources to Platform Registry, message should be resent!",
+					HttpStatus.INTERNAL_SERVER_ERROR);
 
-		logger.info("ResourcesAddedOrUpdated request succesfully processed!");
+		logger.debug("Processed resourcesAddedOrUpdated payload: " + payload.getPreview());
+		logger.info("ResourcesAddedOrUpdated request succesfully processed for " + received + " federated resources!");
 		return AuthorizationServiceHelper.addSecurityService(new HttpHeaders(), HttpStatus.OK,
 				(String) securityResponse.getBody());
 	}
 
 	/**
 	 * Endpoint for communication of federated SMs, when shared resources are removed.
-	 * Method checks that all federated resources exist, and that the platform that shared
-	 * them is allowed to delete them. It also validates security headers and if everything is ok,
+	 * Method validates security headers, and checks that all federated resources exist, and that
+	 * the platform that shared them is allowed to delete them. If everything is ok,
 	 * received data is forwarded to PR component.
+	 * Message is read from the request stream in chunks of at most chunkSize symbioteIds, on the inbound
+	 * resource executor, and each chunk is unshared and forwarded as soon as it is validated. Chunks applied
+	 * before a rejected chunk are kept, and since unsharing is idempotent the sender can resend the whole message.
 	 * 
 	 * @param httpHeaders
-	 * @param receivedJson
+	 * @param body
 	 * @return
 	 */
 	@RequestMapping(value = "/subscriptionManager/delete", method = RequestMethod.POST)
-	public ResponseEntity<?> resourcesDeleted(@RequestHeader HttpHeaders httpHeaders, @RequestBody String receivedJson) {
+	public CompletableFuture<ResponseEntity<?>> resourcesDeleted(@RequestHeader HttpHeaders httpHeaders, InputStream body) {
 
-		logger.info("resourcesDeleted HTTP-POST request received: " + receivedJson);
-		ResourcesDeletedMessage receivedMessage;
-		
-		try {
-			receivedMessage = mapper.readValue(receivedJson, ResourcesDeletedMessage.class);
-		} catch (Exception e) {
-			logger.info("Exception trying to map received json to ResourcesDeletedMessage object!");
-			return new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesDeletedMessage!", HttpStatus.BAD_REQUEST);
-		}
+		logger.info("resourcesDeleted HTTP-POST request received.");
+		return requestExecutor.submitResourceRequest(() -> processResourcesDeleted(httpHeaders, body));
+	}
 
-        //check that platform that shared received fedRes is in federations where the resource is being unshared
-		if(!checkPlatformIdInFederationsCondition2(receivedMessage))
-		    return new ResponseEntity<>("The platform that shared the resource is not in the federation",
-                    HttpStatus.BAD_REQUEST);
+	private ResponseEntity<?> processResourcesDeleted(HttpHeaders httpHeaders, InputStream body) {
+		PayloadPreviewInputStream payload = new PayloadPreviewInputStream(body, logPayloadLimit);
+		ResponseEntity<?> securityResponse = null;
+		List<CompletableFuture<Void>> forwarded = new ArrayList<>();
+		int received = 0;
 
-        //get sender platformId
-		String [] symbioteIdParts = receivedMessage.getDeletedFederatedResources().iterator().next().split("@"); //nonce@platformId@federationId
+		try (StreamingMessageReader<String> reader = new StreamingMessageReader<>(mapper, payload,
+				DELETED_FEDERATED_RESOURCES, String.class)) {
+			List<String> chunk;
+			while (!(chunk = reader.next(chunkSize)).isEmpty()) {
+				received += chunk.size();
+				ResourcesDeletedMessage chunkMessage = new ResourcesDeletedMessage(new HashSet<>(chunk));
 
-        ResponseEntity<?> securityResponse = AuthorizationServiceHelper
-				.checkSecurityRequestAndCreateServiceResponse(securityManager, httpHeaders, symbioteIdParts[1]);
-		if (securityResponse.getStatusCode() != HttpStatus.OK) {
-			logger.info("Request failed authorization check!");
-			return securityResponse;
-		}
+				if (securityResponse == null) {
+					//get sender platformId
+					String [] symbioteIdParts = chunk.get(0).split("@"); //nonce@platformId@federationId
 
-		//delete federatedResources from given federations, or delete from mongoDB if removed from all federations
-		for (String symbioteId : receivedMessage.getDeletedFederatedResources()) {
-			String [] splitSymbioteId = symbioteId.split("@");
-			FederatedResource current = fedResRepo.findOne(splitSymbioteId[0]+"@"+splitSymbioteId[1]);
-			if(current != null) {
-				current.unshareFromFederation(splitSymbioteId[2]);
-				if(current.getFederatedResourceInfoMap().size() > 0) fedResRepo.save(current); // if fedRes is shared in another federations save it without deleted one
-				else fedResRepo.delete(splitSymbioteId[0]+"@"+splitSymbioteId[1]);
+					securityResponse = AuthorizationServiceHelper
+							.checkSecurityRequestAndCreateServiceResponse(securityManager, httpHeaders, symbioteIdParts[1]);
+					if (securityResponse.getStatusCode() != HttpStatus.OK) {
+						logger.info("Request failed authorization check!");
+						return securityResponse;
+					}
+				}
+
+				//check that platform that shared received fedRes is in federations where the resource is being unshared
+				if(!checkPlatformIdInFederationsCondition2(chunkMessage))
+				    return new ResponseEntity<>("The platform that shared the resource is not in the federation",
+		                    HttpStatus.BAD_REQUEST);
+
+				//delete federatedResources from given federations, or delete from mongoDB if removed from all federations
+				// <federationId, Set<aggregationIds>>
+				Map<String, Set<String>> federationAggregationIds = new HashMap<>();
+				for (String symbioteId : chunkMessage.getDeletedFederatedResources()) {
+					String [] splitSymbioteId = symbioteId.split("@");
+					federationAggregationIds.computeIfAbsent(splitSymbioteId[2], k -> new HashSet<>()).add(splitSymbioteId[0]+"@"+splitSymbioteId[1]);
+				}
+				for (Map.Entry<String, Set<String>> entry : federationAggregationIds.entrySet())
+					fedResRepo.unshareFromFederation(entry.getValue(), entry.getKey());
+
+				//forward message to PR via RMQ
+				forwarded.add(rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, chunkMessage));
 			}
-			else continue;
+		} catch (IOException e) {
+			logger.info("Exception trying to map received json to ResourcesDeletedMessage object after " + received
+					+ " symbioteIds! Payload: " + payload.getPreview());
+			return new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesDeletedMessage!", HttpStatus.BAD_REQUEST);
 		}
-		
-        //forward message to PR via RMQ (check if single or list)
-		rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, receivedMessage);
 
-		logger.info("ResourcesDeleted request succesfully processed!");
+		if (securityResponse == null) {
+			logger.info("Received ResourcesDeletedMessage without symbioteIds!");
+			return new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesDeletedMessage!", HttpStatus.BAD_REQUEST);
+		}
+
+		if (!confirmed(forwarded))
+			return new ResponseEntity<>("Failed to forward removed federated resources to Platform Registry, message should be resent!",
+					HttpStatus.INTERNAL_SERVER_ERROR);
+
+		logger.debug("Processed resourcesDeleted payload: " + payload.getPreview());
+		logger.info("ResourcesDeleted request succesfully processed for " + received + " symbioteIds!");
 		return AuthorizationServiceHelper.addSecurityService(new HttpHeaders(), HttpStatus.OK,
 				(String) securityResponse.getBody());
 	}
@@ -217,11 +306,10 @@ public class RestInterface {
 
 		//if everything is ok, update platform subscription in mongoDB
 		subscriptionRepo.save(subscription);
+		subscriptionIndex.put(subscription);
 		
 		//send this new subscription to all platforms that are federated with home platform
-		for(String federatedPlatformId : Consumers.numberOfCommonFederations.keySet()) {
-			sendOwnSubscription(federatedPlatformId);
-		}
+		sendOwnSubscription(federationTopology.getPeers());
 		
 		clearUnsubscribedFederatedResourcesAndNotifyPR();
 		
@@ -235,15 +323,20 @@ public class RestInterface {
 	 * After security headers verification, it is also verified that
 	 * sender platform and this platform are federated. If true, subscription is 
 	 * stored to mongoDB and HTTP OK response is sent.
+	 * Request is processed on the inbound subscription executor, and 503 is returned if its queue is full.
 	 * 
 	 * @param httpHeaders
 	 * @param receivedJson
 	 * @return
 	 */
 	@RequestMapping(value = "/subscriptionManager/subscription", method = RequestMethod.POST)
-	public ResponseEntity<?> foreignSubscriptionDefinition(@RequestHeader HttpHeaders httpHeaders, @RequestBody String receivedJson) {
+	public CompletableFuture<ResponseEntity<?>> foreignSubscriptionDefinition(@RequestHeader HttpHeaders httpHeaders, @RequestBody String receivedJson) {
 		
 		logger.info("Subscription definition HTTP-POST request received.");
+		return requestExecutor.submitSubscriptionRequest(() -> processForeignSubscriptionDefinition(httpHeaders, receivedJson));
+	}
+
+	private ResponseEntity<?> processForeignSubscriptionDefinition(HttpHeaders httpHeaders, String receivedJson) {
 		Subscription subscription;
 		
 		try {
@@ -254,7 +347,7 @@ public class RestInterface {
 		}
 		
 		//fetch common federationIDs with platform that sent the subscription
-		List<String> federatedHomeAndReceived = findCommonFederations(subscription.getPlatformId(), platformId);
+		Set<String> federatedHomeAndReceived = federationTopology.getCommonFederations(subscription.getPlatformId());
 		
 		if(federatedHomeAndReceived.size() == 0)
 			return new ResponseEntity<>("Sender platform and receiving platfrom are not federated!", HttpStatus.BAD_REQUEST);
@@ -268,6 +361,7 @@ public class RestInterface {
 		}
 		
 		subscriptionRepo.save(subscription);
+		subscriptionIndex.put(subscription);
 		logger.info("Subscription request succesfully processed!");
 		
 		Consumers.processSendingExistingFederatedResources(subscription.getPlatformId(), federatedHomeAndReceived, platformId);
@@ -289,7 +383,7 @@ public class RestInterface {
 	public ResponseEntity<?> getAllSubscriptions(@RequestHeader HttpHeaders httpHeaders) throws JsonProcessingException {
 		
 		logger.info("HTTP-GET request received for fetching all existing subscriptions.");
-		List<Subscription> allSubscriptions = subscriptionRepo.findAll();
+		List<Subscription> allSubscriptions = subscriptionIndex.getSubscriptions();
 		
 		HttpHeaders headers = new HttpHeaders();
 		headers.add("Content-Type", "application/json");
@@ -309,7 +403,7 @@ public class RestInterface {
 	public ResponseEntity<?> getSpecificSubscription(@RequestHeader HttpHeaders httpHeaders,@PathVariable(value="platformId") String id) throws JsonProcessingException {
 		
 		logger.info("HTTP-GET request received for fetching subscription with id:" + id + " received.");
-		Subscription sub = subscriptionRepo.findOne(id);
+		Subscription sub = subscriptionIndex.getSubscription(id);
 		
 		if(sub == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		else {	
@@ -322,6 +416,7 @@ public class RestInterface {
 	/**
 	 * Method checks if senders PlatformId is in all federations where federated resource is being shared.
 	 * Returns true, if sender id is in federations where resource is shared, or false if not.
+	 * Federations are resolved from the current federation topology, so only federations of this platform are known.
 	 * 
 	 * @param senderPlatformId
 	 * @param receivedMessage
@@ -329,21 +424,13 @@ public class RestInterface {
 	 */
 	public boolean checkPlatformIdInFederationsCondition1(String senderPlatformId, ResourcesAddedOrUpdatedMessage receivedMessage){
 		
-		boolean requestOk = false;
-		for(FederatedResource fedRes : receivedMessage.getNewFederatedResources()){
-			
-			for(String federationId : fedRes.getFederatedResourceInfoMap().keySet()){
-				Federation current = fedRepo.findOne(federationId);
-				if(current == null) return false;
-				requestOk = false;
-				for (FederationMember fedMem : current.getMembers()){
-					if(fedMem.getPlatformId().equals(senderPlatformId)) {
-						requestOk = true;
-						break;
-					}
-				}
-				if(!requestOk)return false;
-			}			
+		Set<String> federationIds = new HashSet<>();
+		for(FederatedResource fedRes : receivedMessage.getNewFederatedResources())
+			federationIds.addAll(fedRes.getFederatedResourceInfoMap().keySet());
+		
+		TopologySnapshot topology = federationTopology.current();
+		for(String federationId : federationIds){
+			if(!topology.getMembers(federationId).contains(senderPlatformId)) return false;
 		}
 		return true;
 	}
@@ -353,61 +440,37 @@ public class RestInterface {
 	 * federations where it is being deleted. It returns true if ok, and false if 
 	 * there are non-existing federated resources or federations, or if federated resource 
 	 * is shared by a platform that is not in federations where it is being deleted.
+	 * Federated resources of the message are fetched with one query, and federations are resolved
+	 * from the current federation topology.
 	 * 
 	 * @param rdm
 	 * @return
 	 */
 	public boolean checkPlatformIdInFederationsCondition2(ResourcesDeletedMessage rdm){
 
-		boolean requestOk = false;
-		//for every received federatedResourceId
+		//for every received federatedResourceId check that federation exists and that sharing platform is its member
+		TopologySnapshot topology = federationTopology.current();
+		Set<String> aggregatedIds = new HashSet<>();
 		for (String deletedSymbioteId : rdm.getDeletedFederatedResources()) {
 			String [] symbioteIdParts = deletedSymbioteId.split("@"); // nonce@platformId@federationId
-			String aggregatedId = symbioteIdParts[0] + "@" + symbioteIdParts[1];
-			
-			//check that federated resource exists in mongoDB
-			FederatedResource fedRes = fedResRepo.findOne(aggregatedId);
-			if(fedRes == null) return false;
-			
-			//check that federation exists
-			Federation fed = fedRepo.findOne(symbioteIdParts[2]);
-			if(fed == null) return false;
-			
-			requestOk = false;
-			for(FederationMember fm : fed.getMembers()){
-				if(fm.getPlatformId().equals(symbioteIdParts[1])){
-					requestOk = true;
-					break;
-				}
-			}
-			if(!requestOk) return false;
+			if(!topology.getMembers(symbioteIdParts[2]).contains(symbioteIdParts[1])) return false;
+			aggregatedIds.add(symbioteIdParts[0] + "@" + symbioteIdParts[1]);
 		}
-		return true;
+		
+		//check that all federated resources exist in mongoDB
+		return fedResRepo.findExistingIds(aggregatedIds).containsAll(aggregatedIds);
 	}
 	
 	/**
-	 * Method creates securityRequest and sends this platform subscription object to
-	 * the given federated platform.
-	 * @param federatedPlatformId
+	 * Method stores this platform subscription object to outbox for sending
+	 * to the given federated platforms.
+	 * @param federatedPlatformIds
 	 */
-	private void sendOwnSubscription (String federatedPlatformId) {
-		// Wrap in try/catch to avoid requeuing
+	private void sendOwnSubscription (Collection<String> federatedPlatformIds) {
         try {
-		//send HTTP-POST of own subscription
-		SecurityRequest securityRequest = securityManager.generateSecurityRequest();
-        if (securityRequest != null) {
-            logger.debug("Security Request created successfully!");
-
-            // if the creation of securityRequest is successful send it to the federated platform  
-			Consumers.sendSecurityRequestAndVerifyResponse(securityRequest,
-					mapper.writeValueAsString(subscriptionRepo.findOne(platformId)),
-					Consumers.addressBook.get(federatedPlatformId).replaceAll("/+$", "") + "/subscriptionManager" + "/subscription",
-					federatedPlatformId);       
-        } else
-            logger.info(
-                    "Failed to send own subscription message due to securityRequest creation failure!");
+			Consumers.sendOwnSubscription(federatedPlatformIds, platformId);
         } catch (Exception e) {
-            logger.warn("Exception thrown during processing federationMember addition.", e);
+            logger.warn("Exception thrown during sending own subscription.", e);
         }
 	}
 	
@@ -419,12 +482,12 @@ public class RestInterface {
 	private void clearUnsubscribedFederatedResourcesAndNotifyPR() {
 		Set<String> PRnotification = new HashSet<>();
 		
-		List<FederatedResource> allFederatedResources = fedResRepo.findAll();
-		for(FederatedResource fr : allFederatedResources) {
-			//if federatedResource is not shared by this platform
-			if(!fr.getPlatformId().equals(platformId)) {
+		SubscriptionPredicate ownSubscription = subscriptionIndex.get(platformId);
+		//iterate federatedResources not shared by this platform
+		try (Stream<FederatedResource> foreignFederatedResources = fedResRepo.findByPlatformIdNot(platformId)) {
+			foreignFederatedResources.forEach(fr -> {
 				//if this platform is not subscribed to this federated resource anymore...
-				if(!Consumers.isSubscribed(subscriptionRepo.findOne(platformId), fr)) {
+				if(!ownSubscription.matches(fr)) {
 					//delete from fedRes repository
 					fedResRepo.delete(fr.getAggregationId());
 					//store symbioteIds of deleted federated resource
@@ -432,25 +495,29 @@ public class RestInterface {
 						PRnotification.add(fr.getAggregationId()+"@"+fedId);
 					}
 				}
-			}
+			});
 		}
 		//send notification to PR about deleted federated resources
-		rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, new ResourcesDeletedMessage(PRnotification));
+		rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, new ResourcesDeletedMessage(PRnotification))
+				.whenComplete((result, e) -> {
+					if (e != null)
+						logger.warn("Failed to notify Platform Registry about " + PRnotification.size() + " removed federated resources", e);
+				});
 	}
-	
+
 	/**
-	 * Method finds all existing federations containing this platform and platform with the given id.
+	 * Method waits until all the given messages to Platform Registry are confirmed by the broker.
 	 * 
-	 * @param otherPlatformId
-	 * @return
+	 * @param forwarded
+	 * @return true if all messages are confirmed, false if any of them is not published
 	 */
-	public static List<String> findCommonFederations(String otherPlatformId, String homePlatformId){
-		List<String> federatedHomeAndReceived = new ArrayList<>();
-		for(Federation federation : fedRepo.findAll()) {			
-			//if this platform and other platform are in federation...
-			List<String> memberIds = federation.getMembers().stream().map(FederationMember::getPlatformId).collect(Collectors.toList());
-			if(memberIds != null && memberIds.contains(homePlatformId) && memberIds.contains(otherPlatformId)) federatedHomeAndReceived.add(federation.getId());			
+	private static boolean confirmed(List<CompletableFuture<Void>> forwarded) {
+		try {
+			CompletableFuture.allOf(forwarded.toArray(new CompletableFuture<?>[0])).join();
+			return true;
+		} catch (CompletionException e) {
+			logger.warn("Failed to forward received message to Platform Registry", e.getCause());
+			return false;
 		}
-		return federatedHomeAndReceived;
 	}
 }
\ No newline at end of file
@@ -4,34 +4,50 @@ import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
 
+@Component
 public class SecuredRequestSender {
 	
 	private static final Logger logger = LoggerFactory.getLogger(RestInterface.class);
 	
-	private static RestTemplate restTemplate = new RestTemplate();
+	private RestTemplate restTemplate;
 	
 	/**
-	 * Method sends HTTP POST request with corresponding security headers that contains given JSON string
-	 * to the given url. It returns received response entity.
+	 * Requests are sent with the pooled peerRestTemplate (see PeerHttpClientConfiguration).
+	 * 
+	 * @param peerRestTemplate
+	 */
+	@Autowired
+	public SecuredRequestSender(@Qualifier("peerRestTemplate") RestTemplate peerRestTemplate) {
+		this.restTemplate = peerRestTemplate;
+	}
+	
+	/**
+	 * Method sends HTTP POST request with corresponding security headers that contains given serialized
+	 * JSON to the given url. Payload is written to the request as is, so that the same buffer can be
+	 * sent to many platforms. It returns received response entity.
 	 * 
 	 * @param securityRequest
-	 * @param objectJson
+	 * @param payload
 	 * @param completeRequestUrl
 	 * @return
 	 */
-	public static ResponseEntity<?> sendSecuredRequest(SecurityRequest securityRequest, String objectJson, String completeRequestUrl) {
+	public ResponseEntity<?> sendSecuredRequest(SecurityRequest securityRequest, byte[] payload, String completeRequestUrl) {
 		
 		Map<String, String> securityRequestHeaders;
 		HttpHeaders httpHeaders = new HttpHeaders();
@@ -43,7 +59,7 @@ public class SecuredRequestSender {
 	        }
 	        logger.debug("request headers: " + httpHeaders);
 	        
-	        HttpEntity<String> httpEntity = new HttpEntity<>(objectJson, httpHeaders);
+	        HttpEntity<byte[]> httpEntity = new HttpEntity<>(payload, httpHeaders);
 	        ResponseEntity<?> responseEntity = null;
 	        try {
 	        	logger.debug("body = " + completeRequestUrl);
@@ -56,6 +72,9 @@ public class SecuredRequestSender {
 	            logger.debug("body = " + responseEntity.getBody());
 	            
 	            return responseEntity;
+	        }  catch (HttpStatusCodeException e) {
+	            logger.warn("HTTP POST request failed with status " + e.getStatusCode() + "!");
+	            return new ResponseEntity<>(e.getResponseBodyAsString(), e.getResponseHeaders(), e.getStatusCode());
 	        }  catch (Exception e) {
 	            logger.warn("Error executing HTTP POST request!");
 	            return new ResponseEntity<>(e.getMessage(), new HttpHeaders(), HttpStatus.INTERNAL_SERVER_ERROR);
@@ -127,13 +127,13 @@ public class SecurityManager {
 		return securityHandler.getSatisfiedPoliciesIdentifiers(accessPoliciesMap, securityRequest);
 	}
 	
-	public SecurityRequest generateSecurityRequest(){
-		try {
-			return securityHandler.generateSecurityRequestUsingLocalCredentials();
-		} catch (SecurityHandlerException e) {
-			logger.info("SecurityManager failed to create SecurityRequest using local credentials!");
-			return null;
-		}
+	/**
+	 * Method returns the component security handler, or null if security is disabled.
+	 * 
+	 * @return
+	 */
+	public IComponentSecurityHandler getSecurityHandler() {
+		return securityHandler;
 	}
 	
 	public boolean verifyReceivedResponse(String serviceResponse, String componentIdentifier, String platformIdentifier){
@@ -0,0 +1,89 @@
+package eu.h2020.symbiote.subman.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads elements of a single array field of a JSON message directly from a stream, in chunks of bounded size.
+ * Only the current chunk is kept in memory, so large messages are processed while they are still being received.
+ * Other fields of the message are skipped.
+ * 
+ * @param <T> type of array elements
+ */
+public class StreamingMessageReader<T> implements Closeable {
+
+	private final ObjectMapper mapper;
+	private final JsonParser parser;
+	private final String fieldName;
+	private final Class<T> elementType;
+
+	private boolean inArray;
+	private boolean finished;
+
+	public StreamingMessageReader(ObjectMapper mapper, InputStream in, String fieldName, Class<T> elementType) throws IOException {
+		this.mapper = mapper;
+		this.parser = mapper.getFactory().createParser(in);
+		this.fieldName = fieldName;
+		this.elementType = elementType;
+
+		if (parser.nextToken() != JsonToken.START_OBJECT)
+			throw new JsonParseException(parser, "Expected JSON object");
+	}
+
+	/**
+	 * Method reads next elements of the array field.
+	 * 
+	 * @param maxElements
+	 * @return at most maxElements elements, or empty list if all elements were read
+	 * @throws IOException if the message is not valid JSON or elements cannot be mapped
+	 */
+	public List<T> next(int maxElements) throws IOException {
+		List<T> chunk = new ArrayList<>();
+		if (finished || (!inArray && !findArray()))
+			return chunk;
+
+		while (chunk.size() < maxElements) {
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.END_ARRAY) {
+				inArray = false;
+				//rest of the message is read to check that it is valid
+				findArray();
+				break;
+			}
+			if (token == null)
+				throw new JsonParseException(parser, "Unexpected end of message");
+			chunk.add(mapper.readValue(parser, elementType));
+		}
+		return chunk;
+	}
+
+	@Override
+	public void close() throws IOException {
+		parser.close();
+	}
+
+	private boolean findArray() throws IOException {
+		JsonToken token;
+		while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			token = parser.nextToken();
+			if (name.equals(fieldName) && token == JsonToken.START_ARRAY) {
+				inArray = true;
+				return true;
+			}
+			parser.skipChildren();
+		}
+		if (token != JsonToken.END_OBJECT)
+			throw new JsonParseException(parser, "Unexpected end of message");
+		finished = true;
+		return false;
+	}
+}
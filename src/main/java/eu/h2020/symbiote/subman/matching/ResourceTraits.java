@@ -0,0 +1,132 @@
+package eu.h2020.symbiote.subman.matching;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.model.cim.Actuator;
+import eu.h2020.symbiote.model.cim.Capability;
+import eu.h2020.symbiote.model.cim.Device;
+import eu.h2020.symbiote.model.cim.Resource;
+import eu.h2020.symbiote.model.cim.Sensor;
+import eu.h2020.symbiote.model.cim.Service;
+
+/**
+ * Properties of a federated resource that are relevant for subscription matching.
+ * They are extracted once per resource, so that the resource can be matched against
+ * any number of subscriptions without inspecting the resource again.
+ */
+public final class ResourceTraits {
+
+	public static final String SERVICE = "service";
+	public static final String SENSOR = "sensor";
+	public static final String ACTUATOR = "actuator";
+	public static final String DEVICE = "device";
+
+	/**
+	 * Subscribable resource types, position of a type defines its bit in resource type masks.
+	 */
+	public static final List<String> RESOURCE_TYPES = Collections.unmodifiableList(Arrays.asList(SERVICE, SENSOR, ACTUATOR, DEVICE));
+
+	private final String resourceType;
+	private final int resourceTypeBit;
+	private final String locationName;
+	private final Set<String> observedProperties;
+	private final Set<String> capabilities;
+
+	private ResourceTraits(String resourceType, String locationName, Set<String> observedProperties, Set<String> capabilities) {
+		this.resourceType = resourceType;
+		this.resourceTypeBit = typeBit(resourceType);
+		this.locationName = locationName;
+		this.observedProperties = observedProperties;
+		this.capabilities = capabilities;
+	}
+
+	/**
+	 * Method extracts matching traits of the given federated resource.
+	 * Returns null if resource is not defined, since such federated resource
+	 * is not valid for subscription matching.
+	 *
+	 * @param fedRes
+	 * @return
+	 */
+	public static ResourceTraits of(FederatedResource fedRes) {
+		if(fedRes.getCloudResource() == null || fedRes.getCloudResource().getResource() == null)
+			return null;
+
+		Resource resource = fedRes.getCloudResource().getResource();
+
+		String locationName = null;
+		if(resource instanceof Device && ((Device) resource).getLocatedAt() != null)
+			locationName = ((Device) resource).getLocatedAt().getName();
+
+		Set<String> observedProperties = Collections.emptySet();
+		if(resource instanceof Sensor && ((Sensor) resource).getObservesProperty() != null)
+			observedProperties = new HashSet<>(((Sensor) resource).getObservesProperty());
+
+		Set<String> capabilities = Collections.emptySet();
+		if(resource instanceof Actuator && ((Actuator) resource).getCapabilities() != null) {
+			capabilities = new HashSet<>();
+			for(Capability capability : ((Actuator) resource).getCapabilities()) {
+				if(capability != null)
+					capabilities.add(capability.getName());
+			}
+		}
+
+		return new ResourceTraits(resourceTypeOf(resource), locationName, observedProperties, capabilities);
+	}
+
+	/**
+	 * Method returns the subscription resourceType key of the given resource,
+	 * or null if resource is of none of the subscribable types.
+	 *
+	 * @param resource
+	 * @return
+	 */
+	public static String resourceTypeOf(Resource resource) {
+		if(resource instanceof Service)
+			return SERVICE;
+		if(resource instanceof Sensor)
+			return SENSOR;
+		if(resource instanceof Actuator)
+			return ACTUATOR;
+		if(resource instanceof Device)
+			return DEVICE;
+		return null;
+	}
+
+	/**
+	 * Method returns the mask bit of the given subscription resourceType key,
+	 * or 0 if it is not one of the subscribable types.
+	 *
+	 * @param resourceType
+	 * @return
+	 */
+	public static int typeBit(String resourceType) {
+		int position = RESOURCE_TYPES.indexOf(resourceType);
+		return position < 0 ? 0 : 1 << position;
+	}
+
+	public String getResourceType() {
+		return resourceType;
+	}
+
+	public int getResourceTypeBit() {
+		return resourceTypeBit;
+	}
+
+	public String getLocationName() {
+		return locationName;
+	}
+
+	public Set<String> getObservedProperties() {
+		return observedProperties;
+	}
+
+	public Set<String> getCapabilities() {
+		return capabilities;
+	}
+}
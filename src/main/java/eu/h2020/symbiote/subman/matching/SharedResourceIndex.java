@@ -0,0 +1,286 @@
+package eu.h2020.symbiote.subman.matching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.subman.repositories.FederatedResourceRepository;
+
+/**
+ * In-memory index of federated resources shared by this platform. Resources are indexed
+ * by federation id, resource type, location name, observed property and capability, so
+ * that resources matching a subscription of a federated platform are found without
+ * loading the federated resource repository. Only aggregationIds are kept in the index,
+ * matching resources are then fetched by id.
+ */
+@Component
+public class SharedResourceIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedResourceIndex.class);
+
+	private final String platformId;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	//<aggregationId, entry>
+	private final Map<String, Entry> entries = new HashMap<>();
+	//<federationId, aggregationIds>
+	private final Map<String, Set<String>> byFederation = new HashMap<>();
+	//<resourceType bit, aggregationIds>
+	private final Map<Integer, Set<String>> byResourceType = new HashMap<>();
+	//<location name, aggregationIds>
+	private final Map<String, Set<String>> byLocation = new HashMap<>();
+	//<observed property, aggregationIds>
+	private final Map<String, Set<String>> byObservedProperty = new HashMap<>();
+	//<capability name, aggregationIds>
+	private final Map<String, Set<String>> byCapability = new HashMap<>();
+
+	@Autowired
+	public SharedResourceIndex(FederatedResourceRepository fedResRepo, @Value("${platform.id}") String platformId) {
+		this.platformId = platformId;
+
+		//initializing index to current situation in DB (required to run properly on restart)
+		for(FederatedResource fedRes : fedResRepo.findByPlatformId(platformId))
+			put(fedRes);
+		logger.debug("Shared resource index initialized with " + entries.size() + " federated resources.");
+	}
+
+	/**
+	 * Method adds or updates the given federated resource in the index.
+	 * Resources not shared by this platform are ignored, and resources
+	 * not shared in any federation are removed from the index.
+	 *
+	 * @param fedRes
+	 */
+	public void put(FederatedResource fedRes) {
+		if(!platformId.equals(fedRes.getPlatformId()))
+			return;
+		if(fedRes.getFederatedResourceInfoMap() == null || fedRes.getFederatedResourceInfoMap().isEmpty()) {
+			remove(fedRes.getAggregationId());
+			return;
+		}
+
+		ResourceTraits traits = ResourceTraits.of(fedRes);
+		Entry entry = new Entry(fedRes.getAggregationId(), traits, new HashSet<>(fedRes.getFederatedResourceInfoMap().keySet()));
+
+		lock.writeLock().lock();
+		try {
+			Entry old = entries.put(entry.aggregationId, entry);
+			if(old != null)
+				unlink(old);
+			link(entry);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method removes federated resource with the given aggregationId from the index.
+	 *
+	 * @param aggregationId
+	 */
+	public void remove(String aggregationId) {
+		lock.writeLock().lock();
+		try {
+			Entry old = entries.remove(aggregationId);
+			if(old != null)
+				unlink(old);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method removes the given federation from indexed resources with the given aggregationIds.
+	 * Resources left without federations are removed from the index.
+	 *
+	 * @param aggregationIds
+	 * @param federationId
+	 */
+	public void unshare(Collection<String> aggregationIds, String federationId) {
+		lock.writeLock().lock();
+		try {
+			for(String aggregationId : aggregationIds) {
+				Entry entry = entries.get(aggregationId);
+				if(entry == null || !entry.federations.remove(federationId))
+					continue;
+				unlink(byFederation, federationId, aggregationId);
+				if(entry.federations.isEmpty()) {
+					entries.remove(aggregationId);
+					unlink(entry);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method checks if federated resource with the given aggregationId is in the index.
+	 *
+	 * @param aggregationId
+	 * @return
+	 */
+	public boolean contains(String aggregationId) {
+		lock.readLock().lock();
+		try {
+			return entries.containsKey(aggregationId);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method removes all resources from the index.
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			entries.clear();
+			byFederation.clear();
+			byResourceType.clear();
+			byLocation.clear();
+			byObservedProperty.clear();
+			byCapability.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method finds all indexed resources that are shared in at least one of the given federations
+	 * and match the given subscription. For each found resource it returns the given federations
+	 * where that resource is shared.
+	 *
+	 * @param subscription
+	 * @param federationIds
+	 * @return map of aggregationIds to common federationIds
+	 */
+	public Map<String, Set<String>> find(SubscriptionPredicate subscription, Collection<String> federationIds) {
+		Map<String, Set<String>> result = new HashMap<>();
+
+		lock.readLock().lock();
+		try {
+			List<Set<String>> conditions = new ArrayList<>();
+			conditions.add(union(byFederation, federationIds));
+
+			List<Integer> resourceTypeBits = new ArrayList<>();
+			for(String resourceType : ResourceTraits.RESOURCE_TYPES) {
+				int bit = ResourceTraits.typeBit(resourceType);
+				if((subscription.getResourceTypeMask() & bit) != 0)
+					resourceTypeBits.add(bit);
+			}
+			conditions.add(union(byResourceType, resourceTypeBits));
+
+			if(!subscription.getLocations().isEmpty())
+				conditions.add(union(byLocation, subscription.getLocations()));
+			if(!subscription.getObservedProperties().isEmpty())
+				conditions.add(union(byObservedProperty, subscription.getObservedProperties()));
+			if(!subscription.getCapabilities().isEmpty())
+				conditions.add(union(byCapability, subscription.getCapabilities()));
+
+			//iterate the most selective condition and check the others
+			Set<String> smallest = Collections.min(conditions, (a, b) -> Integer.compare(a.size(), b.size()));
+			for(String aggregationId : smallest) {
+				boolean matching = true;
+				for(Set<String> condition : conditions) {
+					if(condition != smallest && !condition.contains(aggregationId)) {
+						matching = false;
+						break;
+					}
+				}
+				if(!matching)
+					continue;
+
+				Set<String> commonFederations = new HashSet<>();
+				for(String federationId : federationIds) {
+					if(entries.get(aggregationId).federations.contains(federationId))
+						commonFederations.add(federationId);
+				}
+				result.put(aggregationId, commonFederations);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	private void link(Entry entry) {
+		for(String federationId : entry.federations)
+			byFederation.computeIfAbsent(federationId, k -> new HashSet<>()).add(entry.aggregationId);
+		if(entry.traits == null)
+			return;
+		byResourceType.computeIfAbsent(entry.traits.getResourceTypeBit(), k -> new HashSet<>()).add(entry.aggregationId);
+		if(entry.traits.getLocationName() != null)
+			byLocation.computeIfAbsent(entry.traits.getLocationName(), k -> new HashSet<>()).add(entry.aggregationId);
+		for(String observedProperty : entry.traits.getObservedProperties())
+			byObservedProperty.computeIfAbsent(observedProperty, k -> new HashSet<>()).add(entry.aggregationId);
+		for(String capability : entry.traits.getCapabilities())
+			byCapability.computeIfAbsent(capability, k -> new HashSet<>()).add(entry.aggregationId);
+	}
+
+	private void unlink(Entry entry) {
+		for(String federationId : entry.federations)
+			unlink(byFederation, federationId, entry.aggregationId);
+		if(entry.traits == null)
+			return;
+		unlink(byResourceType, entry.traits.getResourceTypeBit(), entry.aggregationId);
+		if(entry.traits.getLocationName() != null)
+			unlink(byLocation, entry.traits.getLocationName(), entry.aggregationId);
+		for(String observedProperty : entry.traits.getObservedProperties())
+			unlink(byObservedProperty, observedProperty, entry.aggregationId);
+		for(String capability : entry.traits.getCapabilities())
+			unlink(byCapability, capability, entry.aggregationId);
+	}
+
+	private static <K> void unlink(Map<K, Set<String>> postings, K key, String aggregationId) {
+		Set<String> aggregationIds = postings.get(key);
+		if(aggregationIds == null)
+			return;
+		aggregationIds.remove(aggregationId);
+		if(aggregationIds.isEmpty())
+			postings.remove(key);
+	}
+
+	private static <K> Set<String> union(Map<K, Set<String>> postings, Collection<K> keys) {
+		if(keys.size() == 1) {
+			Set<String> aggregationIds = postings.get(keys.iterator().next());
+			return aggregationIds == null ? Collections.<String>emptySet() : aggregationIds;
+		}
+		Set<String> union = new HashSet<>();
+		for(K key : keys) {
+			Set<String> aggregationIds = postings.get(key);
+			if(aggregationIds != null)
+				union.addAll(aggregationIds);
+		}
+		return union;
+	}
+
+	private static class Entry {
+
+		private final String aggregationId;
+		//null if resource is not defined
+		private final ResourceTraits traits;
+		private final Set<String> federations;
+
+		Entry(String aggregationId, ResourceTraits traits, Set<String> federations) {
+			this.aggregationId = aggregationId;
+			this.traits = traits;
+			this.federations = federations;
+		}
+	}
+}
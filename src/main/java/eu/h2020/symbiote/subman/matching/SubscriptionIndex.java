@@ -0,0 +1,206 @@
+package eu.h2020.symbiote.subman.matching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.Subscription;
+import eu.h2020.symbiote.subman.repositories.SubscriptionRepository;
+
+/**
+ * Inverted index of platform subscriptions. Subscriptions are indexed by resource type,
+ * location name, observed property and capability, so that all platforms subscribed to a
+ * federated resource are found with a few hash lookups instead of matching the resource
+ * against every subscription separately.
+ *
+ * Subscriptions are compiled to SubscriptionPredicate once, when they are put to the index.
+ * Index is rebuilt on every subscription change and published as an immutable snapshot,
+ * so lookups from listener and REST threads need no locking.
+ *
+ * Index also keeps the received Subscription objects, and is the only source of subscriptions
+ * after startup. Subscription repository is read once, when index is created, and every
+ * subscription saved to the repository has to be put to the index too.
+ */
+@Component
+public class SubscriptionIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(SubscriptionIndex.class);
+
+	//<platformId, compiled subscription>
+	private final Map<String, SubscriptionPredicate> subscriptions = new ConcurrentHashMap<>();
+	//<platformId, subscription>
+	private final Map<String, Subscription> sources = new ConcurrentHashMap<>();
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+
+	@Autowired
+	public SubscriptionIndex(SubscriptionRepository subscriptionRepo) {
+		//initializing index to current situation in DB (required to run properly on restart)
+		for(Subscription subscription : subscriptionRepo.findAll()) {
+			subscriptions.put(subscription.getPlatformId(), SubscriptionPredicate.compile(subscription));
+			sources.put(subscription.getPlatformId(), subscription);
+		}
+		rebuild();
+	}
+
+	/**
+	 * Method adds new or replaces existing subscription of the platform in the index.
+	 *
+	 * @param subscription
+	 */
+	public synchronized void put(Subscription subscription) {
+		subscriptions.put(subscription.getPlatformId(), SubscriptionPredicate.compile(subscription));
+		sources.put(subscription.getPlatformId(), subscription);
+		rebuild();
+	}
+
+	/**
+	 * Method removes subscription of the given platform from the index.
+	 *
+	 * @param platformId
+	 */
+	public synchronized void remove(String platformId) {
+		sources.remove(platformId);
+		if(subscriptions.remove(platformId) != null)
+			rebuild();
+	}
+
+	/**
+	 * Method removes all subscriptions from the index.
+	 */
+	public synchronized void clear() {
+		subscriptions.clear();
+		sources.clear();
+		rebuild();
+	}
+
+	/**
+	 * Method returns compiled subscription of the given platform, or null if platform subscription is not known.
+	 *
+	 * @param platformId
+	 * @return
+	 */
+	public SubscriptionPredicate get(String platformId) {
+		return subscriptions.get(platformId);
+	}
+
+	/**
+	 * Method returns subscription of the given platform, or null if platform subscription is not known.
+	 *
+	 * @param platformId
+	 * @return
+	 */
+	public Subscription getSubscription(String platformId) {
+		return sources.get(platformId);
+	}
+
+	/**
+	 * Method returns all known subscriptions.
+	 *
+	 * @return
+	 */
+	public List<Subscription> getSubscriptions() {
+		return new ArrayList<>(sources.values());
+	}
+
+	/**
+	 * Method returns ids of all platforms whose subscription matches the given federated resource.
+	 * Result is the same as checking every subscription with Consumers.isSubscribed.
+	 *
+	 * @param fedRes
+	 * @return
+	 */
+	public Set<String> findSubscribedPlatforms(FederatedResource fedRes) {
+		ResourceTraits traits = ResourceTraits.of(fedRes);
+		if(traits == null)
+			return new HashSet<>();
+		return snapshot.find(traits);
+	}
+
+	private synchronized void rebuild() {
+		snapshot = new Snapshot(subscriptions.values());
+		logger.debug("Subscription index rebuilt for " + subscriptions.size() + " subscriptions.");
+	}
+
+	/**
+	 * Immutable state of the index.
+	 */
+	private static class Snapshot {
+
+		//<resourceType bit, platformIds subscribed to that type>
+		private final Map<Integer, Set<String>> byResourceType = new HashMap<>();
+		private final Dimension locations = new Dimension();
+		private final Dimension observedProperties = new Dimension();
+		private final Dimension capabilities = new Dimension();
+
+		Snapshot(Collection<SubscriptionPredicate> subscriptions) {
+			for(SubscriptionPredicate subscription : subscriptions) {
+				String platformId = subscription.getPlatformId();
+				for(String resourceType : ResourceTraits.RESOURCE_TYPES) {
+					int bit = ResourceTraits.typeBit(resourceType);
+					if((subscription.getResourceTypeMask() & bit) != 0)
+						byResourceType.computeIfAbsent(bit, k -> new HashSet<>()).add(platformId);
+				}
+				locations.add(platformId, subscription.getLocations());
+				observedProperties.add(platformId, subscription.getObservedProperties());
+				capabilities.add(platformId, subscription.getCapabilities());
+			}
+		}
+
+		Set<String> find(ResourceTraits traits) {
+			Set<String> candidates = byResourceType.get(traits.getResourceTypeBit());
+			if(candidates == null)
+				return new HashSet<>();
+
+			Set<String> result = new HashSet<>(candidates);
+			locations.filter(result, traits.getLocationName() == null ? Collections.<String>emptySet() : Collections.singleton(traits.getLocationName()));
+			observedProperties.filter(result, traits.getObservedProperties());
+			capabilities.filter(result, traits.getCapabilities());
+			return result;
+		}
+	}
+
+	/**
+	 * Index of a single subscription condition. Platforms that do not define the condition
+	 * match any resource, while the others match only resources having one of the subscribed values.
+	 */
+	private static class Dimension {
+
+		//platformIds that defined this condition
+		private final Set<String> constrained = new HashSet<>();
+		//<value, platformIds subscribed to that value>
+		private final Map<String, Set<String>> byValue = new HashMap<>();
+
+		void add(String platformId, Set<String> values) {
+			if(values.isEmpty())
+				return;
+			constrained.add(platformId);
+			for(String value : values)
+				byValue.computeIfAbsent(value, k -> new HashSet<>()).add(platformId);
+		}
+
+		void filter(Set<String> candidates, Set<String> resourceValues) {
+			if(constrained.isEmpty())
+				return;
+			Set<String> matched = new HashSet<>();
+			for(String value : resourceValues) {
+				Set<String> platforms = byValue.get(value);
+				if(platforms != null)
+					matched.addAll(platforms);
+			}
+			candidates.removeIf(platformId -> constrained.contains(platformId) && !matched.contains(platformId));
+		}
+	}
+}
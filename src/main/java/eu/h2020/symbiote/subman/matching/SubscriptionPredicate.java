@@ -0,0 +1,126 @@
+package eu.h2020.symbiote.subman.matching;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.Subscription;
+
+/**
+ * Immutable, compiled form of a platform Subscription. Subscription is compiled once when it is
+ * saved or received, and the compiled predicate is reused for every matching. Subscribed resource
+ * types are kept as a bitmask, and locations, observed properties and capabilities as hash sets.
+ * Empty set means that subscription does not define that condition.
+ */
+public final class SubscriptionPredicate {
+
+	private final String platformId;
+	private final int resourceTypeMask;
+	private final Set<String> locations;
+	private final Set<String> observedProperties;
+	private final Set<String> capabilities;
+
+	private SubscriptionPredicate(String platformId, int resourceTypeMask, Set<String> locations,
+			Set<String> observedProperties, Set<String> capabilities) {
+		this.platformId = platformId;
+		this.resourceTypeMask = resourceTypeMask;
+		this.locations = locations;
+		this.observedProperties = observedProperties;
+		this.capabilities = capabilities;
+	}
+
+	/**
+	 * Method compiles the given subscription.
+	 *
+	 * @param subscription
+	 * @return
+	 */
+	public static SubscriptionPredicate compile(Subscription subscription) {
+		int resourceTypeMask = 0;
+		if(subscription.getResourceType() != null) {
+			for(Map.Entry<String, Boolean> entry : subscription.getResourceType().entrySet()) {
+				if(Boolean.TRUE.equals(entry.getValue()))
+					resourceTypeMask |= ResourceTraits.typeBit(entry.getKey());
+			}
+		}
+		return new SubscriptionPredicate(subscription.getPlatformId(), resourceTypeMask,
+				toSet(subscription.getLocations()), toSet(subscription.getObservedProperties()),
+				toSet(subscription.getCapabilities()));
+	}
+
+	/**
+	 * Method checks if the given federatedResource matches this subscription.
+	 *
+	 * @param fedRes
+	 * @return
+	 */
+	public boolean matches(FederatedResource fedRes) {
+		ResourceTraits traits = ResourceTraits.of(fedRes);
+		return traits != null && matches(traits);
+	}
+
+	/**
+	 * Method checks if resource with the given traits matches this subscription.
+	 *
+	 * @param traits
+	 * @return
+	 */
+	public boolean matches(ResourceTraits traits) {
+		//resourceType matching condition
+		if((resourceTypeMask & traits.getResourceTypeBit()) == 0)
+			return false;
+
+		//location matching condition
+		if(!locations.isEmpty() && (traits.getLocationName() == null || !locations.contains(traits.getLocationName())))
+			return false;
+
+		//observedProperties matching condition, any of subscribed observedProperties is enough
+		if(!observedProperties.isEmpty() && !intersects(observedProperties, traits.getObservedProperties()))
+			return false;
+
+		//capabilities matching condition, any of subscribed capabilities is enough
+		if(!capabilities.isEmpty() && !intersects(capabilities, traits.getCapabilities()))
+			return false;
+
+		return true;
+	}
+
+	public String getPlatformId() {
+		return platformId;
+	}
+
+	public int getResourceTypeMask() {
+		return resourceTypeMask;
+	}
+
+	public Set<String> getLocations() {
+		return locations;
+	}
+
+	public Set<String> getObservedProperties() {
+		return observedProperties;
+	}
+
+	public Set<String> getCapabilities() {
+		return capabilities;
+	}
+
+	private static boolean intersects(Set<String> a, Set<String> b) {
+		Set<String> smaller = a.size() <= b.size() ? a : b;
+		Set<String> larger = smaller == a ? b : a;
+		for(String value : smaller) {
+			if(larger.contains(value))
+				return true;
+		}
+		return false;
+	}
+
+	private static Set<String> toSet(List<String> values) {
+		if(values == null || values.isEmpty())
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(new HashSet<>(values));
+	}
+}
@@ -0,0 +1,65 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration of listener containers for the federated resource queues of Platform Registry messages,
+ * and for the federation queues of Federation Manager messages.
+ * Each resource queue has its own number of consumers and prefetch. Messages are acknowledged manually, after their
+ * processing in ConsumerLanes is finished, so prefetch also limits the number of messages in processing, and
+ * should be larger than the max number of messages in a batch of ResourceMessageBatcher.
+ * Federation queues have a single consumer each, so that federation events are processed in order.
+ */
+@Configuration
+public class ConsumerConfiguration {
+
+	public static final String ADD_OR_UPDATE_CONTAINER_FACTORY = "addOrUpdateContainerFactory";
+	public static final String REMOVE_CONTAINER_FACTORY = "removeContainerFactory";
+	public static final String FEDERATION_CONTAINER_FACTORY = "federationContainerFactory";
+
+	@Value("${symbiote.sm.consumer.addOrUpdate.concurrency:1}")
+	private int addOrUpdateConcurrency;
+
+	@Value("${symbiote.sm.consumer.addOrUpdate.prefetch:100}")
+	private int addOrUpdatePrefetch;
+
+	@Value("${symbiote.sm.consumer.remove.concurrency:1}")
+	private int removeConcurrency;
+
+	@Value("${symbiote.sm.consumer.remove.prefetch:100}")
+	private int removePrefetch;
+
+	@Value("${symbiote.sm.consumer.federation.prefetch:10}")
+	private int federationPrefetch;
+
+	@Bean(name = ADD_OR_UPDATE_CONTAINER_FACTORY)
+	public SimpleRabbitListenerContainerFactory addOrUpdateContainerFactory(ConnectionFactory connectionFactory) {
+		return containerFactory(connectionFactory, addOrUpdateConcurrency, addOrUpdatePrefetch);
+	}
+
+	@Bean(name = REMOVE_CONTAINER_FACTORY)
+	public SimpleRabbitListenerContainerFactory removeContainerFactory(ConnectionFactory connectionFactory) {
+		return containerFactory(connectionFactory, removeConcurrency, removePrefetch);
+	}
+
+	@Bean(name = FEDERATION_CONTAINER_FACTORY)
+	public SimpleRabbitListenerContainerFactory federationContainerFactory(ConnectionFactory connectionFactory) {
+		return containerFactory(connectionFactory, 1, federationPrefetch);
+	}
+
+	private static SimpleRabbitListenerContainerFactory containerFactory(ConnectionFactory connectionFactory, int concurrency, int prefetch) {
+		SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+		factory.setConnectionFactory(connectionFactory);
+		factory.setConcurrentConsumers(concurrency);
+		factory.setMaxConcurrentConsumers(concurrency);
+		factory.setPrefetchCount(prefetch);
+		factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+		factory.setDefaultRequeueRejected(false);
+		return factory;
+	}
+}
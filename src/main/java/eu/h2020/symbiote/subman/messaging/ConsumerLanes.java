@@ -0,0 +1,189 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Worker lanes for processing of received RabbitMQ messages. Every lane is a single thread with a bounded queue,
+ * and work is assigned to a lane by hash of its key (aggregationId for federated resources, federationId for federations).
+ * Work with the same key is therefore processed strictly in submission order, while work with different keys is processed
+ * in parallel on different lanes. Barrier work (federation changes) is processed alone, after all earlier work of all lanes
+ * and before any later work, so resource processing always sees federations in the order of their events.
+ * Submitting to a full lane blocks the submitting listener thread until there is space in it.
+ */
+@Component
+public class ConsumerLanes implements PublicMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConsumerLanes.class);
+
+	private static final String PREFIX = "subscriptionManager.consumerLanes.";
+
+	private final ThreadPoolExecutor[] lanes;
+
+	@Autowired
+	public ConsumerLanes(@Value("${symbiote.sm.consumer.lanes:4}") int laneCount,
+			@Value("${symbiote.sm.consumer.laneCapacity:100}") int laneCapacity) {
+		lanes = new ThreadPoolExecutor[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			String threadName = "consumer-lane-" + i;
+			lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(laneCapacity), r -> {
+				Thread thread = new Thread(r, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}, ConsumerLanes::waitForSpace);
+		}
+	}
+
+	/**
+	 * Method returns index of the lane where work with the given key is processed.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int laneOf(String key) {
+		return Math.floorMod(Objects.hashCode(key), lanes.length);
+	}
+
+	/**
+	 * Method queues the given task to the lane of the given key.
+	 *
+	 * @param key
+	 * @param task
+	 * @return future completed when the task is processed
+	 */
+	public synchronized CompletableFuture<Void> submit(String key, Runnable task) {
+		return submit(laneOf(key), task);
+	}
+
+	/**
+	 * Method splits the given items by lanes of their keys, and queues the given task to each of those lanes
+	 * with items of that lane. Relative order of items within a lane is kept.
+	 *
+	 * @param items
+	 * @param key function returning key of an item
+	 * @param task
+	 * @return future completed when items of all lanes are processed
+	 */
+	public synchronized <T> CompletableFuture<Void> submitPartitioned(Collection<T> items, Function<T, String> key, Consumer<List<T>> task) {
+		Map<Integer, List<T>> partitions = new TreeMap<>();
+		for (T item : items)
+			partitions.computeIfAbsent(laneOf(key.apply(item)), k -> new ArrayList<>()).add(item);
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (Map.Entry<Integer, List<T>> partition : partitions.entrySet())
+			futures.add(submit(partition.getKey(), () -> task.accept(partition.getValue())));
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+	}
+
+	/**
+	 * Method queues the given task to all lanes as a barrier. Task is processed when all lanes finished
+	 * their earlier work, and all lanes wait until it is processed, so barrier tasks are processed one at a time,
+	 * in submission order, and never in parallel with other work.
+	 *
+	 * @param task
+	 * @return future completed when the task is processed
+	 */
+	public synchronized CompletableFuture<Void> submitBarrier(Runnable task) {
+		CountDownLatch arrived = new CountDownLatch(lanes.length);
+		CompletableFuture<Void> processed = new CompletableFuture<>();
+		for (int i = 0; i < lanes.length; i++) {
+			//task is processed by the gate of the first lane, gates of other lanes wait for it
+			Runnable gate = i == 0 ? () -> {
+				arrived.countDown();
+				try {
+					arrived.await();
+					if (!processed.isDone()) {
+						task.run();
+						processed.complete(null);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					processed.completeExceptionally(e);
+				} catch (Throwable e) {
+					//gates of other lanes must be released in any case
+					processed.completeExceptionally(e);
+				}
+			} : () -> {
+				arrived.countDown();
+				processed.handle((result, e) -> null).join();
+			};
+
+			CompletableFuture<Void> submitted = submit(i, gate);
+			if (submitted.isCompletedExceptionally()) {
+				submitted.whenComplete((result, e) -> processed.completeExceptionally(e));
+				//release gates that are already queued
+				for (int j = i; j < lanes.length; j++)
+					arrived.countDown();
+				break;
+			}
+		}
+		return processed;
+	}
+
+	public int getLanes() {
+		return lanes.length;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		int queued = 0;
+		for (int i = 0; i < lanes.length; i++) {
+			int laneQueued = lanes[i].getQueue().size();
+			metrics.add(new Metric<Integer>(PREFIX + "lane" + i + ".queued", laneQueued));
+			queued += laneQueued;
+		}
+		metrics.add(new Metric<Integer>(PREFIX + "queued", queued));
+		return metrics;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		for (ThreadPoolExecutor lane : lanes)
+			lane.shutdown();
+	}
+
+	private CompletableFuture<Void> submit(int lane, Runnable task) {
+		try {
+			return CompletableFuture.runAsync(task, lanes[lane]);
+		} catch (RejectedExecutionException e) {
+			logger.warn("Task rejected by consumer lane " + lane + ": " + e.getMessage());
+			CompletableFuture<Void> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(e);
+			return rejected;
+		}
+	}
+
+	private static void waitForSpace(Runnable task, ThreadPoolExecutor lane) {
+		if (lane.isShutdown())
+			throw new RejectedExecutionException("Consumer lane is shut down");
+		try {
+			lane.getQueue().put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting for space in consumer lane");
+		}
+	}
+}
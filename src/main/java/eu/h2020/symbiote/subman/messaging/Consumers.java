@@ -1,12 +1,15 @@
 package eu.h2020.symbiote.subman.messaging;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
@@ -18,38 +21,38 @@ import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.annotation.Argument;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.ResponseEntity;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
 
 import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesAddedOrUpdatedMessage;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesDeletedMessage;
 import eu.h2020.symbiote.cloud.model.internal.Subscription;
-import eu.h2020.symbiote.model.cim.Actuator;
-import eu.h2020.symbiote.model.cim.Capability;
-import eu.h2020.symbiote.model.cim.Device;
-import eu.h2020.symbiote.model.cim.MobileSensor;
-import eu.h2020.symbiote.model.cim.Resource;
-import eu.h2020.symbiote.model.cim.Sensor;
-import eu.h2020.symbiote.model.cim.Service;
-import eu.h2020.symbiote.model.cim.StationarySensor;
 import eu.h2020.symbiote.model.mim.Federation;
 import eu.h2020.symbiote.model.mim.FederationMember;
-import eu.h2020.symbiote.security.commons.SecurityConstants;
-import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
-import eu.h2020.symbiote.subman.controller.RestInterface;
-import eu.h2020.symbiote.subman.controller.SecuredRequestSender;
-import eu.h2020.symbiote.subman.controller.SecurityManager;
+import eu.h2020.symbiote.subman.matching.SharedResourceIndex;
+import eu.h2020.symbiote.subman.matching.SubscriptionIndex;
+import eu.h2020.symbiote.subman.matching.SubscriptionPredicate;
+import eu.h2020.symbiote.subman.outbound.PeerCoalescer;
+import eu.h2020.symbiote.subman.outbound.PeerOutbox;
+import eu.h2020.symbiote.subman.outbound.PublicViewCopier;
 import eu.h2020.symbiote.subman.repositories.FederatedResourceRepository;
 import eu.h2020.symbiote.subman.repositories.FederationRepository;
 import eu.h2020.symbiote.subman.repositories.SubscriptionRepository;
+import eu.h2020.symbiote.subman.topology.FederationTopology;
+import eu.h2020.symbiote.subman.topology.TopologySnapshot;
 
 /**
  * @author Petar Krivic (UniZG-FER) 28/02/2018
@@ -64,10 +67,18 @@ public class Consumers {
 	private static FederationRepository fedRepo;
 	private static FederatedResourceRepository fedResRepo;
 	private static SubscriptionRepository subscriptionRepo;
-	private static SecurityManager securityManager;
+	
+	private static SubscriptionIndex subscriptionIndex;
+	private static SharedResourceIndex sharedResourceIndex;
+	private static PeerCoalescer peerCoalescer;
+	private static FederationTopology federationTopology;
+	private static ConsumerLanes consumerLanes;
 	
 	@Autowired
 	private RabbitManager rabbitManager;
+
+	@Autowired
+	private ApplicationContext applicationContext;
 	
 	@Value("${rabbit.exchange.platformRegistry.name}")
 	private String PRexchange;
@@ -77,184 +88,294 @@ public class Consumers {
 
 	private MessageConverter messageConverter;
 
+	private ResourceMessageBatcher resourceMessageBatcher;
+
+	private long shutdownTimeout;
+	private volatile boolean closed;
+
 	private static ObjectMapper mapper = new ObjectMapper();
-	
-	//<platformId,numberOfCommonFederations>
-	public static Map<String, Integer> numberOfCommonFederations;
-	
-	//<platformId, platformInterworkingServiceURL>
-	public static Map<String, String> addressBook;
 
 	@Autowired
 	public Consumers(FederationRepository fedRepo,
 					 FederatedResourceRepository fedResRepo,
 					 SubscriptionRepository subscriptionRepo,
-					 SecurityManager securityManager,
-					 @Value("${platform.id}") String platformId) {
+					 SubscriptionIndex subscriptionIndex,
+					 SharedResourceIndex sharedResourceIndex,
+					 PeerCoalescer peerCoalescer,
+					 FederationTopology federationTopology,
+					 ConsumerLanes consumerLanes,
+					 @Value("${platform.id}") String platformId,
+					 @Value("${symbiote.sm.consumer.batch.maxMessages:50}") int batchMaxMessages,
+					 @Value("${symbiote.sm.consumer.batch.window:100}") long batchWindow,
+					 @Value("${symbiote.sm.consumer.shutdownTimeout:30000}") long shutdownTimeout) {
 	    Consumers.fedRepo = fedRepo;
 	    Consumers.fedResRepo = fedResRepo;
 	    Consumers.subscriptionRepo = subscriptionRepo;
-	    Consumers.securityManager = securityManager;
+	    Consumers.subscriptionIndex = subscriptionIndex;
+	    Consumers.sharedResourceIndex = sharedResourceIndex;
+	    Consumers.peerCoalescer = peerCoalescer;
+	    Consumers.federationTopology = federationTopology;
+	    Consumers.consumerLanes = consumerLanes;
 	    this.platformId = platformId;
+	    this.shutdownTimeout = shutdownTimeout;
 	    
 		messageConverter = new Jackson2JsonMessageConverter();
-		numberOfCommonFederations = new HashMap<>();
-		addressBook = new HashMap<>();
-
-
-		//initializing maps to current situation in DB (required to run properly on restart)
-		for(Federation f : fedRepo.findAll()) {
-			List<String> platformIds = f.getMembers().stream().map(FederationMember::getPlatformId).collect(Collectors.toList());
-			if(platformIds.contains(this.platformId)) {
-				//current federation contains this platformId
-				for(FederationMember fm : f.getMembers()) {
-					if(fm.getPlatformId().equals(platformId))continue;
-					
-					addressBook.put(fm.getPlatformId(), fm.getInterworkingServiceURL());
-					
-					if(numberOfCommonFederations.containsKey(fm.getPlatformId()))
-						numberOfCommonFederations.put(fm.getPlatformId(), numberOfCommonFederations.get(fm.getPlatformId()) + 1);
-					else
-						numberOfCommonFederations.put(fm.getPlatformId(), 1);					
-				}
-			}
-		}
-
-		logger.debug("addressBook = " + addressBook);
-		logger.debug("numberOfCommonFederations = " + numberOfCommonFederations);
+		resourceMessageBatcher = new ResourceMessageBatcher(batchMaxMessages, batchWindow,
+				this::processAddedOrUpdatedBatch, this::processRemovedBatch);
+	}
 
+	/**
+	 * Method stops processing of new messages, processes the current batch of Platform Registry messages,
+	 * and waits at most shutdownTimeout milliseconds until work queued to consumer lanes is processed.
+	 * It runs when the application context is closing, before listener containers are stopped, so that
+	 * processed messages are acknowledged on open channels and are not delivered again. Messages received
+	 * later are not acknowledged, and are redelivered after restart.
+	 * 
+	 * @param event
+	 */
+	@EventListener
+	public void shutdown(ContextClosedEvent event) {
+		if (event.getApplicationContext() != applicationContext)
+			return;
+		closed = true;
+		resourceMessageBatcher.shutdown();
+		try {
+			consumerLanes.submitBarrier(() -> {}).get(shutdownTimeout, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			logger.warn("Consumer lanes were not drained before shutdown, unacknowledged messages will be redelivered", e);
+		}
 	}
 
 	/**
 	 * Method receives created federations from FM component, and stores them to
-	 * local MongoDB.
+	 * local MongoDB. Federation is processed as a barrier of consumer lanes, and the message
+	 * is acknowledged when it is processed.
 	 * 
 	 * @param msg
+	 * @param channel
+	 * @param deliveryTag
 	 */
-	@RabbitListener(bindings = @QueueBinding(value = @Queue(arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.federation}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.federation.created}"))
-	public void federationCreated(Message msg) {
+	@RabbitListener(containerFactory = ConsumerConfiguration.FEDERATION_CONTAINER_FACTORY, bindings = @QueueBinding(value = @Queue(arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.federation}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.federation.created}"))
+	public void federationCreated(Message msg, Channel channel, @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
 
 		logger.debug("Added federation message = " + msg);
+		if (closed)
+			return;
 	    try {
             Federation federation = (Federation) messageConverter.fromMessage(msg);
             logger.debug("Federation = " + ReflectionToStringBuilder.toString(federation));
-            logger.debug("fedRepo = " + fedRepo);
-            fedRepo.save(federation);
-            logger.info("Federation with id: " + federation.getId() + " added to repository.");
-            
-            processFederationCreated(federation);
+            acknowledgeWhenProcessed(consumerLanes.submitBarrier(() -> saveCreatedFederation(federation)),
+            		msg, channel, deliveryTag, "federation creation");
         } catch (Exception e) {
 	        logger.warn("Exception thrown during federation creation", e);
+	        ResourceMessageBatcher.acknowledge(channel, deliveryTag);
         }
 	}
 
+	private void saveCreatedFederation(Federation federation) {
+        fedRepo.save(federation);
+        TopologySnapshot previous = federationTopology.federationSaved(federation);
+        logger.info("Federation with id: " + federation.getId() + " added to repository.");
+        
+        processFederationCreated(federation, previous);
+	}
+
 	/**
 	 * Method receives updated federations from FM component, and stores changes
-	 * to local MongoDB.
+	 * to local MongoDB. Federation is processed as a barrier of consumer lanes, and the message
+	 * is acknowledged when it is processed.
 	 * 
 	 * @param msg
+	 * @param channel
+	 * @param deliveryTag
 	 */
-	@RabbitListener(bindings = @QueueBinding(value = @Queue(arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.federation}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.federation.changed}"))
-	public void federationChanged(Message msg) {
+	@RabbitListener(containerFactory = ConsumerConfiguration.FEDERATION_CONTAINER_FACTORY, bindings = @QueueBinding(value = @Queue(arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.federation}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.federation.changed}"))
+	public void federationChanged(Message msg, Channel channel, @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
 		logger.debug("Changed federation message = " + msg);
+		if (closed)
+			return;
 
 	    try {
             Federation federation = (Federation) messageConverter.fromMessage(msg);
-            //fetch current federationMembers before updating it in mongoDB
-            List<String> oldMembers = fedRepo.findOne(federation.getId()).getMembers().stream().map(FederationMember::getPlatformId).collect(Collectors.toList());
-            fedRepo.save(federation);
-            logger.info("Federation with id: " + federation.getId() + " updated.");
-            
-            processFederationUpdated(federation, oldMembers);
+            acknowledgeWhenProcessed(consumerLanes.submitBarrier(() -> saveChangedFederation(federation)),
+            		msg, channel, deliveryTag, "federation update");
         } catch (Exception e) {
             logger.warn("Exception thrown during federation update", e);
+            ResourceMessageBatcher.acknowledge(channel, deliveryTag);
         }
 	}
 
+	private void saveChangedFederation(Federation federation) {
+        fedRepo.save(federation);
+        //federationMembers before the update are taken from the previous topology
+        TopologySnapshot previous = federationTopology.federationSaved(federation);
+        logger.info("Federation with id: " + federation.getId() + " updated.");
+        
+        processFederationUpdated(federation, previous);
+	}
+
 	/**
 	 * Method receives id of removed federation from FM component, and deletes
-	 * it from MongoDB.
+	 * it from MongoDB. Deletion is processed as a barrier of consumer lanes, and the message
+	 * is acknowledged when it is processed.
 	 * 
-	 * @param body
+	 * @param msg
+	 * @param channel
+	 * @param deliveryTag
 	 */
-	@RabbitListener(bindings = @QueueBinding(value = @Queue(arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.federation}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.federation.deleted}"))
-	public void federationDeleted(byte[] body) throws IOException {
+	@RabbitListener(containerFactory = ConsumerConfiguration.FEDERATION_CONTAINER_FACTORY, bindings = @QueueBinding(value = @Queue(arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.federation}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.federation.deleted}"))
+	public void federationDeleted(Message msg, Channel channel, @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+		if (closed)
+			return;
 	    try {
-            String federationId = new String(body);
+            String federationId = new String(msg.getBody());
             logger.debug("Deleted federation with id = " + federationId);
 
-            processFederationDeleted(federationId);
+            acknowledgeWhenProcessed(consumerLanes.submitBarrier(() -> processFederationDeleted(federationId)),
+            		msg, channel, deliveryTag, "federation deletion");
         } catch (Exception e) {
             logger.warn("Exception thrown during federation deletion", e);
+            ResourceMessageBatcher.acknowledge(channel, deliveryTag);
         }
 	}
 
+	/**
+	 * Method acknowledges the given message when its processing is finished. If processing failed,
+	 * message is rejected and requeued, unless it already failed once before.
+	 * 
+	 * @param processed
+	 * @param msg
+	 * @param channel
+	 * @param deliveryTag
+	 * @param description
+	 */
+	private static void acknowledgeWhenProcessed(CompletableFuture<Void> processed, Message msg, Channel channel, long deliveryTag, String description) {
+		boolean redelivered = Boolean.TRUE.equals(msg.getMessageProperties().getRedelivered());
+		processed.whenComplete((result, e) -> {
+			if (e == null) {
+				ResourceMessageBatcher.acknowledge(channel, deliveryTag);
+			} else {
+				logger.warn("Exception thrown during " + description + (redelivered ? ", message is dropped" : ", message is requeued"), e);
+				ResourceMessageBatcher.reject(channel, deliveryTag, !redelivered);
+			}
+		});
+	}
+
 	/**
 	 * Method receives ResourcesAddedOrUpdated message from PlatformRegistry
-	 * component. It saves locally received federated resources to MongoDB, and
-	 * forwards them to other interested federated platforms.
+	 * component. Received federated resources are batched with federated resources
+	 * of other consecutive ResourcesAddedOrUpdated messages, and the message is
+	 * acknowledged when its batch is processed.
 	 * 
 	 * @param msg
+	 * @param channel
+	 * @param deliveryTag
 	 */
-	@RabbitListener(bindings = @QueueBinding(value = @Queue(value = "${rabbit.queueName.subscriptionManager.addOrUpdateFederatedResources}", arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.subscriptionManager.name}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.subscriptionManager.addOrUpdateFederatedResources}"))
-	public void addedOrUpdateFederatedResource(Message msg) {
+	@RabbitListener(containerFactory = ConsumerConfiguration.ADD_OR_UPDATE_CONTAINER_FACTORY, bindings = @QueueBinding(value = @Queue(value = "${rabbit.queueName.subscriptionManager.addOrUpdateFederatedResources}", arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.subscriptionManager.name}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.subscriptionManager.addOrUpdateFederatedResources}"))
+	public void addedOrUpdateFederatedResource(Message msg, Channel channel, @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
         logger.debug("addedOrUpdateFederatedResource message = " + msg);
 
         // Wrap in try/catch to avoid requeuing
         try {
-            // Map<PlatformId, Map<FederatedResourceId, FederatedResource>>
-            Map<String, Map<String, FederatedResource>> platformMessages = new HashMap<>();
-
             // convert received RMQ message to ResourcesAddedOrUpdatedMessage object
             ResourcesAddedOrUpdatedMessage rsMsg = (ResourcesAddedOrUpdatedMessage) messageConverter.fromMessage(msg);
             logger.info("Received ResourcesAddedOrUpdatedMessage from Platform Registry");
 
-            // add received FederatedResource to local MongoDB
-            for (FederatedResource fr : rsMsg.getNewFederatedResources()) {	
-                fedResRepo.save(fr);
-                logger.info("Federated resource with aggregatedId " + fr.getAggregationId() + " added to repository and is exposed to " +
-                    fr.getFederations());
-
-                // iterate interested federations
-                for (String interestedFederationId : fr.getFederations()) {
+            resourceMessageBatcher.addOrUpdate(rsMsg.getNewFederatedResources(), channel, deliveryTag,
+            		Boolean.TRUE.equals(msg.getMessageProperties().getRedelivered()));
+        } catch (Exception e) {
+            logger.warn("Exception thrown during addedOrUpdateFederatedResource", e);
+            ResourceMessageBatcher.acknowledge(channel, deliveryTag);
+        }
+    }
 
-                    Federation interestedFederation = fedRepo.findOne(interestedFederationId);
+	/**
+	 * Method processes a batch of received federated resources in consumer lanes
+	 * of their aggregationIds.
+	 * 
+	 * @param federatedResources
+	 * @return future completed when all federated resources are processed
+	 */
+	protected CompletableFuture<Void> processAddedOrUpdatedBatch(List<FederatedResource> federatedResources) {
+		logger.info("Processing batch of " + federatedResources.size() + " added or updated federated resources");
+		return consumerLanes.submitPartitioned(federatedResources, FederatedResource::getAggregationId,
+				this::processAddedOrUpdatedFederatedResources);
+	}
 
-                    if (interestedFederation == null) {
-                        logger.info("The federation with id " + interestedFederationId + " was not found in the federation repository!");
-                        continue;
-                    }
+	/**
+	 * Method saves the given federated resources to MongoDB, and forwards them
+	 * to other interested federated platforms. If some federated resources
+	 * could not be stored, the others are processed and IllegalStateException is thrown.
+	 * 
+	 * @param federatedResources
+	 */
+	protected void processAddedOrUpdatedFederatedResources(List<FederatedResource> federatedResources) {
+        // Map<PlatformId, Map<FederatedResourceId, FederatedResource>>
+        Map<String, Map<String, FederatedResource>> platformMessages = new HashMap<>();
+
+        // add received FederatedResources to local MongoDB
+        Map<String, String> failed = fedResRepo.bulkSave(federatedResources);
+        if (!failed.isEmpty())
+            logger.warn("Failed to store " + failed.size() + " federated resources: " + failed);
+
+        // aggregationIds of resources that were not shared before this message
+        Set<String> newResources = new HashSet<>();
+        // <aggregationId, version> of resources sent to platforms, same for copies of a resource
+        Map<String, String> versions = new HashMap<>();
+
+        for (FederatedResource fr : federatedResources) {	
+            if (failed.containsKey(fr.getAggregationId()))
+                continue;
+            if (!sharedResourceIndex.contains(fr.getAggregationId()))
+                newResources.add(fr.getAggregationId());
+            sharedResourceIndex.put(fr);
+            logger.info("Federated resource with aggregatedId " + fr.getAggregationId() + " added to repository and is exposed to " +
+                fr.getFederations());
+
+            // all platforms subscribed to current federated resource
+            Set<String> subscribedPlatforms = subscriptionIndex.findSubscribedPlatforms(fr);
+            if (subscribedPlatforms.isEmpty())
+                continue;
+
+            FederatedResource publicView = null;
+
+            // iterate interested federations
+            for (String interestedFederationId : fr.getFederations()) {
+
+                Set<String> interestedFederationMembers = federationTopology.current().getMembers(interestedFederationId);
+
+                if (interestedFederationMembers.isEmpty()) {
+                    logger.info("The federation with id " + interestedFederationId + " was not found among federations of this platform!");
+                    continue;
+                }
 
-                    // add all federationMembers to platformsToNotify set
-                    for (FederationMember fm : interestedFederation.getMembers()) {
+                // add all federationMembers to platformsToNotify set
+                for (String memberId : interestedFederationMembers) {
 
-                    	//to avoid platform sending HTTP request to itself
-                    	if(fm.getPlatformId().equals(platformId)) continue;
-                    	
-                    	//check if current federation member is subscribed to current federated resource                 	 
-                    	if(isSubscribed(subscriptionRepo.findOne(fm.getPlatformId()), fr)) {
-                    	
+                	//to avoid platform sending HTTP request to itself
+                	if(memberId.equals(platformId)) continue;
+                	
+                	//check if current federation member is subscribed to current federated resource                 	 
+                	if(subscribedPlatforms.contains(memberId)) {
+                	
 	                        // if platform is not yet in a list for receiving
 	                        // notification, add it
-	                        if (!platformMessages.containsKey(fm.getPlatformId()))
-	                            platformMessages.put(fm.getPlatformId(), new HashMap<>());
+	                        if (!platformMessages.containsKey(memberId))
+	                            platformMessages.put(memberId, new HashMap<>());
 	
 	
-	                        Map<String, FederatedResource> platformMap = platformMessages.get(fm.getPlatformId());
+	                        Map<String, FederatedResource> platformMap = platformMessages.get(memberId);
 	
 	                        // if there is not entry in the platformMap for this
 	                        // federatedResource create it
 	                        if (!platformMap.containsKey(fr.getAggregationId())) {
 	
-	                            FederatedResource clonedFr = deserializeFederatedResource(serializeFederatedResource(fr));
-	                            clonedFr.clearPrivateInfo();
-
-	                            if (fr.getCloudResource() != null && fr.getCloudResource().getFederationInfo() != null) {
-									clonedFr.getCloudResource().getFederationInfo().setAggregationId(fr.getAggregationId());
-									clonedFr.getCloudResource().getFederationInfo().setResourceTrust(
-											fr.getCloudResource().getFederationInfo().getResourceTrust());
-								}
-	                            platformMap.put(clonedFr.getAggregationId(), clonedFr);
+	                            // public view is built once per resource, and shared by copies for all platforms
+	                            if (publicView == null) {
+	                                publicView = PublicViewCopier.publicView(fr);
+	                                versions.put(fr.getAggregationId(), PeerCoalescer.newVersion());
+	                            }
+	                            platformMap.put(fr.getAggregationId(), PublicViewCopier.copyForPlatform(publicView));
 	                        }
 	
 	                        // add the federation info of currently iterated federation
@@ -263,47 +384,34 @@ public class Consumers {
 	                                .getFederationInfo().getSharingInformation().get(interestedFederationId).getBartering());
 	                        //overwrite the entry in a map with fedRes with updated federation info
 	                        platformMap.put(fr.getAggregationId(), platformFederatedResource);
-                    	}
-                    }
+                	}
                 }
             }
+        }
 
-            // send HTTP-POST notifications to federated platforms
-            
-            // create securityRequest
-            SecurityRequest securityRequest = securityManager.generateSecurityRequest();
-            if (securityRequest != null) {
-                logger.debug("Security Request created successfully!");
-
-                // if the creation of securityRequest is successful broadcast FederatedResource to interested platforms
-                for (Map.Entry<String, Map<String, FederatedResource>> entry : platformMessages.entrySet()) {
-
-                    List<FederatedResource> resourcesForSending = new ArrayList<>(entry.getValue().values());
-
-                    logger.debug("Sending  addedOrUpdatedFederatedResource message to platform " + entry.getKey()+ " for federated resources: " +
-                            resourcesForSending.stream().map(FederatedResource::getAggregationId).collect(Collectors.toList()));
+        // queue HTTP-POST notifications for interested federated platforms, changes are coalesced before sending
+        for (Map.Entry<String, Map<String, FederatedResource>> entry : platformMessages.entrySet())
+            logger.debug("Sending  addedOrUpdatedFederatedResource message to platform " + entry.getKey()+ " for federated resources: " +
+                    entry.getValue().keySet());
+        peerCoalescer.addOrUpdate(platformMessages, versions, newResources);
 
-					sendSecurityRequestAndVerifyResponse(securityRequest,
-							mapper.writeValueAsString(new ResourcesAddedOrUpdatedMessage(resourcesForSending)),
-							addressBook.get(entry.getKey()).replaceAll("/+$", "") + "/subscriptionManager" + "/addOrUpdate",
-							entry.getKey());
-                }
-            } else
-                logger.info("Failed to broadcast addedOrUpdatedFederatedResource message due to the securityRequest creation failure!");
-        } catch (Exception e) {
-            logger.warn("Exception thrown during addedOrUpdateFederatedResource", e);
-        }
-    }
+        // stored resources are processed, failure is reported so that the message is not acknowledged as processed
+        if (!failed.isEmpty())
+            throw new IllegalStateException("Failed to store " + failed.size() + " federated resources: " + failed.keySet());
+	}
 
 	/**
 	 * Method receives ResourcesDeletedMessage message from PlatformRegistry
-	 * component. It saves locally received changes to MongoDB, and forwards
-	 * info to other interested federated platforms.
+	 * component. Received symbioteIds are batched with symbioteIds of other
+	 * consecutive ResourcesDeleted messages, and the message is acknowledged when
+	 * its batch is processed.
 	 * 
 	 * @param msg
+	 * @param channel
+	 * @param deliveryTag
 	 */
-	@RabbitListener(bindings = @QueueBinding(value = @Queue(value = "${rabbit.queueName.subscriptionManager.removeFederatedResources}", arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.subscriptionManager.name}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.subscriptionManager.removeFederatedResources}"))
-	public void removeFederatedResource(Message msg) {
+	@RabbitListener(containerFactory = ConsumerConfiguration.REMOVE_CONTAINER_FACTORY, bindings = @QueueBinding(value = @Queue(value = "${rabbit.queueName.subscriptionManager.removeFederatedResources}", arguments={@Argument(name = "x-message-ttl", value="${spring.rabbitmq.template.reply-timeout}", type="java.lang.Integer")}), exchange = @Exchange(value = "${rabbit.exchange.subscriptionManager.name}", type = "topic", ignoreDeclarationExceptions = "true", durable = "false"), key = "${rabbit.routingKey.subscriptionManager.removeFederatedResources}"))
+	public void removeFederatedResource(Message msg, Channel channel, @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
         logger.debug("removeFederatedResource message = " + msg);
 
 	    // Wrap in try/catch to avoid requeuing
@@ -311,180 +419,170 @@ public class Consumers {
             ResourcesDeletedMessage rdDel = (ResourcesDeletedMessage) messageConverter.fromMessage(msg);
             logger.info("Received ResourcesDeletedMessage from Platform Registry");
             logger.debug("SymbioteIds of unshared federated resources: " + rdDel.getDeletedFederatedResources());
-            
-            // <platformId, Set<symbioteIDs>>
-            Map<String, Set<String>> platformMessages = new HashMap<String, Set<String>>();
-
-            for (String symbioteId : rdDel.getDeletedFederatedResources()) {
-            	String [] splitSymbioteID = symbioteId.split("@");
-                FederatedResource toUpdate = fedResRepo.findOne(splitSymbioteID[0]+"@"+splitSymbioteID[1]);
-                if (toUpdate == null) {
-                    logger.info("The federatedResource " + splitSymbioteID[0]+"@"+splitSymbioteID[1] + " was not found in the federatedResource repository");
-                    continue;
-                }
 
-                //remove federated resource from given federations
-                toUpdate.unshareFromFederation(splitSymbioteID[2]);
+            resourceMessageBatcher.remove(rdDel.getDeletedFederatedResources(), channel, deliveryTag,
+            		Boolean.TRUE.equals(msg.getMessageProperties().getRedelivered()));
+        } catch (Exception e) {
+            logger.warn("Exception thrown during removeFederatedResource", e);
+            ResourceMessageBatcher.acknowledge(channel, deliveryTag);
+        }
+	}
 
-                // if federatedResource is unshared from all federations remove it
-                if (toUpdate.getFederatedResourceInfoMap().size() == 0)
-                    fedResRepo.delete(toUpdate.getAggregationId());
-                
-                // if not save it without removed federations where it is deleted
-                else
-                	fedResRepo.save(toUpdate);
+	/**
+	 * Method processes a batch of received symbioteIds in consumer lanes of their
+	 * aggregationIds.
+	 * 
+	 * @param symbioteIds
+	 * @return future completed when all symbioteIds are processed
+	 */
+	protected CompletableFuture<Void> processRemovedBatch(List<String> symbioteIds) {
+		logger.info("Processing batch of " + symbioteIds.size() + " unshared federated resources");
+		return consumerLanes.submitPartitioned(symbioteIds, Consumers::aggregationIdOf, this::processRemovedFederatedResources);
+	}
 
-                // iterate federations for current FederatedResource
-                
-                Federation currentFederation = fedRepo.findOne(splitSymbioteID[2]);
+	/**
+	 * Method unshares federated resources with the given symbioteIds from their federations
+	 * in MongoDB, and forwards info to other interested federated platforms.
+	 * 
+	 * @param symbioteIds
+	 */
+	protected void processRemovedFederatedResources(List<String> symbioteIds) {
+        // <platformId, Set<symbioteIDs>>
+        Map<String, Set<String>> platformMessages = new HashMap<String, Set<String>>();
+
+        // <federationId, Set<symbioteIDs>>
+        Map<String, Set<String>> federationSymbioteIds = new HashMap<>();
+        Set<String> aggregationIds = new HashSet<>();
+        for (String symbioteId : symbioteIds) {
+        	String [] splitSymbioteID = symbioteId.split("@");
+        	aggregationIds.add(splitSymbioteID[0]+"@"+splitSymbioteID[1]);
+        	federationSymbioteIds.computeIfAbsent(splitSymbioteID[2], k -> new HashSet<>()).add(symbioteId);
+        }
 
-                if (currentFederation == null) {
-                	logger.info("The federation with id " + splitSymbioteID[2] + " was not found in the federation repository");
-                    continue;
-                }
+        // federated resources are fetched once, before unsharing, for subscription matching
+        Map<String, FederatedResource> toUpdate = new HashMap<>();
+        for (FederatedResource fr : fedResRepo.findAll(aggregationIds))
+        	toUpdate.put(fr.getAggregationId(), fr);
 
-                // iterate members
-                for (FederationMember fedMember : currentFederation.getMembers()) {
-                    	
-                	//to avoid platform sending HTTP request to itself
-                	if(fedMember.getPlatformId().equals(platformId))
-                    	continue;
+        for (Map.Entry<String, Set<String>> federationEntry : federationSymbioteIds.entrySet()) {
+        	String federationId = federationEntry.getKey();
 
-                    //check if current federation member is subscribed to current federated resource that is being deleted from certain federations
-                    if(isSubscribed(subscriptionRepo.findOne(fedMember.getPlatformId()), toUpdate)) {
-	
-                    	if (!platformMessages.containsKey(fedMember.getPlatformId()))
-                    		platformMessages.put(fedMember.getPlatformId(), new HashSet<>());
-	
-                    	Set<String> currentPlatformMessageSet = platformMessages
-	                                .get(fedMember.getPlatformId());
-	                        
-                    	currentPlatformMessageSet.add(symbioteId);
-                    }
-                }
+            Set<String> found = new HashSet<>();
+            for (String symbioteId : federationEntry.getValue()) {
+            	String [] splitSymbioteID = symbioteId.split("@");
+            	if (toUpdate.containsKey(splitSymbioteID[0]+"@"+splitSymbioteID[1]))
+            		found.add(splitSymbioteID[0]+"@"+splitSymbioteID[1]);
+            	else
+            		logger.info("The federatedResource " + splitSymbioteID[0]+"@"+splitSymbioteID[1] + " was not found in the federatedResource repository");
             }
+            if (found.isEmpty())
+            	continue;
 
-            // sending created map to interested federated platforms
-            SecurityRequest securityRequest = securityManager.generateSecurityRequest();
-            if (securityRequest != null) {
-                logger.debug("Security Request created successfully!");
+            //remove federated resources from given federation, federated resources unshared from all federations are removed
+            sharedResourceIndex.unshare(fedResRepo.unshareFromFederation(found, federationId), federationId);
 
-                // if the creation of securityRequest is successful broadcast changes to interested platforms
-                for (Map.Entry<String, Set<String>> entry : platformMessages.entrySet()) {
+            Set<String> currentFederationMembers = federationTopology.current().getMembers(federationId);
 
-                    Set<String> deleteMessage = entry.getValue();
-
-                    logger.debug("Sending unsharedFederatedResource message to platform " + entry.getKey() + " for symbioteIds: " + deleteMessage);
+            if (currentFederationMembers.isEmpty()) {
+            	logger.info("The federation with id " + federationId + " was not found among federations of this platform");
+                continue;
+            }
 
-					sendSecurityRequestAndVerifyResponse(securityRequest,
-							mapper.writeValueAsString(new ResourcesDeletedMessage(deleteMessage)),
-							addressBook.get(entry.getKey()).replaceAll("/+$", "") + "/subscriptionManager" + "/delete",
-							entry.getKey());
-                }
-            } else
-                logger.info("Failed to broadcast resourcesDeleted message due to the securityRequest creation failure!");
-        } catch (Exception e) {
-            logger.warn("Exception thrown during removeFederatedResource", e);
+            for (String symbioteId : federationEntry.getValue()) {
+            	String [] splitSymbioteID = symbioteId.split("@");
+            	FederatedResource fr = toUpdate.get(splitSymbioteID[0]+"@"+splitSymbioteID[1]);
+            	if (fr == null)
+            		continue;
+
+	                // all platforms subscribed to current federated resource
+	                Set<String> subscribedPlatforms = subscriptionIndex.findSubscribedPlatforms(fr);
+
+	                // iterate members
+	                for (String memberId : currentFederationMembers) {
+	                    	
+	                	//to avoid platform sending HTTP request to itself
+	                	if(memberId.equals(platformId))
+	                    	continue;
+
+	                    //check if current federation member is subscribed to current federated resource that is being deleted from certain federations
+	                    if(subscribedPlatforms.contains(memberId))
+	                    	platformMessages.computeIfAbsent(memberId, k -> new HashSet<>()).add(symbioteId);
+	                }
+            }
         }
+
+        // queue created map of notifications for interested federated platforms, changes are coalesced before sending
+        for (Map.Entry<String, Set<String>> entry : platformMessages.entrySet())
+            logger.debug("Sending unsharedFederatedResource message to platform " + entry.getKey() + " for symbioteIds: " + entry.getValue());
+        peerCoalescer.delete(platformMessages);
 	}
-	
+
 	/**
-	 * Method sends security request with jsonMessage content to completeUrl,
-	 * and verifies that received response matches given platformId.
+	 * Method returns aggregationId of the given federated resource symbioteId (aggregationId@federationId).
 	 * 
-	 * @param securityRequest
-	 * @param jsonMessage
-	 * @param completeUrl
-	 * @param platformId
+	 * @param symbioteId
+	 * @return
 	 */
-	public static void sendSecurityRequestAndVerifyResponse(SecurityRequest securityRequest, String jsonMessage, String completeUrl, String platformId) {
-		ResponseEntity<?> serviceResponse = null;
-        try {
-        	serviceResponse = SecuredRequestSender.sendSecuredRequest(securityRequest, jsonMessage, completeUrl);
-        } catch (Exception e) {
-            logger.warn("Exception thrown during sending security request!", e);
-        }
-
-        logger.debug("ServiceResponse = " + serviceResponse);
-
-        //verify serviceResponse
-        try {
-            boolean verifiedResponse = securityManager.verifyReceivedResponse(
-                    serviceResponse.getHeaders().get(SecurityConstants.SECURITY_RESPONSE_HEADER).get(0),
-                    "subscriptionManager", platformId);
-            if (verifiedResponse)
-                logger.debug("Sending of security request message to platform " + platformId + " successfull!");
-            else
-                logger.warn("Failed to send security request message to platform " + platformId + " due to the response verification error!");
-        } catch (Exception e) {
-            logger.warn("Exception thrown during verifying service response", e);
-        }
+	protected static String aggregationIdOf(String symbioteId) {
+		String [] splitSymbioteID = symbioteId.split("@");
+		return splitSymbioteID[0] + "@" + splitSymbioteID[1];
 	}
-
-	protected static String serializeFederatedResource(FederatedResource federatedResource) {
-		String string;
-
-		try {
-			string = mapper.writeValueAsString(federatedResource);
-		} catch (JsonProcessingException e) {
-			logger.info("Problem in serializing the federatedResource", e);
-			return null;
-		}
-		return string;
+	
+	/**
+	 * Method stores own subscription to outbox, for sending to the platforms with the given ids after their
+	 * queued resource changes. Subscription is serialized once for all platforms.
+	 * 
+	 * @param federatedPlatformIds
+	 * @param homePlatformId
+	 * @throws JsonProcessingException
+	 */
+	public static void sendOwnSubscription(Collection<String> federatedPlatformIds, String homePlatformId) throws JsonProcessingException {
+		if (federatedPlatformIds.isEmpty())
+			return;
+		peerCoalescer.send(federatedPlatformIds, PeerOutbox.SUBSCRIPTION_PATH,
+				mapper.writeValueAsBytes(subscriptionIndex.getSubscription(homePlatformId)));
 	}
 
-	protected static FederatedResource deserializeFederatedResource(String s) {
-
-		FederatedResource federatedResource;
-
-		try {
-			federatedResource = mapper.readValue(s, FederatedResource.class);
-		} catch (IOException e) {
-			logger.info("Problem in deserializing the federatedResource");
-			return null;
-		}
-		return federatedResource;
-	}
-	
 	/**
 	 * Method checks if each federationMember is already in some federation with this platform.
 	 * if yes, it is assumed that subscription object for that platform already exists, and 
 	 * that the other platform is already informed about this platform subscription.
 	 * If not, initial subscription is created for federationMember and stored to DB 
 	 * (although it is expected to receive HTTP POST from that platform and overwrite it).
-	 * numberOfCommonFederations is used to track the number of common federations that this platform
-	 * has with other platforms
+	 * Federation topology before the update is used to check if this platform already had
+	 * common federations with other platforms.
 	 * @param federation
+	 * @param previous
 	 */
-	protected void processFederationCreated(Federation federation){
+	protected void processFederationCreated(Federation federation, TopologySnapshot previous){
 		
 		//check if received federation contains this platform
 		if(federation.getMembers().stream().map(FederationMember::getPlatformId).collect(Collectors.toList()).contains(platformId)){
 			for(FederationMember fedMember : federation.getMembers()){
 				if(fedMember.getPlatformId().equals(platformId))continue; //skip procedure for this platform
-				//map keeps number of common federations of this platform with others
-				addressBook.put(fedMember.getPlatformId(), fedMember.getInterworkingServiceURL());
-				processFedMemberAdding(fedMember.getPlatformId(), federation.getId(), true);
+				processFedMemberAdding(fedMember.getPlatformId(), previous, true);
 			}
 		}
 	}
 	
 	/**
-	 * Method updates numberOfCommonFederations according to federation updates.
+	 * Method processes federation updates.
 	 * If federation members are added to federation, own subscription is sent to new members
 	 * and their initial subscription is created in subscriptionRepo.
-	 * If federation members are removed from federation, map is updated, and
+	 * If federation members are removed from federation, and
 	 * if there are no more common federations of this platform and deleted member,
 	 * its subscription is removed from subsriptionRepo
 	 * @param federation
+	 * @param previous federation topology before the update
 	 */
-	protected void processFederationUpdated(Federation federation, List<String> oldMembers){
+	protected void processFederationUpdated(Federation federation, TopologySnapshot previous){
 			
+		Set<String> oldMembers = previous.getMembers(federation.getId());
 		List<String> newMembers = federation.getMembers().stream().map(FederationMember::getPlatformId).collect(Collectors.toList());
 		
 		//if this platform is added to existing federation process it as new federation is created
 		if(!oldMembers.contains(platformId) && newMembers.contains(platformId))
-			processFederationCreated(federation);
+			processFederationCreated(federation, previous);
 		
 		//if this platform is removed from federation...
 		else if(oldMembers.contains(platformId) && !newMembers.contains(platformId)){
@@ -501,8 +599,7 @@ public class Consumers {
 				if(newFedMembersId.equals(platformId))continue;
 				//if new federation member is added in this updated federation...
 				else if(!oldMembers.contains(newFedMembersId)){
-					addressBook.put(newFedMembersId, federation.getMembers().stream().filter(x -> newFedMembersId.equals(x.getPlatformId())).findAny().get().getInterworkingServiceURL());
-					processFedMemberAdding(newFedMembersId, federation.getId(), false);
+					processFedMemberAdding(newFedMembersId, previous, false);
 				}
 			}			
 			for(String oldFedMembersId : oldMembers){
@@ -517,14 +614,14 @@ public class Consumers {
 	}
 	
 	/**
-	 * Updating numberOfCommonFederations map according to federationMemebers of deleted federation,
+	 * Updating federation topology according to federationMemebers of deleted federation,
 	 * and if there are no more common federations of this platform and deleted member,
 	 * its subscription is removed from subsriptionRepo
 	 * @param federationId
 	 */
 	protected void processFederationDeleted(String federationId){
 		
-		List<String> deletedMembers = fedRepo.findOne(federationId).getMembers().stream().map(FederationMember::getPlatformId).collect(Collectors.toList());
+		Set<String> deletedMembers = federationTopology.federationDeleted(federationId).getMembers(federationId);
 		fedRepo.delete(federationId);
         logger.info("Federation with id: " + federationId + " removed from repository.");
 		if(deletedMembers.contains(platformId)){
@@ -537,94 +634,66 @@ public class Consumers {
 	}
 	
 	/**
-	 * Method iterates all federated resources and unshare each one from a given fedId
-	 * It is then deleted if unshared from all federations, or overwritten in mongoDB without
+	 * Method unshares all federated resources shared in a given fedId from it.
+	 * They are deleted if unshared from all federations, or updated in mongoDB without
 	 * removed federation
 	 * @param federationId
 	 */
 	protected void unshareFedResFromDeletedFederation(String federationId) {
 		Set<String> platformRegistryNotification = new HashSet<>();
-		//iterate all federatedResources and unshare each one that has been in deleted federation from it
-		List<FederatedResource> allFedRes = fedResRepo.findAll(); // fetch all current fedRes
-		for (FederatedResource fr : allFedRes) {
-			if(fr.getFederatedResourceInfoMap().containsKey(federationId)) {
-				fr.unshareFromFederation(federationId);
-				platformRegistryNotification.add(fr.getAggregationId()+"@"+federationId);
-				if(fr.getFederatedResourceInfoMap().size()>0)fedResRepo.save(fr); //overwrite if it is shared in another federations
-				else fedResRepo.delete(fr.getAggregationId());	//delete if unshared from all federations
-			}
-		}
-		//send notification about deleted symbioteIds
+		Set<String> unshared = fedResRepo.unshareAllFromFederation(federationId);
+		sharedResourceIndex.unshare(unshared, federationId);
+		for (String aggregationId : unshared)
+			platformRegistryNotification.add(aggregationId+"@"+federationId);
+		//send notification about deleted symbioteIds, and wait until it is confirmed
 		if(platformRegistryNotification.size() > 0)
-			rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, new ResourcesDeletedMessage(platformRegistryNotification));
+			rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, new ResourcesDeletedMessage(platformRegistryNotification)).join();
 	}
 	
 	/**
-	 * Method iterates all federated resources and finds those shared by given platformID.
-	 * They are then unshared from a given fedId and deleted from mongoDB
-	 * if unshared from all federations, or overwritten in mongoDB without removed federation.
+	 * Method unshares all federated resources shared by given platformID from a given fedId.
+	 * They are deleted from mongoDB if unshared from all federations, or updated in mongoDB
+	 * without removed federation.
 	 * @param federationId
 	 */
 	protected void unshareFedResOnFedMemberRemoval(String removedPlatformId, String federationId) {
 		Set<String> platformRegistryNotification = new HashSet<>();
-		//iterate all federatedResources and unshare each one that has been in deleted federation from it
-		List<FederatedResource> allFedRes = fedResRepo.findAll(); // fetch all current fedRes
-		for (FederatedResource fr : allFedRes) {
-			if(fr.getPlatformId().equals(removedPlatformId)) { //if current fedRes is shared by platform removed from federation
-				if(fr.getFederatedResourceInfoMap().containsKey(federationId))
-					fr.unshareFromFederation(federationId);
-				if(fr.getFederatedResourceInfoMap().size()>0)fedResRepo.save(fr); //overwrite if it is shared in another federations
-				else fedResRepo.delete(fr.getAggregationId());	//delete if unshared from all federations
-				platformRegistryNotification.add(fr.getAggregationId()+"@"+federationId);
-			}
-		}
+		for (String aggregationId : fedResRepo.unsharePlatformFromFederation(removedPlatformId, federationId))
+			platformRegistryNotification.add(aggregationId+"@"+federationId);
 		
-		//send notification about deleted symbioteIds
+		//send notification about deleted symbioteIds, and wait until it is confirmed
 		if(platformRegistryNotification.size() > 0)
-			rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, new ResourcesDeletedMessage(platformRegistryNotification));
+			rabbitManager.sendAsyncMessageJSON(PRexchange, PRremovedFedResRK, new ResourcesDeletedMessage(platformRegistryNotification)).join();
 	}
 	
 	/**
 	 * Method processes removal of federationMember(Id) from a single common federation that it had with this platform.
+	 * Federation topology must already be updated.
 	 * @param oldFedMembersId
 	 */
 	protected void processFedMemberRemoval(String oldFedMembersId){
-		if(numberOfCommonFederations.get(oldFedMembersId)>1) numberOfCommonFederations.put(oldFedMembersId, numberOfCommonFederations.get(oldFedMembersId) - 1);
-		else {
-			numberOfCommonFederations.remove(oldFedMembersId);
+		if(!federationTopology.isPeer(oldFedMembersId)) {
 			subscriptionRepo.delete(oldFedMembersId);
-			addressBook.remove(oldFedMembersId);
+			subscriptionIndex.remove(oldFedMembersId);
 		}
 	}
 	
 	/**
 	 * Method processes adding of FederationMember(Id) to a common federation with this platform.
 	 * @param newFedMembersId
+	 * @param previous federation topology before the federation update
+	 * @param created
 	 */
-	protected void processFedMemberAdding(String newFedMemberId, String federationId, boolean created){
-		if(numberOfCommonFederations.containsKey(newFedMemberId)) {
-			numberOfCommonFederations.put(newFedMemberId, numberOfCommonFederations.get(newFedMemberId) + 1);
+	protected void processFedMemberAdding(String newFedMemberId, TopologySnapshot previous, boolean created){
+		if(previous.isPeer(newFedMemberId)) {
 			if(!created)
-				processSendingExistingFederatedResources(newFedMemberId, RestInterface.findCommonFederations(newFedMemberId, platformId), platformId);
+				processSendingExistingFederatedResources(newFedMemberId, federationTopology.getCommonFederations(newFedMemberId), platformId);
 		}
 		else {
-			numberOfCommonFederations.put(newFedMemberId, 1);
-			
 			// Wrap in try/catch to avoid requeuing
 	        try {
 			//send HTTP-POST of own subscription
-			SecurityRequest securityRequest = securityManager.generateSecurityRequest();
-            if (securityRequest != null) {
-                logger.debug("Security Request created successfully!");
-
-                // if the creation of securityRequest is successful send it to the federated platform  
-				sendSecurityRequestAndVerifyResponse(securityRequest,
-						mapper.writeValueAsString(subscriptionRepo.findOne(platformId)),
-						addressBook.get(newFedMemberId).replaceAll("/+$", "") + "/subscriptionManager" + "/subscription",
-						newFedMemberId);       
-            } else
-                logger.info(
-                        "Failed to send own subscription message due to securityRequest creation failure!");
+			sendOwnSubscription(Collections.singleton(newFedMemberId), platformId);
 	        } catch (Exception e) {
 	            logger.warn("Exception thrown during processing federationMember addition.", e);
 	        }
@@ -638,7 +707,7 @@ public class Consumers {
 	 * @param newFedMemberId
 	 * @param federationId
 	 */
-	public static void processSendingExistingFederatedResources(String newFedMemberId, List<String> federationIds, String homePlatformId) {
+	public static void processSendingExistingFederatedResources(String newFedMemberId, Collection<String> federationIds, String homePlatformId) {
 		
 		//check if there are shared resources in received federations that fit the subscription of added member
 		List<FederatedResource> forSending = findExistingSharedResourcesInFederations(newFedMemberId, federationIds, homePlatformId);
@@ -646,21 +715,12 @@ public class Consumers {
 		if(forSending.size() > 0) {
 		//send found federatedResource to newFedMemberId
 			try {
-				SecurityRequest securityRequest = securityManager.generateSecurityRequest();
-	            if (securityRequest != null) {
-	                logger.debug("Security Request created successfully!");
-
-	                // if the creation of securityRequest is successful send it to the federated platform  
-	                logger.debug("Sending federated resources: " +
-                            forSending.stream().map(FederatedResource::getAggregationId).collect(Collectors.toList()) + " to platform: " + newFedMemberId);
-
-					sendSecurityRequestAndVerifyResponse(securityRequest,
-							mapper.writeValueAsString(new ResourcesAddedOrUpdatedMessage(forSending)),
-							addressBook.get(newFedMemberId).replaceAll("/+$", "") + "/subscriptionManager" + "/addOrUpdate",
-							newFedMemberId); 
-	            } else
-	                logger.info(
-	                        "Failed to send ResourcesAddedOrUpdated message due to securityRequest creation failure!");
+                logger.debug("Sending federated resources: " +
+                        forSending.stream().map(FederatedResource::getAggregationId).collect(Collectors.toList()) + " to platform: " + newFedMemberId);
+
+				//sent after queued resource changes for the platform, so that they do not overtake each other
+				peerCoalescer.send(Collections.singleton(newFedMemberId), PeerOutbox.ADD_OR_UPDATE_PATH,
+						mapper.writeValueAsBytes(new ResourcesAddedOrUpdatedMessage(forSending)));
 			} catch (Exception e) {
 	            logger.warn("Exception thrown during sending existing fedRes to added platform in existing federation.", e);
 	        }
@@ -670,43 +730,35 @@ public class Consumers {
 	}
 	
 	/**
-	 * Method finds all federated resources shared by this platform. It checks if they are shared in federations common to the given 
-	 * memberId and this platform, and if yes, adds them in a list without the info about federations that are not common to them.
+	 * Method finds all federated resources shared by this platform in federations common to the given memberId and this platform,
+	 * that fit the given member's subscription. Resources are found in the shared resource index, and found resources are added
+	 * in a list without the info about federations that are not common to them.
 	 * 
 	 * @param newFedMemberId
 	 * @param federationId
 	 * @return
 	 */
-	public static List<FederatedResource> findExistingSharedResourcesInFederations(String newFedMemberId, List<String> federationIds, String homePlatformId){
-		List<FederatedResource> allFedRes = fedResRepo.findAll();
+	public static List<FederatedResource> findExistingSharedResourcesInFederations(String newFedMemberId, Collection<String> federationIds, String homePlatformId){
 		List<FederatedResource> forSending = new ArrayList<>();
-		for(FederatedResource fedRes : allFedRes) {
-			//if this platform shared current fedRes...
-			if(fedRes.getPlatformId().equals(homePlatformId)){
-				//find all given common federations in fedRes
-				List<String> toStay = new ArrayList<>();
-				for(String fedId : federationIds) {
-					if(fedRes.getFederatedResourceInfoMap().containsKey(fedId))toStay.add(fedId);
-				}
-				if(toStay.size()>0) {
-					Subscription addedMemberSubscription = subscriptionRepo.findOne(newFedMemberId);
-					if(addedMemberSubscription == null) {
-						logger.debug("Added member subscription does not exist! Federated resources will be sent when subscription object is received!");
-						break;
-					}
-					else {
-						if(isSubscribed(addedMemberSubscription, fedRes)) {
-							FederatedResource clonedFr = deserializeFederatedResource(serializeFederatedResource(fedRes));
-	                        clonedFr.clearPrivateInfo();
-	                        for(String federationId : toStay) {
-		                        clonedFr.shareToNewFederation(federationId, fedRes.getCloudResource()
-		                                .getFederationInfo().getSharingInformation().get(federationId).getBartering());
-	                        }
-	                        forSending.add(clonedFr);
-						}
-					}
-				}
+		SubscriptionPredicate addedMemberSubscription = subscriptionIndex.get(newFedMemberId);
+		if(addedMemberSubscription == null) {
+			logger.debug("Added member subscription does not exist! Federated resources will be sent when subscription object is received!");
+			return forSending;
+		}
+		
+		//<aggregationId, common federations where it is shared> of resources shared by this platform that fit the subscription
+		Map<String, Set<String>> matching = sharedResourceIndex.find(addedMemberSubscription, federationIds);
+		if(matching.isEmpty())
+			return forSending;
+		
+		for(FederatedResource fedRes : fedResRepo.findAll(matching.keySet())) {
+			//public view is a new object without federations, so it is used as the copy for the platform
+			FederatedResource clonedFr = PublicViewCopier.publicView(fedRes);
+			for(String federationId : matching.get(fedRes.getAggregationId())) {
+				clonedFr.shareToNewFederation(federationId, fedRes.getCloudResource()
+						.getFederationInfo().getSharingInformation().get(federationId).getBartering());
 			}
+			forSending.add(clonedFr);
 		}
 		return forSending;
 	}
@@ -720,116 +772,7 @@ public class Consumers {
 	 * @return
 	 */
 	public static boolean isSubscribed (Subscription platformSubscription, FederatedResource fedRes) {
-		
-		//if resource is not defined, federated resource is not valid for subscription matching
-		if(fedRes.getCloudResource().getResource() == null)
-			return false;
-		
-		//resourceType matching condition
-		if(!resourceTypeMatching(platformSubscription.getResourceType(),fedRes.getCloudResource().getResource()))
-			return false;
-		
-		//if subscription has location condition check it
-		if(platformSubscription.getLocations() != null && platformSubscription.getLocations().size() > 0) {
-			//location matching condition
-			if(!locationMatching(platformSubscription.getLocations(),fedRes.getCloudResource().getResource()))
-				return false;
-		}
-		
-		//if subscription has observedProperty condition check it
-		if(platformSubscription.getObservedProperties() != null && platformSubscription.getObservedProperties().size() > 0) {
-			//observedProperties matching condition
-			if(!observedPropertyMatching(platformSubscription.getObservedProperties(), fedRes.getCloudResource().getResource()))
-				return false;
-		}
-		
-		//if subscription has capability condition check it
-		if(platformSubscription.getCapabilities() != null && platformSubscription.getCapabilities().size() > 0) {
-			//capabilities matching condition
-			if(!capabilityMatching(platformSubscription.getCapabilities(), fedRes.getCloudResource().getResource()))
-				return false;
-		}		
-		
-		return true;
-	}
-	
-	/**
-	 * Method does resourceType matching of given Resource and subscription resourceType map.
-	 * 
-	 * @param resourceType
-	 * @param resource
-	 * @return
-	 */
-	public static boolean resourceTypeMatching(Map<String, Boolean> resourceType, Resource resource) {
-		
-		if(resource instanceof Service)
-            return resourceType.containsKey("service") && resourceType.get("service");
-        
-        if (resource instanceof Sensor)
-            return resourceType.containsKey("sensor") && resourceType.get("sensor");
-        
-        if (resource instanceof Actuator)
-            return resourceType.containsKey("actuator") && resourceType.get("actuator");
-
-        if (resource instanceof Device)
-            return resourceType.containsKey("device") && resourceType.get("device");
-        
-        return false;
-	}
-	
-	/**
-	 * Method does location matching of given resource and subscription list of locations.
-	 * 
-	 * @param locations
-	 * @param resource
-	 * @return
-	 */
-	public static boolean locationMatching(List<String> locations, Resource resource) {
-		if(resource instanceof Device) {
-			if(((Device) resource).getLocatedAt() != null && locations.contains(((Device) resource).getLocatedAt().getName()))
-				return true;
-		}
-		return false;
-	}
-	
-	/**
-	 * Method does observedProperty matching of given resource and subscription list of observedProperties.
-	 * 
-	 * @param observedProperties
-	 * @param resource
-	 * @return
-	 */
-	public static boolean observedPropertyMatching(List<String> observedProperties, Resource resource) {
-		if(resource instanceof Sensor || resource instanceof StationarySensor || resource instanceof MobileSensor) { // check that resource is sensor
-			if(((Sensor)resource).getObservesProperty() != null && ((Sensor)resource).getObservesProperty().size() > 0)	{//check that sensor has any observed properties
-				for(String property : observedProperties) {
-					//if any of subscribed observedProperties is available, resource fits the subscription
-					if(((Sensor)resource).getObservesProperty().contains(property))
-						return true;
-				}
-			}
-		}	
-		return false;
-	}
-	
-	/**
-	 * Method does capability matching of given resource and subscription list of capabilities.
-	 * 
-	 * @param capabilities
-	 * @param resource
-	 * @return
-	 */
-	public static boolean capabilityMatching(List<String> capabilities, Resource resource) {
-		if(resource instanceof Actuator) { // check that resource is actuator
-			if(((Actuator)resource).getCapabilities() != null && ((Actuator)resource).getCapabilities().size() > 0)	{ //check that actuator has any capabilities
-				for(String capability : capabilities) {
-					//if any of subscribed capabilities is available, resource fits the subscription
-					if(((Actuator)resource).getCapabilities().stream().map(Capability :: getName).collect(Collectors.toList()).contains(capability))
-						return true;
-				}
-			}
-		}	
-		return false;
+		return SubscriptionPredicate.compile(platformSubscription).matches(fedRes);
 	}
 	
 }
\ No newline at end of file
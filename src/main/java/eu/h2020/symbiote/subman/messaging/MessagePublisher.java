@@ -0,0 +1,221 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Publishes JSON messages to RabbitMQ with publisher confirms.
+ * Messages are converted on the calling thread with a single, compact JSON converter, and queued.
+ * A single publisher thread sends queued messages in batches of at most batchSize messages on one
+ * channel of the RabbitTemplate channel cache, and waits for confirms of the whole batch at once.
+ * Batch that is not confirmed is sent again, at most maxAttempts times, so messages are published at least
+ * once and in order. Batch that is still not confirmed is stored to the publisherDeadLetter collection, so that
+ * it does not block later messages. Callers get a future completed when their message is confirmed, and
+ * should acknowledge the source of the message only then.
+ */
+@Component
+public class MessagePublisher {
+
+	private static final Logger logger = LoggerFactory.getLogger(MessagePublisher.class);
+
+	private static final String ENCODING = "UTF-8";
+
+	private RabbitTemplate rabbitTemplate;
+	private MongoTemplate mongoTemplate;
+
+	private MessageConverter messageConverter = new Jackson2JsonMessageConverter(new ObjectMapper());
+	private MessagePropertiesConverter propertiesConverter = new DefaultMessagePropertiesConverter();
+
+	private BlockingQueue<PendingMessage> queue;
+
+	private long offerTimeout;
+	private int batchSize;
+	private long confirmTimeout;
+	private long retryInterval;
+	private int maxAttempts;
+
+	private volatile boolean running = true;
+	private Thread publisherThread;
+
+	@Autowired
+	public MessagePublisher(RabbitTemplate rabbitTemplate, MongoTemplate mongoTemplate,
+			@Value("${symbiote.sm.publisher.queueCapacity:10000}") int queueCapacity,
+			@Value("${symbiote.sm.publisher.offerTimeout:1000}") long offerTimeout,
+			@Value("${symbiote.sm.publisher.batchSize:100}") int batchSize,
+			@Value("${symbiote.sm.publisher.confirmTimeout:5000}") long confirmTimeout,
+			@Value("${symbiote.sm.publisher.retryInterval:1000}") long retryInterval,
+			@Value("${symbiote.sm.publisher.maxAttempts:5}") int maxAttempts) {
+		this.rabbitTemplate = rabbitTemplate;
+		this.mongoTemplate = mongoTemplate;
+		this.queue = new LinkedBlockingQueue<>(queueCapacity);
+		this.offerTimeout = offerTimeout;
+		this.batchSize = batchSize;
+		this.confirmTimeout = confirmTimeout;
+		this.retryInterval = retryInterval;
+		this.maxAttempts = maxAttempts;
+
+		publisherThread = new Thread(this::run, "message-publisher");
+		publisherThread.setDaemon(true);
+		publisherThread.start();
+	}
+
+	/**
+	 * Method converts the given object to JSON message and queues it for publishing.
+	 * If the queue is full, it waits at most offerTimeout milliseconds for space in it.
+	 * 
+	 * @param exchange
+	 * @param routingKey
+	 * @param obj
+	 * @return future completed when the message is confirmed, failed if it is not queued or not confirmed
+	 */
+	public CompletableFuture<Void> publish(String exchange, String routingKey, Object obj) {
+		Message message = messageConverter.toMessage(obj, new MessageProperties());
+		PendingMessage pending = new PendingMessage(exchange, routingKey, message);
+		try {
+			if (!queue.offer(pending, offerTimeout, TimeUnit.MILLISECONDS)) {
+				logger.warn("Publisher queue is full, message for " + exchange + "/" + routingKey + " is not sent.");
+				pending.confirmed.completeExceptionally(new IllegalStateException("Publisher queue is full"));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while queueing message for " + exchange + "/" + routingKey + ", message is not sent.");
+			pending.confirmed.completeExceptionally(e);
+		}
+		return pending.confirmed;
+	}
+
+	/**
+	 * Method returns number of messages waiting to be published.
+	 * 
+	 * @return
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Method stops the publisher after the queued messages are published, or the confirm timeout expires.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		running = false;
+		try {
+			publisherThread.join(confirmTimeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!queue.isEmpty()) {
+			logger.warn(queue.size() + " queued messages were not published before shutdown.");
+			PendingMessage pending;
+			while ((pending = queue.poll()) != null)
+				pending.confirmed.completeExceptionally(new IllegalStateException("Publisher is shut down"));
+		}
+	}
+
+	private void run() {
+		List<PendingMessage> batch = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingMessage first = queue.poll(1, TimeUnit.SECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+
+				int attempts = 1;
+				while (!publishBatch(batch)) {
+					if (attempts >= maxAttempts || !running) {
+						deadLetter(batch);
+						break;
+					}
+					attempts++;
+					TimeUnit.MILLISECONDS.sleep(retryInterval);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (PendingMessage pending : batch)
+					pending.confirmed.completeExceptionally(e);
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private boolean publishBatch(List<PendingMessage> batch) {
+		try {
+			rabbitTemplate.execute(channel -> {
+				channel.confirmSelect();
+				for (PendingMessage pending : batch)
+					channel.basicPublish(pending.exchange, pending.routingKey, false,
+							propertiesConverter.fromMessageProperties(pending.message.getMessageProperties(), ENCODING),
+							pending.message.getBody());
+				channel.waitForConfirmsOrDie(confirmTimeout);
+				return null;
+			});
+			logger.debug("Published " + batch.size() + " confirmed messages.");
+			for (PendingMessage pending : batch)
+				pending.confirmed.complete(null);
+			return true;
+		} catch (RuntimeException e) {
+			logger.warn("Publishing of " + batch.size() + " messages was not confirmed.", e);
+			return false;
+		}
+	}
+
+	private void deadLetter(List<PendingMessage> batch) {
+		logger.warn("Publishing of " + batch.size() + " messages failed " + maxAttempts + " times, they are moved to publisherDeadLetter.");
+		Exception failure = new IllegalStateException("Message was not confirmed by the broker");
+		try {
+			List<PublisherDeadLetter> deadLetters = new ArrayList<>();
+			Date now = new Date();
+			for (PendingMessage pending : batch)
+				deadLetters.add(new PublisherDeadLetter(pending.exchange, pending.routingKey,
+						pending.message.getMessageProperties().getContentType(),
+						new String(pending.message.getBody(), StandardCharsets.UTF_8), now));
+			mongoTemplate.insert(deadLetters, PublisherDeadLetter.class);
+		} catch (RuntimeException e) {
+			logger.error("Failed to store " + batch.size() + " unpublished messages to publisherDeadLetter, they are lost.", e);
+		}
+		for (PendingMessage pending : batch)
+			pending.confirmed.completeExceptionally(failure);
+	}
+
+	private static class PendingMessage {
+
+		private final String exchange;
+		private final String routingKey;
+		private final Message message;
+		private final CompletableFuture<Void> confirmed = new CompletableFuture<>();
+
+		PendingMessage(String exchange, String routingKey, Message message) {
+			this.exchange = exchange;
+			this.routingKey = routingKey;
+			this.message = message;
+		}
+	}
+}
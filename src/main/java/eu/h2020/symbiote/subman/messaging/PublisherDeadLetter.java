@@ -0,0 +1,82 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Message that MessagePublisher could not publish with confirm in maxAttempts attempts. It is stored
+ * with its exchange and routing key, so that it can be inspected and published again manually.
+ */
+@Document(collection = "publisherDeadLetter")
+public class PublisherDeadLetter {
+
+	@Id
+	private String id;
+
+	private String exchange;
+	private String routingKey;
+	private String contentType;
+	private String body;
+	private Date failedAt;
+
+	public PublisherDeadLetter() {
+	}
+
+	public PublisherDeadLetter(String exchange, String routingKey, String contentType, String body, Date failedAt) {
+		this.exchange = exchange;
+		this.routingKey = routingKey;
+		this.contentType = contentType;
+		this.body = body;
+		this.failedAt = failedAt;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getExchange() {
+		return exchange;
+	}
+
+	public void setExchange(String exchange) {
+		this.exchange = exchange;
+	}
+
+	public String getRoutingKey() {
+		return routingKey;
+	}
+
+	public void setRoutingKey(String routingKey) {
+		this.routingKey = routingKey;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public void setBody(String body) {
+		this.body = body;
+	}
+
+	public Date getFailedAt() {
+		return failedAt;
+	}
+
+	public void setFailedAt(Date failedAt) {
+		this.failedAt = failedAt;
+	}
+}
@@ -1,7 +1,8 @@
 package eu.h2020.symbiote.subman.messaging;
 
 import java.io.IOException;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
 import javax.annotation.PreDestroy;
@@ -9,13 +10,9 @@ import javax.annotation.PreDestroy;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.rabbit.support.CorrelationData;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 
@@ -39,9 +36,16 @@ public class RabbitManager {
 
 	public Connection connection;
 	private RabbitTemplate rabbitTemplate;
+	private MessagePublisher messagePublisher;
+	private RpcClient rpcClient;
 
-	public RabbitManager(RabbitTemplate rabbitTemplate) throws Exception {
+	@Value("${spring.rabbitmq.template.reply-timeout:30000}")
+	private long replyTimeout;
+
+	public RabbitManager(RabbitTemplate rabbitTemplate, MessagePublisher messagePublisher, RpcClient rpcClient) throws Exception {
 		this.rabbitTemplate = rabbitTemplate;
+		this.messagePublisher = messagePublisher;
+		this.rpcClient = rpcClient;
 	}
 
 	/**
@@ -80,19 +84,25 @@ public class RabbitManager {
 	}
 	
 	/**
-	 * Sends RPC message and returns the answer.
+	 * Sends RPC message and waits for the answer at most the configured reply timeout.
 	 * @param exchange
 	 * @param routingKey
 	 * @param obj
-	 * @return
+	 * @return answer, or null if there is no answer
 	 */
 	public Object sendRpcMessage(String exchange, String routingKey, Object obj) {
 		log.info("Sending RPC message");
 
-		String correlationId = UUID.randomUUID().toString();
-		rabbitTemplate.setReplyTimeout(30000);
-		Object receivedObj = rabbitTemplate.convertSendAndReceive(exchange, routingKey, obj,
-				new CorrelationData(correlationId));
+		Object receivedObj;
+		try {
+			receivedObj = sendRpcMessageAsync(exchange, routingKey, obj, replyTimeout).get();
+		} catch (ExecutionException e) {
+			log.info("RPC failed: " + e.getCause());
+			receivedObj = null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			receivedObj = null;
+		}
 		if (receivedObj == null) {
 			log.info("Received null or Timeout!");
 			return null;
@@ -101,22 +111,30 @@ public class RabbitManager {
 		log.info("RPC Response received obj: " + receivedObj);
 		return receivedObj;
 	}
+
+	/**
+	 * Sends RPC message using direct reply-to, without blocking the caller.
+	 * @param exchange
+	 * @param routingKey
+	 * @param obj
+	 * @param timeout time (ms) to wait for the answer
+	 * @return future answer, failed with TimeoutException if there is no answer in time
+	 */
+	public CompletableFuture<Object> sendRpcMessageAsync(String exchange, String routingKey, Object obj, long timeout) {
+		return rpcClient.call(exchange, routingKey, obj, timeout);
+	}
 	
 	/**
-	 * Sends async message using the Jackson2JsonMessageConverter
+	 * Sends async JSON message through the MessagePublisher, where it is
+	 * published in a batch with other messages and confirmed by the broker.
 	 * @param exchange
 	 * @param routingKey
 	 * @param obj
+	 * @return future completed when the message is confirmed, failed if it is not published
 	 */
-	public void sendAsyncMessageJSON(String exchange, String routingKey, Object obj) {
-		log.info("Sending async JSON message");
-
-		ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(SerializationFeature.INDENT_OUTPUT, true);
-		Jackson2JsonMessageConverter messageConverter = new Jackson2JsonMessageConverter(mapper);
-        rabbitTemplate.setMessageConverter(messageConverter);
-		
-        rabbitTemplate.convertAndSend(exchange, routingKey, obj);
+	public CompletableFuture<Void> sendAsyncMessageJSON(String exchange, String routingKey, Object obj) {
+		log.debug("Sending async JSON message");
+		return messagePublisher.publish(exchange, routingKey, obj);
 	}
 	
 	/**
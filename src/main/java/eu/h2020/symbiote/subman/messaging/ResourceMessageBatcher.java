@@ -0,0 +1,233 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.Channel;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+
+/**
+ * Collects consecutive Platform Registry messages of the same kind (addOrUpdate or remove) into one batch,
+ * which is processed at once. Batch is flushed when it contains maxMessages messages, when window milliseconds
+ * passed since its first message, or when a message of the other kind is received, so that order of added and
+ * removed resources is kept. Duplicates are processed once, latest version of a federated resource is kept.
+ * Messages of a batch are acknowledged after processing of the whole batch is finished. If processing fails, they are
+ * rejected and requeued once, and dropped (or dead lettered by the queue) when they fail again after redelivery.
+ * Redelivered messages are processed alone, so that a message that fails again does not drop the messages batched with it.
+ * After shutdown, received messages are not processed nor acknowledged, so they are redelivered.
+ */
+public class ResourceMessageBatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResourceMessageBatcher.class);
+
+	private enum Kind { ADD_OR_UPDATE, REMOVE }
+
+	private final int maxMessages;
+	private final long window;
+
+	private final Function<List<FederatedResource>, CompletableFuture<Void>> addOrUpdateProcessor;
+	private final Function<List<String>, CompletableFuture<Void>> removeProcessor;
+
+	private final ScheduledExecutorService scheduler;
+
+	//current batch, guarded by this
+	private Kind kind;
+	private Map<String, FederatedResource> federatedResources = new LinkedHashMap<>();
+	private Set<String> symbioteIds = new LinkedHashSet<>();
+	private List<Delivery> deliveries = new ArrayList<>();
+	private ScheduledFuture<?> scheduledFlush;
+	private long generation;
+	private boolean closed;
+
+	/**
+	 * @param maxMessages max number of messages in a batch
+	 * @param window max time (ms) a message waits for its batch, 0 disables batching
+	 * @param addOrUpdateProcessor processes federated resources of a batch, returned future is completed when they are processed
+	 * @param removeProcessor processes symbioteIds of a batch, returned future is completed when they are processed
+	 */
+	public ResourceMessageBatcher(int maxMessages, long window,
+			Function<List<FederatedResource>, CompletableFuture<Void>> addOrUpdateProcessor,
+			Function<List<String>, CompletableFuture<Void>> removeProcessor) {
+		this.maxMessages = maxMessages;
+		this.window = window;
+		this.addOrUpdateProcessor = addOrUpdateProcessor;
+		this.removeProcessor = removeProcessor;
+
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "resource-message-batcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		this.scheduler = executor;
+	}
+
+	/**
+	 * Method adds federated resources of a received ResourcesAddedOrUpdatedMessage to the batch.
+	 *
+	 * @param resources
+	 * @param channel channel of the received message
+	 * @param deliveryTag delivery tag of the received message
+	 * @param redelivered true if the message was already delivered before
+	 */
+	public synchronized void addOrUpdate(Collection<FederatedResource> resources, Channel channel, long deliveryTag, boolean redelivered) {
+		if (closed) {
+			logger.debug("Message with delivery tag " + deliveryTag + " received after shutdown, it is not processed.");
+			return;
+		}
+		if (kind == Kind.REMOVE || redelivered)
+			flush();
+		kind = Kind.ADD_OR_UPDATE;
+		for (FederatedResource fedRes : resources)
+			federatedResources.put(fedRes.getAggregationId(), fedRes);
+		added(new Delivery(channel, deliveryTag, redelivered));
+	}
+
+	/**
+	 * Method adds symbioteIds of a received ResourcesDeletedMessage to the batch.
+	 *
+	 * @param deletedSymbioteIds
+	 * @param channel channel of the received message
+	 * @param deliveryTag delivery tag of the received message
+	 * @param redelivered true if the message was already delivered before
+	 */
+	public synchronized void remove(Collection<String> deletedSymbioteIds, Channel channel, long deliveryTag, boolean redelivered) {
+		if (closed) {
+			logger.debug("Message with delivery tag " + deliveryTag + " received after shutdown, it is not processed.");
+			return;
+		}
+		if (kind == Kind.ADD_OR_UPDATE || redelivered)
+			flush();
+		kind = Kind.REMOVE;
+		symbioteIds.addAll(deletedSymbioteIds);
+		added(new Delivery(channel, deliveryTag, redelivered));
+	}
+
+	/**
+	 * Method processes the current batch immediately.
+	 */
+	public synchronized void flush() {
+		if (deliveries.isEmpty())
+			return;
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		generation++;
+
+		List<Delivery> flushed = deliveries;
+		CompletableFuture<Void> processed;
+		try {
+			if (kind == Kind.ADD_OR_UPDATE)
+				processed = addOrUpdateProcessor.apply(new ArrayList<>(federatedResources.values()));
+			else
+				processed = removeProcessor.apply(new ArrayList<>(symbioteIds));
+		} catch (Exception e) {
+			processed = new CompletableFuture<>();
+			processed.completeExceptionally(e);
+		}
+		logger.debug("Flushed batch of " + flushed.size() + " messages");
+
+		kind = null;
+		federatedResources = new LinkedHashMap<>();
+		symbioteIds = new LinkedHashSet<>();
+		deliveries = new ArrayList<>();
+
+		processed.whenComplete((result, e) -> {
+			if (e != null)
+				logger.warn("Exception thrown during processing of " + flushed.size() + " Platform Registry messages, they are rejected", e);
+			for (Delivery delivery : flushed) {
+				if (e == null)
+					acknowledge(delivery.channel, delivery.deliveryTag);
+				else
+					reject(delivery.channel, delivery.deliveryTag, !delivery.redelivered);
+			}
+		});
+	}
+
+	/**
+	 * Method processes the current batch, stops accepting new messages and stops the timer.
+	 * It should be called while channels of received messages are still open, so that they can be acknowledged.
+	 */
+	public synchronized void shutdown() {
+		if (closed)
+			return;
+		flush();
+		closed = true;
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Method acknowledges the message with the given delivery tag on the given channel.
+	 *
+	 * @param channel
+	 * @param deliveryTag
+	 */
+	static void acknowledge(Channel channel, long deliveryTag) {
+		try {
+			channel.basicAck(deliveryTag, false);
+		} catch (IOException e) {
+			logger.warn("Failed to acknowledge message with delivery tag " + deliveryTag, e);
+		}
+	}
+
+	/**
+	 * Method rejects the message with the given delivery tag on the given channel.
+	 *
+	 * @param channel
+	 * @param deliveryTag
+	 * @param requeue true if the message should be delivered again
+	 */
+	static void reject(Channel channel, long deliveryTag, boolean requeue) {
+		try {
+			channel.basicNack(deliveryTag, false, requeue);
+		} catch (IOException e) {
+			logger.warn("Failed to reject message with delivery tag " + deliveryTag, e);
+		}
+	}
+
+	private void added(Delivery delivery) {
+		deliveries.add(delivery);
+		if (deliveries.size() >= maxMessages || window <= 0 || delivery.redelivered)
+			flush();
+		else if (scheduledFlush == null) {
+			long batch = generation;
+			scheduledFlush = scheduler.schedule(() -> flushExpired(batch), window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private synchronized void flushExpired(long batch) {
+		//batch could be flushed by size while this flush was waiting
+		if (batch == generation)
+			flush();
+	}
+
+	private static class Delivery {
+
+		private final Channel channel;
+		private final long deliveryTag;
+		private final boolean redelivered;
+
+		Delivery(Channel channel, long deliveryTag, boolean redelivered) {
+			this.channel = channel;
+			this.deliveryTag = deliveryTag;
+			this.redelivered = redelivered;
+		}
+	}
+}
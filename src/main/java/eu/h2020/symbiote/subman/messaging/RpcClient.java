@@ -0,0 +1,175 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Asynchronous RPC over RabbitMQ direct reply-to. Requests are published on a single channel that consumes
+ * the direct reply-to pseudo queue, and replies are matched to pending calls by correlationId.
+ * No thread waits for a reply, each call has its own timeout after which its future fails with TimeoutException.
+ * Requests are sent as JSON, and replies are converted as JSON if they carry a type id, or with
+ * SimpleMessageConverter otherwise.
+ */
+@Component
+public class RpcClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(RpcClient.class);
+
+	static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+	private static final String ENCODING = "UTF-8";
+	private static final String TYPE_ID = "__TypeId__";
+
+	private ConnectionFactory connectionFactory;
+
+	private MessageConverter jsonConverter = new Jackson2JsonMessageConverter(new ObjectMapper());
+	private MessageConverter simpleConverter = new SimpleMessageConverter();
+	private MessagePropertiesConverter propertiesConverter = new DefaultMessagePropertiesConverter();
+
+	private ScheduledThreadPoolExecutor timeouts;
+
+	//<correlationId, pending call>
+	private Map<String, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+
+	private Channel channel;
+	private String consumerTag;
+
+	@Autowired
+	public RpcClient(ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+
+		timeouts = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "rpc-timeouts");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timeouts.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Method sends the given request and returns future reply.
+	 * 
+	 * @param exchange
+	 * @param routingKey
+	 * @param request
+	 * @param timeout time (ms) to wait for the reply
+	 * @return future completed with converted reply, or failed with TimeoutException if there is no reply in time
+	 */
+	public CompletableFuture<Object> call(String exchange, String routingKey, Object request, long timeout) {
+		String correlationId = UUID.randomUUID().toString();
+		CompletableFuture<Object> future = new CompletableFuture<>();
+
+		Message message = jsonConverter.toMessage(request, new MessageProperties());
+		AMQP.BasicProperties properties = propertiesConverter.fromMessageProperties(message.getMessageProperties(), ENCODING)
+				.builder().correlationId(correlationId).replyTo(DIRECT_REPLY_TO).build();
+
+		pending.put(correlationId, future);
+		ScheduledFuture<?> timeoutTask = timeouts.schedule(() -> {
+			CompletableFuture<Object> expired = pending.remove(correlationId);
+			if (expired != null)
+				expired.completeExceptionally(new TimeoutException("No reply from " + exchange + "/" + routingKey + " in " + timeout + " ms"));
+		}, timeout, TimeUnit.MILLISECONDS);
+		future.whenComplete((reply, e) -> timeoutTask.cancel(false));
+
+		try {
+			synchronized (this) {
+				//publishing on the channel that consumes replies is required by direct reply-to
+				channel().basicPublish(exchange, routingKey, false, properties, message.getBody());
+			}
+		} catch (IOException | RuntimeException e) {
+			pending.remove(correlationId);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Method returns number of calls waiting for reply.
+	 * 
+	 * @return
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	@PreDestroy
+	public synchronized void shutdown() {
+		timeouts.shutdownNow();
+		if (channel != null && channel.isOpen()) {
+			try {
+				channel.basicCancel(consumerTag);
+				channel.close();
+			} catch (IOException | TimeoutException | RuntimeException e) {
+				logger.debug("Closing RPC channel failed.", e);
+			}
+		}
+		channel = null;
+	}
+
+	private Channel channel() throws IOException {
+		if (channel != null && channel.isOpen())
+			return channel;
+
+		Channel created = connectionFactory.createConnection().createChannel(false);
+		created.addShutdownListener(cause -> {
+			logger.warn("RPC channel closed, " + pending.size() + " pending calls failed.");
+			for (String correlationId : pending.keySet()) {
+				CompletableFuture<Object> failed = pending.remove(correlationId);
+				if (failed != null)
+					failed.completeExceptionally(cause);
+			}
+		});
+		consumerTag = created.basicConsume(DIRECT_REPLY_TO, true, new DefaultConsumer(created) {
+
+			@Override
+			public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+				reply(envelope, properties, body);
+			}
+		});
+		channel = created;
+		return channel;
+	}
+
+	private void reply(Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+		CompletableFuture<Object> future = properties.getCorrelationId() == null ? null : pending.remove(properties.getCorrelationId());
+		if (future == null) {
+			logger.debug("Received reply without pending call, correlationId: " + properties.getCorrelationId());
+			return;
+		}
+		try {
+			MessageProperties messageProperties = propertiesConverter.toMessageProperties(properties, envelope, ENCODING);
+			MessageConverter converter = messageProperties.getHeaders().containsKey(TYPE_ID) ? jsonConverter : simpleConverter;
+			future.complete(converter.fromMessage(new Message(body, messageProperties)));
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+	}
+}
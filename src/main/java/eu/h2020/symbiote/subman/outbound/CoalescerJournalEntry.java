@@ -0,0 +1,124 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+
+/**
+ * Change of a federated resource for federated platforms, stored before it is queued in PeerCoalescer,
+ * so that changes in the coalescing window are not lost if the process stops. Entry contains either
+ * the added or updated version of a resource, stored once and shared to all federations of its recipients,
+ * or the symbioteId of an unshared resource. Recipients are removed from the entry when their changes are
+ * stored to the outbox, and the entry is removed when all its recipients are.
+ */
+@Document(collection = "peerCoalescerJournal")
+public class CoalescerJournalEntry {
+
+	@Id
+	private String id;
+
+	private FederatedResource federatedResource;
+	private String version;
+	private boolean newResource;
+	private String symbioteId;
+	private List<Recipient> recipients = new ArrayList<>();
+
+	public CoalescerJournalEntry() {
+	}
+
+	public CoalescerJournalEntry(FederatedResource federatedResource, String version, boolean newResource) {
+		this.federatedResource = federatedResource;
+		this.version = version;
+		this.newResource = newResource;
+	}
+
+	public CoalescerJournalEntry(String symbioteId) {
+		this.symbioteId = symbioteId;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public FederatedResource getFederatedResource() {
+		return federatedResource;
+	}
+
+	public void setFederatedResource(FederatedResource federatedResource) {
+		this.federatedResource = federatedResource;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	public boolean isNewResource() {
+		return newResource;
+	}
+
+	public void setNewResource(boolean newResource) {
+		this.newResource = newResource;
+	}
+
+	public String getSymbioteId() {
+		return symbioteId;
+	}
+
+	public void setSymbioteId(String symbioteId) {
+		this.symbioteId = symbioteId;
+	}
+
+	public List<Recipient> getRecipients() {
+		return recipients;
+	}
+
+	public void setRecipients(List<Recipient> recipients) {
+		this.recipients = recipients;
+	}
+
+	/**
+	 * Platform receiving the change, with the federations its copy of the resource is shared to.
+	 * Federations are empty for unshared resources.
+	 */
+	public static class Recipient {
+
+		private String platformId;
+		private List<String> federationIds = new ArrayList<>();
+
+		public Recipient() {
+		}
+
+		public Recipient(String platformId, List<String> federationIds) {
+			this.platformId = platformId;
+			this.federationIds = federationIds;
+		}
+
+		public String getPlatformId() {
+			return platformId;
+		}
+
+		public void setPlatformId(String platformId) {
+			this.platformId = platformId;
+		}
+
+		public List<String> getFederationIds() {
+			return federationIds;
+		}
+
+		public void setFederationIds(List<String> federationIds) {
+			this.federationIds = federationIds;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package eu.h2020.symbiote.subman.outbound;
+
+/**
+ * Outcome of sending a single message to a federated platform.
+ */
+public enum DeliveryOutcome {
+
+	/**
+	 * Message was sent and response of the federated platform was verified.
+	 */
+	DELIVERED,
+
+	/**
+	 * Message was sent, but response of the federated platform could not be verified.
+	 */
+	VERIFICATION_FAILED,
+
+	/**
+	 * Message could not be sent, or federated platform did not accept it.
+	 */
+	SEND_FAILED,
+
+	/**
+	 * Federated platform refused the message for now (authorization, rate limit or conflict), it is sent again later.
+	 */
+	REFUSED,
+
+	/**
+	 * Federated platform rejected the message as invalid. Platform may also reject a message sent before it received
+	 * a federation update, so the message is sent again a limited number of times.
+	 */
+	REJECTED,
+
+	/**
+	 * Message was not sent because circuit of the federated platform is open.
+	 */
+	DEFERRED
+}
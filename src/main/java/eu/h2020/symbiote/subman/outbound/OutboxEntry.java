@@ -0,0 +1,114 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Pending delivery of a serialized JSON message to a federated platform. Entries of a platform are
+ * delivered in order of their ids, and an entry is removed only after its delivery is verified.
+ * Address of the platform is resolved when the entry is sent, path is the SubscriptionManager
+ * endpoint appended to it.
+ */
+@Document(collection = "peerOutbox")
+@CompoundIndex(name = "platformId_id", def = "{'platformId' : 1, '_id' : 1}")
+public class OutboxEntry {
+
+	@Id
+	private String id;
+
+	private String platformId;
+	private String path;
+	private byte[] payload;
+
+	private Date createdAt;
+	private Date nextAttemptAt;
+	private int attempts;
+	private int rejections;
+	private String lastOutcome;
+
+	public OutboxEntry() {
+	}
+
+	public OutboxEntry(String platformId, String path, byte[] payload) {
+		this.platformId = platformId;
+		this.path = path;
+		this.payload = payload;
+		this.createdAt = new Date();
+		this.nextAttemptAt = createdAt;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getPlatformId() {
+		return platformId;
+	}
+
+	public void setPlatformId(String platformId) {
+		this.platformId = platformId;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public void setPayload(byte[] payload) {
+		this.payload = payload;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Date createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public Date getNextAttemptAt() {
+		return nextAttemptAt;
+	}
+
+	public void setNextAttemptAt(Date nextAttemptAt) {
+		this.nextAttemptAt = nextAttemptAt;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public int getRejections() {
+		return rejections;
+	}
+
+	public void setRejections(int rejections) {
+		this.rejections = rejections;
+	}
+
+	public String getLastOutcome() {
+		return lastOutcome;
+	}
+
+	public void setLastOutcome(String lastOutcome) {
+		this.lastOutcome = lastOutcome;
+	}
+}
@@ -0,0 +1,87 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of a single federated platform. After failureThreshold consecutive
+ * failed sends the circuit opens and requests to the platform are not allowed. When
+ * openTimeout expires a single trial request is allowed (half-open state), which
+ * closes the circuit if successful, or opens it again if it fails.
+ */
+public class PeerCircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openTimeout;
+	private final LongSupplier clock;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+
+	public PeerCircuitBreaker(int failureThreshold, long openTimeout, LongSupplier clock) {
+		this.failureThreshold = failureThreshold;
+		this.openTimeout = openTimeout;
+		this.clock = clock;
+	}
+
+	/**
+	 * Method checks if a request to the platform is allowed. Open circuit allows
+	 * a single trial request after openTimeout, moving to half-open state.
+	 * 
+	 * @return
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (clock.getAsLong() - openedAt < openTimeout)
+				return false;
+			state = State.HALF_OPEN;
+			return true;
+		default:
+			//trial request is in progress
+			return false;
+		}
+	}
+
+	/**
+	 * Method records a successful request, closing the circuit.
+	 * 
+	 * @return true if the circuit was closed by this success
+	 */
+	public synchronized boolean onSuccess() {
+		consecutiveFailures = 0;
+		if (state == State.CLOSED)
+			return false;
+		state = State.CLOSED;
+		return true;
+	}
+
+	/**
+	 * Method records a failed request.
+	 * 
+	 * @return true if the circuit was opened by this failure
+	 */
+	public synchronized boolean onFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			state = State.OPEN;
+			openedAt = clock.getAsLong();
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public long getOpenTimeout() {
+		return openTimeout;
+	}
+}
@@ -0,0 +1,380 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.ResourcesAddedOrUpdatedMessage;
+import eu.h2020.symbiote.cloud.model.internal.ResourcesDeletedMessage;
+import eu.h2020.symbiote.cloud.model.internal.ResourceSharingInformation;
+import eu.h2020.symbiote.subman.outbound.CoalescerJournalEntry.Recipient;
+
+/**
+ * Per-platform queues of federated resource changes, coalesced during a short window before they are
+ * stored to the outbox. Within the window only the latest version of each aggregationId is kept,
+ * and a delete of a resource that was added in the same window (and therefore never sent)
+ * cancels the add. When the window expires, changes of each platform are flushed as one
+ * ResourcesDeletedMessage followed by one ResourcesAddedOrUpdatedMessage, and platforms
+ * receiving identical messages share a single serialized payload.
+ * Changes of each processed batch are stored to the journal in a single write before they are queued,
+ * with each resource version stored once for all platforms, and queued changes are recovered from the
+ * journal on startup. Other messages for federated platforms are sent through the
+ * coalescer, after the queued changes of their platforms, so platforms receive messages in order.
+ */
+@Component
+public class PeerCoalescer {
+
+	private static final Logger logger = LoggerFactory.getLogger(PeerCoalescer.class);
+
+	private static final String ID = "_id";
+	private static final String RECIPIENTS = "recipients";
+	private static final String PLATFORM_ID = "platformId";
+
+	private static ObjectMapper mapper = new ObjectMapper();
+
+	private PeerOutbox peerOutbox;
+	private MongoTemplate mongoTemplate;
+
+	private long coalescingWindow;
+
+	private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	private AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	//<platformId, changes pending in the current window>
+	private Map<String, PendingChanges> pending = new ConcurrentHashMap<>();
+
+	//<journal entry id, platforms whose changes of the entry are not stored to the outbox yet>
+	private Map<String, Set<String>> unflushedRecipients = new ConcurrentHashMap<>();
+
+	@Autowired
+	public PeerCoalescer(PeerOutbox peerOutbox, MongoTemplate mongoTemplate,
+			@Value("${symbiote.sm.outbound.coalescingWindow:2000}") long coalescingWindow) {
+		this.peerOutbox = peerOutbox;
+		this.mongoTemplate = mongoTemplate;
+		this.coalescingWindow = coalescingWindow;
+	}
+
+	/**
+	 * Method queues changes left in the journal when the process stopped, in the order they were made.
+	 */
+	@PostConstruct
+	public void recover() {
+		List<CoalescerJournalEntry> journal = mongoTemplate.find(new Query().with(new Sort(Sort.Direction.ASC, ID)),
+				CoalescerJournalEntry.class);
+		for (CoalescerJournalEntry entry : journal) {
+			track(entry);
+			for (Recipient recipient : entry.getRecipients()) {
+				if (entry.getSymbioteId() != null)
+					queueDelete(recipient.getPlatformId(), entry.getSymbioteId(), entry.getId());
+				else
+					queueAddOrUpdate(recipient.getPlatformId(), copyForRecipient(entry.getFederatedResource(), recipient),
+							entry.getVersion(), entry.isNewResource(), entry.getId());
+			}
+		}
+		if (!journal.isEmpty()) {
+			logger.info("Recovered " + journal.size() + " resource changes for federated platforms from the journal.");
+			changed();
+		}
+	}
+
+	/**
+	 * Method queues the given versions of federated resources for federated platforms. Each queued version
+	 * replaces previously queued version of the same resource, and pending deletes from the federations where
+	 * it is shared. Changes are journaled in a single write, with one entry per resource for all platforms.
+	 * 
+	 * @param platformResources <platformId, <aggregationId, version of the federated resource prepared for the platform>>
+	 * @param versions <aggregationId, version of the resource> (see newVersion), same for copies of the resource prepared for different platforms
+	 * @param newResources aggregationIds of resources that were not shared by this platform before this change
+	 */
+	public void addOrUpdate(Map<String, Map<String, FederatedResource>> platformResources, Map<String, String> versions,
+			Set<String> newResources) {
+		// <aggregationId, journal entry>
+		Map<String, CoalescerJournalEntry> entries = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, FederatedResource>> platform : platformResources.entrySet()) {
+			for (FederatedResource fedRes : platform.getValue().values()) {
+				//journaled resource is shared to the federations of all platform copies
+				CoalescerJournalEntry entry = entries.computeIfAbsent(fedRes.getAggregationId(), aggregationId -> new CoalescerJournalEntry(
+						PublicViewCopier.copyForPlatform(fedRes), versions.get(aggregationId), newResources.contains(aggregationId)));
+				for (Map.Entry<String, ResourceSharingInformation> sharing : fedRes.getCloudResource().getFederationInfo().getSharingInformation().entrySet())
+					entry.getFederatedResource().shareToNewFederation(sharing.getKey(), sharing.getValue().getBartering());
+				entry.getRecipients().add(new Recipient(platform.getKey(), new ArrayList<>(fedRes.getFederatedResourceInfoMap().keySet())));
+			}
+		}
+		if (entries.isEmpty())
+			return;
+		journal(entries.values());
+
+		for (Map.Entry<String, Map<String, FederatedResource>> platform : platformResources.entrySet())
+			for (FederatedResource fedRes : platform.getValue().values())
+				queueAddOrUpdate(platform.getKey(), fedRes, versions.get(fedRes.getAggregationId()),
+						newResources.contains(fedRes.getAggregationId()), entries.get(fedRes.getAggregationId()).getId());
+		changed();
+	}
+
+	/**
+	 * Method queues unsharing of the resources with the given symbioteIds for federated platforms.
+	 * If a resource was added in the current window it is unshared from the queued version, and the delete
+	 * is dropped, since the platform never received the resource. Changes are journaled in a single write,
+	 * with one entry per symbioteId for all platforms.
+	 * 
+	 * @param platformSymbioteIds <platformId, symbioteIds (aggregationId@federationId)>
+	 */
+	public void delete(Map<String, Set<String>> platformSymbioteIds) {
+		// <symbioteId, journal entry>
+		Map<String, CoalescerJournalEntry> entries = new LinkedHashMap<>();
+		for (Map.Entry<String, Set<String>> platform : platformSymbioteIds.entrySet())
+			for (String symbioteId : platform.getValue())
+				entries.computeIfAbsent(symbioteId, id -> new CoalescerJournalEntry(id)).getRecipients()
+						.add(new Recipient(platform.getKey(), new ArrayList<>()));
+		if (entries.isEmpty())
+			return;
+		journal(entries.values());
+
+		for (Map.Entry<String, Set<String>> platform : platformSymbioteIds.entrySet())
+			for (String symbioteId : platform.getValue())
+				queueDelete(platform.getKey(), symbioteId, entries.get(symbioteId).getId());
+		changed();
+	}
+
+	/**
+	 * Method creates a new version of a resource change, unique also after restart.
+	 * 
+	 * @return
+	 */
+	public static String newVersion() {
+		return new ObjectId().toHexString();
+	}
+
+	/**
+	 * Method stores the given serialized JSON message to the outbox for the platforms with the given ids,
+	 * after the changes queued for them, so that the platforms receive it in order.
+	 * 
+	 * @param platformIds
+	 * @param path
+	 * @param payload
+	 */
+	public synchronized void send(Collection<String> platformIds, String path, byte[] payload) {
+		flush(platformIds);
+		peerOutbox.enqueue(platformIds, path, payload);
+	}
+
+	/**
+	 * Method stores all queued changes to the outbox. Platforms with identical changes are grouped, so that
+	 * each distinct message is serialized once and its payload is shared by all platforms of the group.
+	 */
+	public synchronized void flush() {
+		flushScheduled.set(false);
+		flush(new ArrayList<>(pending.keySet()));
+	}
+
+	private void flush(Collection<String> platformIds) {
+		// <deleted symbioteIds, platformIds>
+		Map<Set<String>, List<String>> deletedGroups = new LinkedHashMap<>();
+		// <content key, platformIds> and <content key, resources> of added or updated resources
+		Map<List<Object>, List<String>> addedGroups = new LinkedHashMap<>();
+		Map<List<Object>, Collection<FederatedResource>> addedResources = new HashMap<>();
+		// <platformId, journal entries of its flushed changes>
+		Map<String, List<String>> journalIds = new HashMap<>();
+
+		for (String platformId : platformIds) {
+			PendingChanges changes = pending.remove(platformId);
+			if (changes == null)
+				continue;
+			journalIds.put(platformId, changes.journalIds);
+			if (!changes.deleted.isEmpty())
+				deletedGroups.computeIfAbsent(changes.deleted, k -> new ArrayList<>()).add(platformId);
+			if (!changes.addedOrUpdated.isEmpty()) {
+				List<Object> key = contentKey(changes);
+				addedGroups.computeIfAbsent(key, k -> new ArrayList<>()).add(platformId);
+				addedResources.putIfAbsent(key, changes.addedOrUpdated.values());
+			}
+		}
+
+		//deletes are stored first, so that a resource unshared and shared again in the window stays shared
+		for (Map.Entry<Set<String>, List<String>> group : deletedGroups.entrySet()) {
+			try {
+				peerOutbox.enqueue(group.getValue(), PeerOutbox.DELETE_PATH,
+						mapper.writeValueAsBytes(new ResourcesDeletedMessage(group.getKey())));
+			} catch (Exception e) {
+				logger.warn("Exception thrown during flushing deleted resources for platforms " + group.getValue(), e);
+				group.getValue().forEach(journalIds::remove);
+			}
+		}
+		for (Map.Entry<List<Object>, List<String>> group : addedGroups.entrySet()) {
+			try {
+				peerOutbox.enqueue(group.getValue(), PeerOutbox.ADD_OR_UPDATE_PATH, mapper.writeValueAsBytes(
+						new ResourcesAddedOrUpdatedMessage(new ArrayList<>(addedResources.get(group.getKey())))));
+			} catch (Exception e) {
+				logger.warn("Exception thrown during flushing added or updated resources for platforms " + group.getValue(), e);
+				group.getValue().forEach(journalIds::remove);
+			}
+		}
+
+		//changes that could not be stored to the outbox stay in the journal, and are recovered on startup
+		// <journal entry id, platforms whose changes of the entry are flushed>
+		Map<String, Set<String>> flushedRecipients = new HashMap<>();
+		journalIds.forEach((platformId, ids) -> ids.forEach(id -> flushedRecipients.computeIfAbsent(id, k -> new HashSet<>()).add(platformId)));
+
+		List<String> flushed = new ArrayList<>();
+		// <flushed platforms, ids of entries that still have other recipients>
+		Map<Set<String>, List<String>> partlyFlushed = new HashMap<>();
+		for (Map.Entry<String, Set<String>> entry : flushedRecipients.entrySet()) {
+			Set<String> unflushed = unflushedRecipients.get(entry.getKey());
+			unflushed.removeAll(entry.getValue());
+			if (unflushed.isEmpty()) {
+				unflushedRecipients.remove(entry.getKey());
+				flushed.add(entry.getKey());
+			} else
+				partlyFlushed.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+		}
+
+		if (!flushed.isEmpty())
+			mongoTemplate.remove(new Query(Criteria.where(ID).in(flushed)), CoalescerJournalEntry.class);
+		for (Map.Entry<Set<String>, List<String>> group : partlyFlushed.entrySet())
+			mongoTemplate.updateMulti(new Query(Criteria.where(ID).in(group.getValue())), new Update().pull(RECIPIENTS,
+					new BasicDBObject(PLATFORM_ID, new BasicDBObject("$in", new ArrayList<>(group.getKey())))), CoalescerJournalEntry.class);
+	}
+
+	/**
+	 * Method flushes changes of all platforms, so that they are not lost on shutdown.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+		flush();
+	}
+
+	/**
+	 * Method stores the given journal entries in a single write. Ids are assigned before the write, so that
+	 * entries are recovered in the order of changes.
+	 */
+	private void journal(Collection<CoalescerJournalEntry> entries) {
+		for (CoalescerJournalEntry entry : entries)
+			entry.setId(new ObjectId().toHexString());
+		mongoTemplate.insert(entries, CoalescerJournalEntry.class);
+		entries.forEach(this::track);
+	}
+
+	private void track(CoalescerJournalEntry entry) {
+		Set<String> platformIds = ConcurrentHashMap.newKeySet();
+		for (Recipient recipient : entry.getRecipients())
+			platformIds.add(recipient.getPlatformId());
+		unflushedRecipients.put(entry.getId(), platformIds);
+	}
+
+	private static FederatedResource copyForRecipient(FederatedResource journaled, Recipient recipient) {
+		FederatedResource copy = PublicViewCopier.copyForPlatform(journaled);
+		Map<String, ResourceSharingInformation> sharingInformation = journaled.getCloudResource().getFederationInfo().getSharingInformation();
+		for (String federationId : recipient.getFederationIds())
+			copy.shareToNewFederation(federationId, sharingInformation.get(federationId).getBartering());
+		return copy;
+	}
+
+	private void queueAddOrUpdate(String platformId, FederatedResource fedRes, String version, boolean newResource, String journalId) {
+		pending.compute(platformId, (k, changes) -> {
+			if (changes == null)
+				changes = new PendingChanges();
+			String aggregationId = fedRes.getAggregationId();
+			changes.newResources.putIfAbsent(aggregationId, newResource);
+			changes.addedOrUpdated.put(aggregationId, fedRes);
+			changes.versions.put(aggregationId, version);
+			for (String federationId : fedRes.getFederatedResourceInfoMap().keySet())
+				changes.deleted.remove(aggregationId + "@" + federationId);
+			changes.journalIds.add(journalId);
+			return changes;
+		});
+	}
+
+	private void queueDelete(String platformId, String symbioteId, String journalId) {
+		String[] splitSymbioteId = symbioteId.split("@");
+		String aggregationId = splitSymbioteId[0] + "@" + splitSymbioteId[1];
+		String federationId = splitSymbioteId[2];
+
+		pending.compute(platformId, (k, changes) -> {
+			if (changes == null)
+				changes = new PendingChanges();
+			//resource deleted first in the window was known to the platform
+			boolean newResource = changes.newResources.computeIfAbsent(aggregationId, id -> false);
+
+			FederatedResource queued = changes.addedOrUpdated.get(aggregationId);
+			if (queued != null && queued.getFederatedResourceInfoMap().containsKey(federationId)) {
+				queued.unshareFromFederation(federationId);
+				if (queued.getFederatedResourceInfoMap().isEmpty())
+					changes.addedOrUpdated.remove(aggregationId);
+			}
+			if (!newResource)
+				changes.deleted.add(symbioteId);
+			changes.journalIds.add(journalId);
+			return changes;
+		});
+	}
+
+	private void changed() {
+		if (coalescingWindow <= 0)
+			flush();
+		else if (flushScheduled.compareAndSet(false, true))
+			scheduler.schedule(this::flush, coalescingWindow, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Platform copies of the same resource version have the same description, so copies are
+	 * equal when they have the same aggregationId, version and federation sharing info.
+	 */
+	private static List<Object> contentKey(PendingChanges changes) {
+		List<Object> key = new ArrayList<>();
+		for (FederatedResource fedRes : changes.addedOrUpdated.values()) {
+			key.add(fedRes.getAggregationId());
+			key.add(changes.versions.get(fedRes.getAggregationId()));
+			Map<String, Object> bartering = new HashMap<>();
+			for (Map.Entry<String, ResourceSharingInformation> sharing : fedRes.getCloudResource().getFederationInfo().getSharingInformation().entrySet())
+				bartering.put(sharing.getKey(), sharing.getValue().getBartering());
+			key.add(bartering);
+		}
+		return key;
+	}
+
+	private static class PendingChanges {
+
+		//<aggregationId, latest version>
+		private final Map<String, FederatedResource> addedOrUpdated = new LinkedHashMap<>();
+		//<aggregationId, version of the queued resource>
+		private final Map<String, String> versions = new HashMap<>();
+		//symbioteIds
+		private final Set<String> deleted = new LinkedHashSet<>();
+		//<aggregationId, true if resource was not known to the platform when window opened>
+		private final Map<String, Boolean> newResources = new HashMap<>();
+		//ids of journal entries of the changes
+		private final List<String> journalIds = new ArrayList<>();
+	}
+}
@@ -0,0 +1,46 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes usage of the federated platforms connection pool, in total and per platform host.
+ */
+@Component
+public class PeerConnectionPoolMetrics implements PublicMetrics {
+
+	private static final String PREFIX = "subscriptionManager.http.pool.";
+
+	private PoolingHttpClientConnectionManager connectionManager;
+
+	@Autowired
+	public PeerConnectionPoolMetrics(@Qualifier("peerConnectionManager") PoolingHttpClientConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		addStats(metrics, PREFIX, connectionManager.getTotalStats());
+		for (HttpRoute route : connectionManager.getRoutes())
+			addStats(metrics, PREFIX + route.getTargetHost().toHostString() + ".", connectionManager.getStats(route));
+		return metrics;
+	}
+
+	private static void addStats(List<Metric<?>> metrics, String prefix, PoolStats stats) {
+		metrics.add(new Metric<Integer>(prefix + "leased", stats.getLeased()));
+		metrics.add(new Metric<Integer>(prefix + "available", stats.getAvailable()));
+		metrics.add(new Metric<Integer>(prefix + "pending", stats.getPending()));
+		metrics.add(new Metric<Integer>(prefix + "max", stats.getMax()));
+	}
+}
@@ -0,0 +1,186 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.security.commons.SecurityConstants;
+import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.subman.controller.SecuredRequestSender;
+import eu.h2020.symbiote.subman.controller.SecurityManager;
+
+/**
+ * Component sends messages to federated platforms and verifies their responses.
+ * Messages for different platforms are sent in parallel on a bounded pool of threads,
+ * so that a slow platform does not delay the others or the calling listener thread.
+ * At most queueCapacity messages wait for a thread, further messages are sent by the calling thread.
+ * Each platform has its own circuit breaker. Messages for a platform with open circuit are
+ * not sent, and their delivery is left to be retried by the caller. PeerOutbox is the only caller,
+ * it keeps a deferred message as the oldest pending message of its platform, so order is kept.
+ */
+@Component
+public class PeerDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(PeerDispatcher.class);
+
+	private SecurityManager securityManager;
+
+	private SecuredRequestSender securedRequestSender;
+
+	private ThreadPoolTaskExecutor executor;
+
+	private int failureThreshold;
+	private long openTimeout;
+
+	//<platformId, circuitBreaker>
+	private Map<String, PeerCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+	@Autowired
+	public PeerDispatcher(SecurityManager securityManager, SecuredRequestSender securedRequestSender,
+			@Value("${symbiote.sm.outbound.concurrency:16}") int concurrency,
+			@Value("${symbiote.sm.outbound.queueCapacity:1000}") int queueCapacity,
+			@Value("${symbiote.sm.circuitBreaker.failureThreshold:5}") int failureThreshold,
+			@Value("${symbiote.sm.circuitBreaker.openTimeout:30000}") long openTimeout) {
+		this.securityManager = securityManager;
+		this.securedRequestSender = securedRequestSender;
+		this.failureThreshold = failureThreshold;
+		this.openTimeout = openTimeout;
+
+		executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(concurrency);
+		executor.setMaxPoolSize(concurrency);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setThreadNamePrefix("peer-dispatcher-");
+		executor.initialize();
+	}
+
+	/**
+	 * Method sends the given message on a dispatcher thread. Messages for different platforms are
+	 * dispatched independently, so each platform proceeds at its own pace.
+	 * 
+	 * @param securityRequest
+	 * @param message
+	 * @return future completed with the delivery outcome when the message is processed
+	 */
+	public CompletableFuture<DeliveryOutcome> dispatch(SecurityRequest securityRequest, PeerMessage message) {
+		return CompletableFuture.supplyAsync(() -> send(securityRequest, message), executor);
+	}
+
+	/**
+	 * Method sends security request with the given message content to the message url,
+	 * and verifies that received response matches the message platformId.
+	 * If circuit of the platform is open, message is not sent.
+	 * 
+	 * @param securityRequest
+	 * @param message
+	 * @return
+	 */
+	public DeliveryOutcome send(SecurityRequest securityRequest, PeerMessage message) {
+		PeerCircuitBreaker circuitBreaker = circuitBreaker(message.getPlatformId());
+		if (!circuitBreaker.allowRequest()) {
+			logger.debug("Circuit of platform " + message.getPlatformId() + " is open, message is not sent.");
+			return DeliveryOutcome.DEFERRED;
+		}
+
+		DeliveryOutcome outcome = doSend(securityRequest, message);
+		//platform that responded is reachable, even if its response is not verified
+		if (outcome != DeliveryOutcome.SEND_FAILED)
+			circuitBreaker.onSuccess();
+		else if (circuitBreaker.onFailure())
+			logger.warn("Circuit of platform " + message.getPlatformId() + " opened, messages to it are not sent for " + openTimeout + " ms.");
+		return outcome;
+	}
+
+	/**
+	 * Method returns circuit breaker state of the platform with the given id.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	public PeerCircuitBreaker.State getCircuitState(String platformId) {
+		return circuitBreaker(platformId).getState();
+	}
+
+	private PeerCircuitBreaker circuitBreaker(String platformId) {
+		return circuitBreakers.computeIfAbsent(platformId,
+				k -> new PeerCircuitBreaker(failureThreshold, openTimeout, System::currentTimeMillis));
+	}
+
+	private DeliveryOutcome doSend(SecurityRequest securityRequest, PeerMessage message) {
+		ResponseEntity<?> serviceResponse;
+		try {
+			serviceResponse = securedRequestSender.sendSecuredRequest(securityRequest, message.getPayload(), message.getUrl());
+		} catch (Exception e) {
+			logger.warn("Exception thrown during sending security request to platform " + message.getPlatformId() + "!", e);
+			return DeliveryOutcome.SEND_FAILED;
+		}
+
+		logger.debug("ServiceResponse = " + serviceResponse);
+		if (serviceResponse != null && isRefusal(serviceResponse.getStatusCode())) {
+			logger.warn("Platform " + message.getPlatformId() + " refused security request message with status " + serviceResponse.getStatusCode() + "!");
+			return DeliveryOutcome.REFUSED;
+		}
+		if (serviceResponse != null && serviceResponse.getStatusCode().is4xxClientError()) {
+			logger.warn("Platform " + message.getPlatformId() + " rejected security request message with status " + serviceResponse.getStatusCode() + "!");
+			return DeliveryOutcome.REJECTED;
+		}
+		if (serviceResponse == null || !serviceResponse.getStatusCode().is2xxSuccessful()) {
+			logger.warn("Failed to send security request message to platform " + message.getPlatformId() + "!");
+			return DeliveryOutcome.SEND_FAILED;
+		}
+
+		//verify serviceResponse
+		try {
+			boolean verifiedResponse = securityManager.verifyReceivedResponse(
+					serviceResponse.getHeaders().get(SecurityConstants.SECURITY_RESPONSE_HEADER).get(0),
+					"subscriptionManager", message.getPlatformId());
+			if (verifiedResponse) {
+				logger.debug("Sending of security request message to platform " + message.getPlatformId() + " successfull!");
+				return DeliveryOutcome.DELIVERED;
+			}
+			logger.warn("Failed to send security request message to platform " + message.getPlatformId() + " due to the response verification error!");
+		} catch (Exception e) {
+			logger.warn("Exception thrown during verifying service response", e);
+		}
+		return DeliveryOutcome.VERIFICATION_FAILED;
+	}
+
+	/**
+	 * Method checks if the given client error status is caused by the state of the request sender or receiver
+	 * rather than by the message itself, e.g. an expired token.
+	 * 
+	 * @param status
+	 * @return
+	 */
+	static boolean isRefusal(HttpStatus status) {
+		switch (status) {
+		case UNAUTHORIZED:
+		case FORBIDDEN:
+		case REQUEST_TIMEOUT:
+		case CONFLICT:
+		case LOCKED:
+		case TOO_MANY_REQUESTS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
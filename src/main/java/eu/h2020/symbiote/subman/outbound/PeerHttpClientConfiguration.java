@@ -0,0 +1,80 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Configuration of the HTTP client used for requests to federated platforms.
+ * Connections are pooled and kept alive, so that connections and TLS sessions
+ * to the same platforms are reused between requests.
+ */
+@Configuration
+public class PeerHttpClientConfiguration {
+
+	@Value("${symbiote.sm.http.maxConnections:200}")
+	private int maxConnections;
+
+	@Value("${symbiote.sm.http.maxConnectionsPerPlatform:10}")
+	private int maxConnectionsPerPlatform;
+
+	@Value("${symbiote.sm.http.connectTimeout:5000}")
+	private int connectTimeout;
+
+	@Value("${symbiote.sm.http.readTimeout:30000}")
+	private int readTimeout;
+
+	@Value("${symbiote.sm.http.poolAcquireTimeout:5000}")
+	private int poolAcquireTimeout;
+
+	@Value("${symbiote.sm.http.idleTimeout:60000}")
+	private long idleTimeout;
+
+	@Bean(destroyMethod = "shutdown")
+	public PoolingHttpClientConnectionManager peerConnectionManager() {
+		//system socket factory keeps the JVM trust store and TLS settings
+		Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+				.build();
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(registry);
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerPlatform);
+		connectionManager.setValidateAfterInactivity(2000);
+		return connectionManager;
+	}
+
+	@Bean(destroyMethod = "close")
+	public CloseableHttpClient peerHttpClient(@Qualifier("peerConnectionManager") PoolingHttpClientConnectionManager connectionManager) {
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeout)
+				.setSocketTimeout(readTimeout)
+				.setConnectionRequestTimeout(poolAcquireTimeout)
+				.build();
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	@Bean
+	public RestTemplate peerRestTemplate(@Qualifier("peerHttpClient") CloseableHttpClient httpClient) {
+		return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+	}
+}
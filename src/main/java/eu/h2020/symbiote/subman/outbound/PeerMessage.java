@@ -0,0 +1,30 @@
+package eu.h2020.symbiote.subman.outbound;
+
+/**
+ * Serialized JSON message addressed to the given url of a federated platform.
+ * Payload may be shared with messages to other platforms and must not be modified.
+ */
+public class PeerMessage {
+
+	private final String platformId;
+	private final String url;
+	private final byte[] payload;
+
+	public PeerMessage(String platformId, String url, byte[] payload) {
+		this.platformId = platformId;
+		this.url = url;
+		this.payload = payload;
+	}
+
+	public String getPlatformId() {
+		return platformId;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+}
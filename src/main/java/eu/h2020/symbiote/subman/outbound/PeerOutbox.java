@@ -0,0 +1,227 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.subman.controller.CredentialManager;
+import eu.h2020.symbiote.subman.repositories.OutboxRepository;
+import eu.h2020.symbiote.subman.topology.FederationTopology;
+
+/**
+ * Durable outbox of messages for federated platforms. Messages are stored to mongoDB when enqueued,
+ * and periodically sent in the background. Oldest pending message of each platform is sent, platforms
+ * are processed in parallel and independently of each other. Message is removed only after verified delivery, otherwise it is retried
+ * with exponential backoff, and later messages of the same platform wait for it. Messages refused by the
+ * platform (e.g. expired token) are retried like failed ones. Messages rejected by the platform as invalid
+ * are retried maxRejections times, and then moved to a dead letter collection, since retrying them would
+ * block the platform forever.
+ * Messages of a platform with open circuit (see PeerDispatcher) are not sent and are not counted as
+ * failed attempts, they are sent in order once the circuit allows it.
+ */
+@Component
+public class PeerOutbox {
+
+	private static final Logger logger = LoggerFactory.getLogger(PeerOutbox.class);
+
+	public static final String ADD_OR_UPDATE_PATH = "/subscriptionManager/addOrUpdate";
+	public static final String DELETE_PATH = "/subscriptionManager/delete";
+	public static final String SUBSCRIPTION_PATH = "/subscriptionManager/subscription";
+
+	public static final String DEAD_LETTER_COLLECTION = "peerOutboxDeadLetter";
+
+	private OutboxRepository outboxRepo;
+	private MongoTemplate mongoTemplate;
+	private PeerDispatcher peerDispatcher;
+	private CredentialManager credentialManager;
+	private FederationTopology federationTopology;
+
+	private long initialBackoff;
+	private long maxBackoff;
+	private int maxRejections;
+
+	//platforms whose messages are being sent
+	private Set<String> sending = ConcurrentHashMap.newKeySet();
+
+	@Autowired
+	public PeerOutbox(OutboxRepository outboxRepo, MongoTemplate mongoTemplate, PeerDispatcher peerDispatcher,
+			CredentialManager credentialManager, FederationTopology federationTopology,
+			@Value("${symbiote.sm.outbox.initialBackoff:1000}") long initialBackoff,
+			@Value("${symbiote.sm.outbox.maxBackoff:300000}") long maxBackoff,
+			@Value("${symbiote.sm.outbox.maxRejections:5}") int maxRejections) {
+		this.outboxRepo = outboxRepo;
+		this.mongoTemplate = mongoTemplate;
+		this.peerDispatcher = peerDispatcher;
+		this.credentialManager = credentialManager;
+		this.federationTopology = federationTopology;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.maxRejections = maxRejections;
+	}
+
+	/**
+	 * Method stores the given serialized JSON message for delivery to the given path of the platform with the given id.
+	 * 
+	 * @param platformId
+	 * @param path
+	 * @param payload
+	 */
+	public void enqueue(String platformId, String path, byte[] payload) {
+		outboxRepo.save(new OutboxEntry(platformId, path, payload));
+	}
+
+	/**
+	 * Method stores the given serialized JSON message for delivery to the given path of all platforms
+	 * with the given ids. Payload is serialized once and shared by all entries.
+	 * 
+	 * @param platformIds
+	 * @param path
+	 * @param payload
+	 */
+	public void enqueue(Collection<String> platformIds, String path, byte[] payload) {
+		List<OutboxEntry> entries = new ArrayList<>();
+		for (String platformId : platformIds)
+			entries.add(new OutboxEntry(platformId, path, payload));
+		if (!entries.isEmpty())
+			outboxRepo.save(entries);
+	}
+
+	/**
+	 * Method starts sending pending messages of every platform that is not already sending. For each platform
+	 * messages are sent one by one in order, until all are delivered or a delivery fails. Platforms are chained
+	 * independently, so a slow or unreachable platform does not delay delivery to the others. Sending continues
+	 * on dispatcher threads, so the scheduler thread is not blocked.
+	 */
+	@Scheduled(fixedDelayString = "${symbiote.sm.outbox.pollInterval:1000}")
+	public void dispatchPending() {
+		Set<String> platformIds;
+		try {
+			@SuppressWarnings("unchecked")
+			List<String> distinct = mongoTemplate.getCollection(mongoTemplate.getCollectionName(OutboxEntry.class)).distinct("platformId");
+			platformIds = new HashSet<>(distinct);
+		} catch (Exception e) {
+			logger.warn("Exception thrown during sending pending messages", e);
+			return;
+		}
+		if (platformIds.isEmpty())
+			return;
+
+		//securityRequest is generated in the background, sending never waits for the AAM
+		if (credentialManager.getSecurityRequest() == null) {
+			logger.info("Failed to send pending messages, no valid securityRequest is available!");
+			return;
+		}
+
+		for (String platformId : platformIds) {
+			if (!sending.add(platformId))
+				continue;
+			try {
+				dispatchNext(platformId).whenComplete((result, e) -> {
+					if (e != null)
+						logger.warn("Exception thrown during sending pending messages to platform " + platformId, e);
+					sending.remove(platformId);
+				});
+			} catch (Exception e) {
+				logger.warn("Exception thrown during sending pending messages to platform " + platformId, e);
+				sending.remove(platformId);
+			}
+		}
+	}
+
+	/**
+	 * Method sends the oldest pending message of the platform with the given id, and continues with its next
+	 * message once the message is processed.
+	 * 
+	 * @param platformId
+	 * @return future completed when the platform has no message ready to be sent
+	 */
+	private CompletableFuture<Void> dispatchNext(String platformId) {
+		OutboxEntry head = outboxRepo.findFirstByPlatformIdOrderByIdAsc(platformId);
+		if (head == null || head.getNextAttemptAt().after(new Date()))
+			return CompletableFuture.completedFuture(null);
+
+		String address = federationTopology.getAddress(platformId);
+		if (address == null) {
+			//platform is not federated with this platform anymore
+			logger.info("Platform " + platformId + " is not federated anymore, its pending messages are dropped.");
+			outboxRepo.delete(outboxRepo.findByPlatformId(platformId));
+			return CompletableFuture.completedFuture(null);
+		}
+
+		SecurityRequest securityRequest = credentialManager.getSecurityRequest();
+		if (securityRequest == null) {
+			logger.debug("No valid securityRequest is available, sending to platform " + platformId + " continues in the next poll.");
+			return CompletableFuture.completedFuture(null);
+		}
+
+		PeerMessage message = new PeerMessage(platformId, address.replaceAll("/+$", "") + head.getPath(), head.getPayload());
+		return peerDispatcher.dispatch(securityRequest, message).thenCompose(outcome ->
+				processOutcome(head, outcome) ? dispatchNext(platformId) : CompletableFuture.<Void>completedFuture(null));
+	}
+
+	/**
+	 * Method removes the delivered message, or schedules its next attempt. Message rejected maxRejections times
+	 * is moved to the dead letter collection, so that it does not block later messages of its platform.
+	 * 
+	 * @param head
+	 * @param outcome
+	 * @return true if the message is removed from the outbox
+	 */
+	private boolean processOutcome(OutboxEntry head, DeliveryOutcome outcome) {
+		String platformId = head.getPlatformId();
+		if (outcome == DeliveryOutcome.DELIVERED) {
+			outboxRepo.delete(head.getId());
+			return true;
+		}
+		if (outcome == DeliveryOutcome.DEFERRED) {
+			//message was not sent, it stays the head of its platform until the circuit allows a trial request
+			logger.debug("Delivery of message " + head.getId() + " to platform " + platformId + " deferred, circuit is open.");
+			return false;
+		}
+
+		head.setAttempts(head.getAttempts() + 1);
+		head.setLastOutcome(String.valueOf(outcome));
+		if (outcome == DeliveryOutcome.REJECTED) {
+			head.setRejections(head.getRejections() + 1);
+			if (head.getRejections() >= maxRejections) {
+				logger.warn("Message " + head.getId() + " rejected " + head.getRejections() + " times by platform " + platformId +
+						" is moved to " + DEAD_LETTER_COLLECTION + ": " + new String(head.getPayload(), StandardCharsets.UTF_8));
+				mongoTemplate.insert(head, DEAD_LETTER_COLLECTION);
+				outboxRepo.delete(head.getId());
+				return true;
+			}
+		}
+		head.setNextAttemptAt(new Date(System.currentTimeMillis() + backoff(head.getAttempts())));
+		outboxRepo.save(head);
+		logger.debug("Delivery of message " + head.getId() + " to platform " + platformId + " failed " +
+				head.getAttempts() + " times, next attempt at " + head.getNextAttemptAt());
+		return false;
+	}
+
+	/**
+	 * Method returns delay before the next delivery attempt after the given number of failed attempts.
+	 * 
+	 * @param attempts
+	 * @return
+	 */
+	long backoff(int attempts) {
+		if (attempts >= 31)
+			return maxBackoff;
+		return Math.min(maxBackoff, initialBackoff << (attempts - 1));
+	}
+}
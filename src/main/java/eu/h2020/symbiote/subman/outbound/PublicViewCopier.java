@@ -0,0 +1,64 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import java.util.HashMap;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.FederationInfoBean;
+
+/**
+ * Builds copies of federated resources that are sent to federated platforms. A public view without
+ * private info and federations is built once per resource, and copies for each platform share its
+ * resource description. Only the federation sharing info is copied, so that each platform copy can be
+ * shared to its own federations.
+ */
+public final class PublicViewCopier {
+
+	private PublicViewCopier() {
+	}
+
+	/**
+	 * Method builds the public view of the given federated resource. The view contains resource
+	 * description, aggregationId and trust, but no private info of the cloud resource and no federations.
+	 * Resource description is shared with the given federated resource and must not be modified.
+	 * 
+	 * @param fedRes
+	 * @return
+	 */
+	public static FederatedResource publicView(FederatedResource fedRes) {
+		FederationInfoBean federationInfo = new FederationInfoBean();
+		federationInfo.setSharingInformation(new HashMap<>());
+
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setFederationInfo(federationInfo);
+
+		if (fedRes.getCloudResource() != null) {
+			cloudResource.setResource(fedRes.getCloudResource().getResource());
+			if (fedRes.getCloudResource().getFederationInfo() != null) {
+				federationInfo.setAggregationId(fedRes.getAggregationId());
+				federationInfo.setResourceTrust(fedRes.getCloudResource().getFederationInfo().getResourceTrust());
+			}
+		}
+		return new FederatedResource(fedRes.getAggregationId(), cloudResource, fedRes.getAdaptiveTrust());
+	}
+
+	/**
+	 * Method copies the given public view for a single federated platform. Copy shares resource
+	 * description with the public view, and has its own, empty federation sharing info.
+	 * 
+	 * @param publicView
+	 * @return
+	 */
+	public static FederatedResource copyForPlatform(FederatedResource publicView) {
+		FederationInfoBean federationInfo = new FederationInfoBean();
+		federationInfo.setAggregationId(publicView.getCloudResource().getFederationInfo().getAggregationId());
+		federationInfo.setResourceTrust(publicView.getCloudResource().getFederationInfo().getResourceTrust());
+		federationInfo.setSharingInformation(new HashMap<>());
+
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(publicView.getCloudResource().getResource());
+		cloudResource.setFederationInfo(federationInfo);
+
+		return new FederatedResource(publicView.getAggregationId(), cloudResource, publicView.getAdaptiveTrust());
+	}
+}
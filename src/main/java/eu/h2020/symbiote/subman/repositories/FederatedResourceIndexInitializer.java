@@ -0,0 +1,55 @@
+package eu.h2020.symbiote.subman.repositories;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+
+/**
+ * Component ensures indexes used by federated resource queries on startup.
+ * Federated resources stored before federationIds were maintained are updated
+ * with their federationIds, so that they are found by federation queries.
+ */
+@Component
+public class FederatedResourceIndexInitializer {
+
+	private static final Logger logger = LoggerFactory.getLogger(FederatedResourceIndexInitializer.class);
+
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	public FederatedResourceIndexInitializer(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		mongoTemplate.indexOps(FederatedResource.class).ensureIndex(new Index().on("platformId", Sort.Direction.ASC));
+		mongoTemplate.indexOps(FederatedResource.class).ensureIndex(new Index().on(FederationIdsMongoEventListener.FEDERATION_IDS, Sort.Direction.ASC));
+
+		int updated = 0;
+		Query missingFederationIds = new Query(Criteria.where(FederationIdsMongoEventListener.FEDERATION_IDS).exists(false));
+		try (CloseableIterator<FederatedResource> it = mongoTemplate.stream(missingFederationIds, FederatedResource.class)) {
+			while (it.hasNext()) {
+				FederatedResource fedRes = it.next();
+				mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(fedRes.getAggregationId())),
+						new Update().set(FederationIdsMongoEventListener.FEDERATION_IDS, FederationIdsMongoEventListener.federationIds(fedRes)),
+						FederatedResource.class);
+				updated++;
+			}
+		}
+		if(updated > 0)
+			logger.info("Added federationIds to " + updated + " stored federated resources.");
+	}
+}
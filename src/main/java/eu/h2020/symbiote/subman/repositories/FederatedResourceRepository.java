@@ -1,6 +1,10 @@
 package eu.h2020.symbiote.subman.repositories;
 
+import java.util.List;
+import java.util.stream.Stream;
+
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
 
@@ -9,5 +13,41 @@ import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
  * 
  * MongoDB repository interface for Federation objects providing CRUD operations.
  */
-public interface FederatedResourceRepository extends MongoRepository<FederatedResource, String> {
+public interface FederatedResourceRepository extends MongoRepository<FederatedResource, String>, FederatedResourceRepositoryCustom {
+
+	/**
+	 * Finds all federated resources shared by the platform with the given id.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	List<FederatedResource> findByPlatformId(String platformId);
+
+	/**
+	 * Streams all federated resources not shared by the platform with the given id.
+	 * Returned stream has to be closed after use.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	Stream<FederatedResource> findByPlatformIdNot(String platformId);
+
+	/**
+	 * Finds all federated resources shared in the federation with the given id.
+	 * 
+	 * @param federationId
+	 * @return
+	 */
+	@Query("{ 'federationIds' : ?0 }")
+	List<FederatedResource> findByFederationId(String federationId);
+
+	/**
+	 * Finds all federated resources shared by the platform with the given id in the federation with the given id.
+	 * 
+	 * @param platformId
+	 * @param federationId
+	 * @return
+	 */
+	@Query("{ 'platformId' : ?0, 'federationIds' : ?1 }")
+	List<FederatedResource> findByPlatformIdAndFederationId(String platformId, String federationId);
 }
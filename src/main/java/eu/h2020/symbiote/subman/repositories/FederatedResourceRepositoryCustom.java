@@ -0,0 +1,59 @@
+package eu.h2020.symbiote.subman.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+
+/**
+ * Custom federated resource repository operations, executed as bulk writes and server-side updates in MongoDB.
+ * Federated resources unshared from all federations are deleted.
+ */
+public interface FederatedResourceRepositoryCustom {
+
+	/**
+	 * Inserts or replaces the given federated resources using unordered bulk writes.
+	 * Failure of a single federated resource does not prevent writing the others.
+	 * 
+	 * @param federatedResources
+	 * @return map of aggregationIds to error messages for federated resources that were not written
+	 */
+	Map<String, String> bulkSave(List<FederatedResource> federatedResources);
+
+	/**
+	 * Finds which of the given aggregationIds belong to stored federated resources, with a single query
+	 * fetching only ids.
+	 * 
+	 * @param aggregationIds
+	 * @return aggregationIds of existing federated resources
+	 */
+	Set<String> findExistingIds(Collection<String> aggregationIds);
+
+	/**
+	 * Unshares federated resources with the given aggregationIds from the federation with the given id.
+	 * 
+	 * @param aggregationIds
+	 * @param federationId
+	 * @return aggregationIds of federated resources that were shared in the federation
+	 */
+	Set<String> unshareFromFederation(Collection<String> aggregationIds, String federationId);
+
+	/**
+	 * Unshares all federated resources shared by the platform with the given id from the federation with the given id.
+	 * 
+	 * @param platformId
+	 * @param federationId
+	 * @return aggregationIds of federated resources that were shared in the federation
+	 */
+	Set<String> unsharePlatformFromFederation(String platformId, String federationId);
+
+	/**
+	 * Unshares all federated resources from the federation with the given id.
+	 * 
+	 * @param federationId
+	 * @return aggregationIds of federated resources that were shared in the federation
+	 */
+	Set<String> unshareAllFromFederation(String federationId);
+}
@@ -0,0 +1,169 @@
+package eu.h2020.symbiote.subman.repositories;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+
+/**
+ * Implementation of custom federated resource repository operations on MongoTemplate.
+ * Federated resources are saved with unordered bulk upserts of at most batchSize documents.
+ * Unsharing is done with a single updateMulti removing the federation from all affected documents,
+ * followed by a single remove of affected documents that are not shared in any federation anymore.
+ * Federation ids that can not be used in a field path (containing '.' or starting with '$') are unshared
+ * by rewriting each affected document, so that map keys are written by the converter like on save.
+ */
+public class FederatedResourceRepositoryImpl implements FederatedResourceRepositoryCustom {
+
+	private static final Logger logger = LoggerFactory.getLogger(FederatedResourceRepositoryImpl.class);
+
+	private static final String ID = "_id";
+	private static final String PLATFORM_ID = "platformId";
+	private static final String FEDERATED_RESOURCE_INFO_MAP = "federatedResourceInfoMap.";
+	private static final String SHARING_INFORMATION = "cloudResource.federationInfo.sharingInformation.";
+
+	private MongoTemplate mongoTemplate;
+
+	private int batchSize;
+
+	@Autowired
+	public FederatedResourceRepositoryImpl(MongoTemplate mongoTemplate, @Value("${symbiote.sm.bulkWrite.batchSize:1000}") int batchSize) {
+		if(batchSize <= 0)
+			throw new IllegalArgumentException("Bulk write batch size must be positive, but was " + batchSize);
+		this.mongoTemplate = mongoTemplate;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public Map<String, String> bulkSave(List<FederatedResource> federatedResources) {
+		Map<String, String> failed = new HashMap<>();
+		for(int from = 0; from < federatedResources.size(); from += batchSize) {
+			List<FederatedResource> batch = federatedResources.subList(from, Math.min(from + batchSize, federatedResources.size()));
+
+			BulkWriteOperation bulk = mongoTemplate.getCollection(mongoTemplate.getCollectionName(FederatedResource.class))
+					.initializeUnorderedBulkOperation();
+			for(FederatedResource fedRes : batch) {
+				DBObject dbo = new BasicDBObject();
+				mongoTemplate.getConverter().write(fedRes, dbo);
+				//bulk writes bypass mapping events, so federationIds are added here
+				dbo.put(FederationIdsMongoEventListener.FEDERATION_IDS, FederationIdsMongoEventListener.federationIds(fedRes));
+				bulk.find(new BasicDBObject(ID, fedRes.getAggregationId())).upsert().replaceOne(dbo);
+			}
+
+			try {
+				bulk.execute();
+			} catch (BulkWriteException e) {
+				for(BulkWriteError error : e.getWriteErrors())
+					failed.put(batch.get(error.getIndex()).getAggregationId(), error.getMessage());
+			} catch (RuntimeException e) {
+				logger.warn("Bulk write of " + batch.size() + " federated resources failed.", e);
+				for(FederatedResource fedRes : batch)
+					failed.put(fedRes.getAggregationId(), e.getMessage());
+			}
+		}
+		return failed;
+	}
+
+	@Override
+	public Set<String> findExistingIds(Collection<String> aggregationIds) {
+		if(aggregationIds.isEmpty())
+			return new HashSet<>();
+		return findIds(new Query(Criteria.where(ID).in(aggregationIds)));
+	}
+
+	@Override
+	public Set<String> unshareFromFederation(Collection<String> aggregationIds, String federationId) {
+		if(aggregationIds.isEmpty())
+			return new HashSet<>();
+		return unshare(Criteria.where(ID).in(aggregationIds), federationId);
+	}
+
+	@Override
+	public Set<String> unsharePlatformFromFederation(String platformId, String federationId) {
+		return unshare(Criteria.where(PLATFORM_ID).is(platformId), federationId);
+	}
+
+	@Override
+	public Set<String> unshareAllFromFederation(String federationId) {
+		return unshare(null, federationId);
+	}
+
+	private Set<String> unshare(Criteria criteria, String federationId) {
+		Query shared = new Query(Criteria.where(FederationIdsMongoEventListener.FEDERATION_IDS).is(federationId));
+		if(criteria != null)
+			shared.addCriteria(criteria);
+
+		Set<String> aggregationIds = findIds(shared);
+		if(aggregationIds.isEmpty())
+			return aggregationIds;
+
+		if(!isFieldName(federationId)) {
+			unshareEach(aggregationIds, federationId);
+			return aggregationIds;
+		}
+
+		mongoTemplate.updateMulti(new Query(Criteria.where(ID).in(aggregationIds)),
+				new Update().unset(FEDERATED_RESOURCE_INFO_MAP + federationId)
+						.unset(SHARING_INFORMATION + federationId)
+						.pull(FederationIdsMongoEventListener.FEDERATION_IDS, federationId),
+				FederatedResource.class);
+
+		//delete if unshared from all federations
+		mongoTemplate.remove(new Query(Criteria.where(ID).in(aggregationIds)
+				.and(FederationIdsMongoEventListener.FEDERATION_IDS).size(0)), FederatedResource.class);
+
+		return aggregationIds;
+	}
+
+	private void unshareEach(Set<String> aggregationIds, String federationId) {
+		for(FederatedResource fedRes : mongoTemplate.find(new Query(Criteria.where(ID).in(aggregationIds)), FederatedResource.class)) {
+			fedRes.unshareFromFederation(federationId);
+			//delete if unshared from all federations
+			if(fedRes.getFederatedResourceInfoMap().isEmpty())
+				mongoTemplate.remove(fedRes);
+			else
+				mongoTemplate.save(fedRes);
+		}
+	}
+
+	/**
+	 * Method checks if the given federationId can be used as a single field name in an update path.
+	 *
+	 * @param federationId
+	 * @return
+	 */
+	static boolean isFieldName(String federationId) {
+		return !federationId.isEmpty() && !federationId.contains(".") && !federationId.startsWith("$");
+	}
+
+	private Set<String> findIds(Query query) {
+		//only ids of matching documents are fetched
+		Set<String> aggregationIds = new HashSet<>();
+		try (DBCursor cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(FederatedResource.class))
+				.find(query.getQueryObject(), new BasicDBObject(ID, 1))) {
+			for(DBObject dbo : cursor)
+				aggregationIds.add((String) dbo.get(ID));
+		}
+		return aggregationIds;
+	}
+}
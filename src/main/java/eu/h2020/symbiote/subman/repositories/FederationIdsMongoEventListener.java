@@ -0,0 +1,38 @@
+package eu.h2020.symbiote.subman.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+
+/**
+ * Federation ids of a federated resource are the keys of its federatedResourceInfoMap, which cannot be indexed
+ * in MongoDB. This listener stores them as an additional federationIds array in every saved FederatedResource
+ * document, so that federated resources can be queried by federation using a multikey index.
+ */
+@Component
+public class FederationIdsMongoEventListener extends AbstractMongoEventListener<FederatedResource> {
+
+	public static final String FEDERATION_IDS = "federationIds";
+
+	@Override
+	public void onBeforeSave(BeforeSaveEvent<FederatedResource> event) {
+		event.getDBObject().put(FEDERATION_IDS, federationIds(event.getSource()));
+	}
+
+	/**
+	 * Returns ids of all federations where the given federated resource is shared.
+	 * 
+	 * @param fedRes
+	 * @return
+	 */
+	public static List<String> federationIds(FederatedResource fedRes) {
+		if(fedRes.getFederatedResourceInfoMap() == null)
+			return new ArrayList<>();
+		return new ArrayList<>(fedRes.getFederatedResourceInfoMap().keySet());
+	}
+}
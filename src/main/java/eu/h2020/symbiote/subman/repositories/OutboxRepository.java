@@ -0,0 +1,29 @@
+package eu.h2020.symbiote.subman.repositories;
+
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import eu.h2020.symbiote.subman.outbound.OutboxEntry;
+
+/**
+ * MongoDB repository interface for OutboxEntry objects providing CRUD operations.
+ */
+public interface OutboxRepository extends MongoRepository<OutboxEntry, String> {
+
+	/**
+	 * Finds the oldest pending entry of the platform with the given id.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	OutboxEntry findFirstByPlatformIdOrderByIdAsc(String platformId);
+
+	/**
+	 * Finds all pending entries of the platform with the given id.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	List<OutboxEntry> findByPlatformId(String platformId);
+}
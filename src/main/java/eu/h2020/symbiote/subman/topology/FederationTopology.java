@@ -0,0 +1,144 @@
+package eu.h2020.symbiote.subman.topology;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.model.mim.Federation;
+import eu.h2020.symbiote.model.mim.FederationMember;
+import eu.h2020.symbiote.subman.repositories.FederationRepository;
+
+/**
+ * Federations of this platform, and platforms federated with it. Topology is kept in an immutable
+ * snapshot, that is replaced on each federation event. Readers use the current snapshot without locking,
+ * and can take it once to get a consistent view over several reads. Updates are serialized.
+ * Topology is built from the stored federations on startup, so it always matches the federation repository.
+ */
+@Component
+public class FederationTopology {
+
+	private static final Logger logger = LoggerFactory.getLogger(FederationTopology.class);
+
+	private final String platformId;
+
+	private volatile TopologySnapshot snapshot = TopologySnapshot.EMPTY;
+
+	@Autowired
+	public FederationTopology(FederationRepository fedRepo, @Value("${platform.id}") String platformId) {
+		this.platformId = platformId;
+
+		//initializing topology to current situation in DB (required to run properly on restart)
+		Map<String, Map<String, String>> federations = new LinkedHashMap<>();
+		for (Federation federation : fedRepo.findAll()) {
+			Map<String, String> members = members(federation);
+			if (members.containsKey(platformId))
+				federations.put(federation.getId(), members);
+		}
+		snapshot = TopologySnapshot.of(platformId, federations);
+		logger.debug("Federation topology initialized: " + snapshot);
+	}
+
+	/**
+	 * Method returns the current topology snapshot.
+	 * 
+	 * @return
+	 */
+	public TopologySnapshot current() {
+		return snapshot;
+	}
+
+	/**
+	 * Method updates topology with the given created or changed federation.
+	 * 
+	 * @param federation
+	 * @return snapshot before the update
+	 */
+	public synchronized TopologySnapshot federationSaved(Federation federation) {
+		TopologySnapshot previous = snapshot;
+		Map<String, Map<String, String>> federations = new LinkedHashMap<>(previous.getFederations());
+		federations.remove(federation.getId());
+		Map<String, String> members = members(federation);
+		if (members.containsKey(platformId))
+			federations.put(federation.getId(), members);
+		snapshot = TopologySnapshot.of(platformId, federations);
+		return previous;
+	}
+
+	/**
+	 * Method removes the federation with the given id from topology.
+	 * 
+	 * @param federationId
+	 * @return snapshot before the update
+	 */
+	public synchronized TopologySnapshot federationDeleted(String federationId) {
+		TopologySnapshot previous = snapshot;
+		if (previous.getFederations().containsKey(federationId)) {
+			Map<String, Map<String, String>> federations = new LinkedHashMap<>(previous.getFederations());
+			federations.remove(federationId);
+			snapshot = TopologySnapshot.of(platformId, federations);
+		}
+		return previous;
+	}
+
+	/**
+	 * Method removes all federations from topology.
+	 */
+	public synchronized void clear() {
+		snapshot = TopologySnapshot.EMPTY;
+	}
+
+	/**
+	 * Method returns ids of all platforms that have at least one common federation with this platform.
+	 * 
+	 * @return
+	 */
+	public Set<String> getPeers() {
+		return snapshot.getPeers();
+	}
+
+	/**
+	 * Method checks if the platform with the given id has at least one common federation with this platform.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	public boolean isPeer(String platformId) {
+		return snapshot.isPeer(platformId);
+	}
+
+	/**
+	 * Method returns ids of federations common to this platform and the platform with the given id.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	public Set<String> getCommonFederations(String platformId) {
+		return snapshot.getCommonFederations(platformId);
+	}
+
+	/**
+	 * Method returns InterworkingService URL of the given federated platform, or null if it is not federated.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	public String getAddress(String platformId) {
+		return snapshot.getAddress(platformId);
+	}
+
+	private static Map<String, String> members(Federation federation) {
+		if (federation.getMembers() == null)
+			return Collections.emptyMap();
+		Map<String, String> members = new LinkedHashMap<>();
+		for (FederationMember member : federation.getMembers())
+			members.put(member.getPlatformId(), member.getInterworkingServiceURL());
+		return Collections.unmodifiableMap(members);
+	}
+}
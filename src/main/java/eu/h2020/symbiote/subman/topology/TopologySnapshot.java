@@ -0,0 +1,133 @@
+package eu.h2020.symbiote.subman.topology;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of federations that contain this platform. For each federation it keeps its members
+ * with their InterworkingService URLs, and for each federated platform the federations it has in common
+ * with this platform and its URL. Snapshot is never modified, so it can be read by any number of threads.
+ */
+public final class TopologySnapshot {
+
+	static final TopologySnapshot EMPTY = of(null, Collections.<String, Map<String, String>>emptyMap());
+
+	//<federationId, <memberId, interworkingServiceURL>>, in order of federation updates
+	private final Map<String, Map<String, String>> federations;
+	//<platformId, common federationIds>
+	private final Map<String, Set<String>> commonFederations;
+	//<platformId, interworkingServiceURL>
+	private final Map<String, String> addresses;
+
+	private TopologySnapshot(Map<String, Map<String, String>> federations, Map<String, Set<String>> commonFederations,
+			Map<String, String> addresses) {
+		this.federations = federations;
+		this.commonFederations = commonFederations;
+		this.addresses = addresses;
+	}
+
+	/**
+	 * Method builds the snapshot of the given federations of the platform with the given id.
+	 * If a platform is in many federations, its URL is taken from the last federation.
+	 * 
+	 * @param platformId
+	 * @param federations <federationId, <memberId, interworkingServiceURL>>, member maps must not be modified
+	 * @return
+	 */
+	static TopologySnapshot of(String platformId, Map<String, Map<String, String>> federations) {
+		Map<String, Set<String>> commonFederations = new HashMap<>();
+		Map<String, String> addresses = new HashMap<>();
+		for (Map.Entry<String, Map<String, String>> federation : federations.entrySet()) {
+			for (Map.Entry<String, String> member : federation.getValue().entrySet()) {
+				if (member.getKey().equals(platformId))
+					continue;
+				commonFederations.computeIfAbsent(member.getKey(), k -> new HashSet<>()).add(federation.getKey());
+				addresses.put(member.getKey(), member.getValue());
+			}
+		}
+		for (Map.Entry<String, Set<String>> entry : commonFederations.entrySet())
+			entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+
+		return new TopologySnapshot(Collections.unmodifiableMap(new LinkedHashMap<>(federations)),
+				Collections.unmodifiableMap(commonFederations), Collections.unmodifiableMap(addresses));
+	}
+
+	/**
+	 * Method returns federations containing this platform, with their members and their InterworkingService URLs.
+	 * 
+	 * @return <federationId, <memberId, interworkingServiceURL>>
+	 */
+	public Map<String, Map<String, String>> getFederations() {
+		return federations;
+	}
+
+	/**
+	 * Method returns ids of all members of the given federation, including this platform.
+	 * Empty set is returned if the federation does not contain this platform.
+	 * 
+	 * @param federationId
+	 * @return
+	 */
+	public Set<String> getMembers(String federationId) {
+		Map<String, String> members = federations.get(federationId);
+		return members == null ? Collections.<String>emptySet() : members.keySet();
+	}
+
+	/**
+	 * Method returns ids of all platforms that have at least one common federation with this platform.
+	 * 
+	 * @return
+	 */
+	public Set<String> getPeers() {
+		return commonFederations.keySet();
+	}
+
+	/**
+	 * Method checks if the platform with the given id has at least one common federation with this platform.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	public boolean isPeer(String platformId) {
+		return commonFederations.containsKey(platformId);
+	}
+
+	/**
+	 * Method returns ids of federations common to this platform and the platform with the given id.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	public Set<String> getCommonFederations(String platformId) {
+		Set<String> federationIds = commonFederations.get(platformId);
+		return federationIds == null ? Collections.<String>emptySet() : federationIds;
+	}
+
+	/**
+	 * Method returns InterworkingService URL of the given federated platform, or null if it is not federated.
+	 * 
+	 * @param platformId
+	 * @return
+	 */
+	public String getAddress(String platformId) {
+		return addresses.get(platformId);
+	}
+
+	/**
+	 * Method returns InterworkingService URLs of all federated platforms.
+	 * 
+	 * @return <platformId, interworkingServiceURL>
+	 */
+	public Map<String, String> getAddresses() {
+		return addresses;
+	}
+
+	@Override
+	public String toString() {
+		return "TopologySnapshot [commonFederations=" + commonFederations + ", addresses=" + addresses + "]";
+	}
+}
@@ -4,8 +4,12 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,11 +17,11 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.rabbit.support.CorrelationData;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import eu.h2020.symbiote.subman.messaging.RabbitManager;
+import eu.h2020.symbiote.subman.messaging.RpcClient;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RabbitManagerTest {
@@ -25,6 +29,9 @@ public class RabbitManagerTest {
 	@Mock
 	RabbitTemplate rabbitTemplate;
 	
+	@Mock
+	RpcClient rpcClient;
+	
 	@Autowired
 	@InjectMocks
 	RabbitManager rabbitManager;
@@ -38,12 +45,17 @@ public class RabbitManagerTest {
 	
 	@Test
 	public void testSendRpcMessage(){
-		when(rabbitTemplate.convertSendAndReceive(any(String.class), any(String.class), any(Object.class),
-				any(CorrelationData.class))).thenReturn(null);
+		when(rpcClient.call(any(String.class), any(String.class), any(Object.class), anyLong()))
+				.thenReturn(CompletableFuture.completedFuture(null));
+		assertNull(rabbitManager.sendRpcMessage("", "", new Object()));
+		
+		CompletableFuture<Object> timedOut = new CompletableFuture<>();
+		timedOut.completeExceptionally(new TimeoutException());
+		when(rpcClient.call(any(String.class), any(String.class), any(Object.class), anyLong())).thenReturn(timedOut);
 		assertNull(rabbitManager.sendRpcMessage("", "", new Object()));
 		
-		when(rabbitTemplate.convertSendAndReceive(any(String.class), any(String.class), any(Object.class),
-				any(CorrelationData.class))).thenReturn("message received");
+		when(rpcClient.call(any(String.class), any(String.class), any(Object.class), anyLong()))
+				.thenReturn(CompletableFuture.completedFuture("message received"));
 		assertNotNull(rabbitManager.sendRpcMessage("", "", new Object()));	
 	}
 	
@@ -1,5 +1,6 @@
 package eu.h2020.symbiote.subman;
 
+import eu.h2020.symbiote.subman.controller.CredentialManager;
 import eu.h2020.symbiote.subman.controller.SecurityManager;
 import org.mockito.Mockito;
 import org.springframework.context.annotation.Bean;
@@ -20,4 +21,10 @@ public class TestConfiguration {
     public SecurityManager securityManager() {
         return Mockito.mock(SecurityManager.class);
     }
+
+    @Bean
+    @Primary
+    public CredentialManager credentialManager() {
+        return Mockito.mock(CredentialManager.class);
+    }
 }
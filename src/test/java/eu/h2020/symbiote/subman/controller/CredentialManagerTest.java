@@ -0,0 +1,87 @@
+package eu.h2020.symbiote.subman.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.h2020.symbiote.security.commons.exceptions.custom.SecurityHandlerException;
+import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.security.handler.IComponentSecurityHandler;
+
+public class CredentialManagerTest {
+
+	IComponentSecurityHandler securityHandler;
+	SecurityRequest securityRequest;
+
+	CredentialManager credentialManager;
+
+	@Before
+	public void setUp() {
+		securityHandler = mock(IComponentSecurityHandler.class);
+		securityRequest = new SecurityRequest("guestTokenDummy");
+	}
+
+	@After
+	public void tearDown() {
+		if (credentialManager != null)
+			credentialManager.shutdown();
+	}
+
+	@Test
+	public void backoff() {
+		credentialManager = new CredentialManager(null, 10000, 30000, 1000, 15000);
+		assertEquals(1000, credentialManager.backoff(1));
+		assertEquals(4000, credentialManager.backoff(3));
+		assertEquals(15000, credentialManager.backoff(5));
+		assertEquals(15000, credentialManager.backoff(100));
+		assertNull(credentialManager.getSecurityRequest());
+	}
+
+	@Test
+	public void generatedInBackground() throws Exception {
+		when(securityHandler.generateSecurityRequestUsingLocalCredentials()).thenReturn(securityRequest);
+		credentialManager = new CredentialManager(securityHandler, 10000, 30000, 10, 100);
+
+		assertSame(securityRequest, awaitSecurityRequest());
+		verify(securityHandler, times(1)).generateSecurityRequestUsingLocalCredentials();
+	}
+
+	@Test
+	public void failuresRetriedWithBackoff() throws Exception {
+		when(securityHandler.generateSecurityRequestUsingLocalCredentials())
+				.thenThrow(new SecurityHandlerException("AAM unavailable"))
+				.thenThrow(new SecurityHandlerException("AAM unavailable"))
+				.thenReturn(securityRequest);
+		credentialManager = new CredentialManager(securityHandler, 10000, 30000, 10, 100);
+
+		verify(securityHandler, timeout(2000).times(3)).generateSecurityRequestUsingLocalCredentials();
+		assertSame(securityRequest, awaitSecurityRequest());
+	}
+
+	@Test
+	public void expiredRequestNotUsed() throws Exception {
+		when(securityHandler.generateSecurityRequestUsingLocalCredentials()).thenReturn(securityRequest);
+		credentialManager = new CredentialManager(securityHandler, 10000, 50, 10, 100);
+
+		assertSame(securityRequest, awaitSecurityRequest());
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertNull(credentialManager.getSecurityRequest());
+	}
+
+	private SecurityRequest awaitSecurityRequest() throws InterruptedException {
+		for (int i = 0; i < 200 && credentialManager.getSecurityRequest() == null; i++)
+			TimeUnit.MILLISECONDS.sleep(10);
+		return credentialManager.getSecurityRequest();
+	}
+}
@@ -0,0 +1,78 @@
+package eu.h2020.symbiote.subman.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+public class InboundRequestExecutorTest {
+
+	InboundRequestExecutor executor = new InboundRequestExecutor(1, 1, 1, 1, 10);
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void overloadedExecutorRejects() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<ResponseEntity<?>> running = executor.submitResourceRequest(() -> {
+			started.countDown();
+			await(release);
+			return new ResponseEntity<>(HttpStatus.OK);
+		});
+		started.await();
+		CompletableFuture<ResponseEntity<?>> queued = executor.submitResourceRequest(() -> new ResponseEntity<>(HttpStatus.OK));
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE,
+				executor.submitResourceRequest(() -> new ResponseEntity<>(HttpStatus.OK)).join().getStatusCode());
+		//subscription requests have their own executor
+		assertEquals(HttpStatus.OK,
+				executor.submitSubscriptionRequest(() -> new ResponseEntity<>(HttpStatus.OK)).join().getStatusCode());
+
+		release.countDown();
+		assertEquals(HttpStatus.OK, running.join().getStatusCode());
+		assertEquals(HttpStatus.OK, queued.join().getStatusCode());
+	}
+
+	@Test
+	public void requestsDrainedOnShutdown() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+
+		CompletableFuture<ResponseEntity<?>> running = executor.submitResourceRequest(() -> {
+			started.countDown();
+			try {
+				TimeUnit.MILLISECONDS.sleep(200);
+			} catch (InterruptedException e) {
+				return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+			}
+			return new ResponseEntity<>(HttpStatus.OK);
+		});
+		CompletableFuture<ResponseEntity<?>> queued = executor.submitResourceRequest(() -> new ResponseEntity<>(HttpStatus.OK));
+		started.await();
+
+		executor.shutdown();
+		assertTrue(running.isDone());
+		assertTrue(queued.isDone());
+		assertEquals(HttpStatus.OK, running.join().getStatusCode());
+		assertEquals(HttpStatus.OK, queued.join().getStatusCode());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -36,9 +36,11 @@ import eu.h2020.symbiote.model.cim.Resource;
 import eu.h2020.symbiote.model.cim.Service;
 import eu.h2020.symbiote.model.mim.Federation;
 import eu.h2020.symbiote.model.mim.FederationMember;
+import eu.h2020.symbiote.subman.matching.SubscriptionIndex;
 import eu.h2020.symbiote.subman.repositories.FederatedResourceRepository;
 import eu.h2020.symbiote.subman.repositories.FederationRepository;
 import eu.h2020.symbiote.subman.repositories.SubscriptionRepository;
+import eu.h2020.symbiote.subman.topology.FederationTopology;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
@@ -66,15 +68,24 @@ public class RestInterfaceSubscriptionTest {
 	@Autowired
 	RestInterface restInterface;
 	
+	@Autowired
+	FederationTopology federationTopology;
+	
+	@Autowired
+	SubscriptionIndex subscriptionIndex;
+	
 	 @Before
 	 public void setUp() {
 		 
 		 subRepo.deleteAll();
 		 fedRepo.deleteAll();
+		 federationTopology.clear();
+		 subscriptionIndex.clear();
 		 
 		 Subscription s = new Subscription();
 		 s.setPlatformId(thisPlatformId);
 		 subRepo.save(s);
+		 subscriptionIndex.put(s);
 	 }
 	 
 	@Test
@@ -116,7 +127,7 @@ public class RestInterfaceSubscriptionTest {
 		s.setPlatformId("sender");
 		s.setLocations(Arrays.asList("Split"));
 		
-		assertEquals(new ResponseEntity<>("Received JSON message cannot be mapped to Subscription!", HttpStatus.BAD_REQUEST),restInterface.foreignSubscriptionDefinition(new HttpHeaders(), "dasdas"+om.writeValueAsString(s)+"sdsfsfs"));
+		assertEquals(new ResponseEntity<>("Received JSON message cannot be mapped to Subscription!", HttpStatus.BAD_REQUEST),restInterface.foreignSubscriptionDefinition(new HttpHeaders(), "dasdas"+om.writeValueAsString(s)+"sdsfsfs").join());
 	}
 	
 	@Test
@@ -142,8 +153,10 @@ public class RestInterfaceSubscriptionTest {
 		
 		fedRepo.save(federation1);
 		fedRepo.save(federation2);
+		federationTopology.federationSaved(federation1);
+		federationTopology.federationSaved(federation2);
 		TimeUnit.MILLISECONDS.sleep(2000);
-		assertEquals(new ResponseEntity<>("Sender platform and receiving platfrom are not federated!", HttpStatus.BAD_REQUEST),restInterface.foreignSubscriptionDefinition(new HttpHeaders(), om.writeValueAsString(s)));
+		assertEquals(new ResponseEntity<>("Sender platform and receiving platfrom are not federated!", HttpStatus.BAD_REQUEST),restInterface.foreignSubscriptionDefinition(new HttpHeaders(), om.writeValueAsString(s)).join());
 	}
 	
 	@Test
@@ -165,10 +178,11 @@ public class RestInterfaceSubscriptionTest {
 		federation1.setMembers(Arrays.asList(fm1,fm2));
 		
 		fedRepo.save(federation1);
+		federationTopology.federationSaved(federation1);
 		
 		when(securityManager.generateServiceResponse()).thenReturn(new ResponseEntity<>(HttpStatus.OK));
 		when(securityManager.checkRequest(any(HttpHeaders.class),any(String.class),any(String.class))).thenReturn(new ResponseEntity<>(HttpStatus.OK));
-		assertEquals(HttpStatus.OK,restInterface.foreignSubscriptionDefinition(new HttpHeaders(), om.writeValueAsString(s)).getStatusCode());
+		assertEquals(HttpStatus.OK,restInterface.foreignSubscriptionDefinition(new HttpHeaders(), om.writeValueAsString(s)).join().getStatusCode());
 		assertNotNull(subRepo.findOne("sender"));
 	}
 
@@ -2,19 +2,30 @@ package eu.h2020.symbiote.subman.controller;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.http.HttpHeaders;
@@ -37,6 +48,7 @@ import eu.h2020.symbiote.security.commons.SecurityConstants;
 import eu.h2020.symbiote.subman.messaging.RabbitManager;
 import eu.h2020.symbiote.subman.repositories.FederatedResourceRepository;
 import eu.h2020.symbiote.subman.repositories.FederationRepository;
+import eu.h2020.symbiote.subman.topology.FederationTopology;
 
 
 @RunWith(MockitoJUnitRunner.class)
@@ -56,7 +68,8 @@ public class RestInterfaceTest {
 	@Mock
 	FederatedResourceRepository fedResRepo;
 	
-	@InjectMocks
+	FederationTopology federationTopology;
+	
 	RestInterface restInterface;
 	
 	static ResourcesAddedOrUpdatedMessage  toSend;
@@ -69,6 +82,12 @@ public class RestInterfaceTest {
     @Before
     public void setUp() {
     	
+    	when(rabbitManager.sendAsyncMessageJSON(any(String.class), any(String.class), any(Object.class)))
+    			.thenReturn(CompletableFuture.completedFuture(null));
+    	federationTopology = new FederationTopology(fedRepo, "home");
+    	restInterface = new RestInterface(rabbitManager, securityManager, fedResRepo, null, null, federationTopology,
+    			new InboundRequestExecutor(1, 10, 1, 10, 10), 500, 1024);
+    	
     	resDummy = new Resource();
 		resDummy.setInterworkingServiceURL("dummyUrl");
 		dummy = new CloudResource();
@@ -85,117 +104,213 @@ public class RestInterfaceTest {
 		Set<String> fede = new HashSet<>(Arrays.asList("fr1@a@fed1", "fr1@a@fed2"));
 		deleted = new ResourcesDeletedMessage(fede);
 		
-		FederationMember fm = new FederationMember();
-		fm.setPlatformId("p1");
-		f = new Federation();
-		f.setMembers(Arrays.asList(fm));
+		f = federation("fed1", "p1");
         
     }
 	
 	@Test
 	public void resourcesAddedOrUpdatedBadRequestMapperFailure(){
-		assertEquals(new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesAddedOrUpdatedMessage!",HttpStatus.BAD_REQUEST), restInterface.resourcesAddedOrUpdated(new HttpHeaders(), "sss"));
+		assertEquals(new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesAddedOrUpdatedMessage!",HttpStatus.BAD_REQUEST), restInterface.resourcesAddedOrUpdated(new HttpHeaders(), body("sss")).join());
 	}
 	
 	@Test
 	public void resourcesDeletedBadRequestMapperFailure(){
-		assertEquals(new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesDeletedMessage!", HttpStatus.BAD_REQUEST), restInterface.resourcesDeleted(new HttpHeaders(), "sss"));
+		assertEquals(new ResponseEntity<>("Received JSON message cannot be mapped to ResourcesDeletedMessage!", HttpStatus.BAD_REQUEST), restInterface.resourcesDeleted(new HttpHeaders(), body("sss")).join());
 	}
 	
 	@Test
 	public void resourcesAddedOrUpdatedBadRequestConditionFailure() throws JsonProcessingException{
-		when(fedRepo.findOne("fed1")).thenReturn(null);
-		assertEquals(new ResponseEntity<>("Sender not allowed to share all received federated resources, because sender platform is not member of all federations where resource is being shared!", HttpStatus.BAD_REQUEST), restInterface.resourcesAddedOrUpdated(new HttpHeaders(), om.writeValueAsString(toSend)));
+		authorized();
+		assertEquals(new ResponseEntity<>("Sender not allowed to share all received federated resources, because sender platform is not member of all federations where resource is being shared!", HttpStatus.BAD_REQUEST), restInterface.resourcesAddedOrUpdated(new HttpHeaders(), body(om.writeValueAsString(toSend))).join());
 	}
 	
 	@Test
 	public void resourcesDeletedBadRequestConditionFailure() throws JsonProcessingException{
-		when(fedResRepo.findOne(any(String.class))).thenReturn(null);
+		authorized();
+		when(fedResRepo.findExistingIds(any(Collection.class))).thenReturn(Collections.emptySet());
 		assertEquals(new ResponseEntity<>("The platform that shared the resource is not in the federation",
-				HttpStatus.BAD_REQUEST), restInterface.resourcesDeleted(new HttpHeaders(), om.writeValueAsString(deleted)));
+				HttpStatus.BAD_REQUEST), restInterface.resourcesDeleted(new HttpHeaders(), body(om.writeValueAsString(deleted))).join());
 	}
 	
 	@Test
 	public void checkPlatformIdInFederationsCondition1Test(){
-		when(fedRepo.findOne("fed1")).thenReturn(null);
 		assertEquals(false, restInterface.checkPlatformIdInFederationsCondition1("p1", toSend));
 
-		when(fedRepo.findOne("fed1")).thenReturn(new Federation());
+		Federation noMembers = new Federation();
+		noMembers.setId("fed1");
+		federationTopology.federationSaved(noMembers);
+		assertEquals(false, restInterface.checkPlatformIdInFederationsCondition1("p1", toSend));
+		
+		federationTopology.federationSaved(federation("fed1", "p1"));
 		assertEquals(false, restInterface.checkPlatformIdInFederationsCondition1("p1", toSend));
 		
-		when(fedRepo.findOne("fed1")).thenReturn(f);
+		federationTopology.federationSaved(federation("fed1", "home", "p1"));
 		assertEquals(true, restInterface.checkPlatformIdInFederationsCondition1("p1", toSend));
 	}
 	
 	@Test
 	public void checkPlatformIdInFederationsCondition2Test(){
-		when(fedResRepo.findOne(any(String.class))).thenReturn(null);
+		when(fedResRepo.findExistingIds(any(Collection.class))).thenReturn(Collections.singleton("fr1@a"));
 		assertEquals(false, restInterface.checkPlatformIdInFederationsCondition2(deleted));
 
-		when(fedResRepo.findOne(any(String.class))).thenReturn(fr);
-		when(fedRepo.findOne(any(String.class))).thenReturn(null);
+		federationTopology.federationSaved(federation("fed1", "home", "p1"));
+		federationTopology.federationSaved(federation("fed2", "home", "p1"));
 		assertEquals(false, restInterface.checkPlatformIdInFederationsCondition2(deleted));
-
-		when(fedResRepo.findOne(any(String.class))).thenReturn(fr);
-		when(fedRepo.findOne(any(String.class))).thenReturn(f);
+		
+		federationTopology.federationSaved(federation("fed1", "home", "a"));
+		federationTopology.federationSaved(federation("fed2", "home"));
 		assertEquals(false, restInterface.checkPlatformIdInFederationsCondition2(deleted));
 		
-		FederationMember fm = new FederationMember();
-		fm.setPlatformId("a");
-		f.setMembers(Arrays.asList(fm));
-		when(fedResRepo.findOne(any(String.class))).thenReturn(fr);
-		when(fedRepo.findOne(any(String.class))).thenReturn(f);
+		federationTopology.federationSaved(federation("fed2", "home", "a"));
 		assertEquals(true, restInterface.checkPlatformIdInFederationsCondition2(deleted));
+
+		when(fedResRepo.findExistingIds(any(Collection.class))).thenReturn(Collections.emptySet());
+		assertEquals(false, restInterface.checkPlatformIdInFederationsCondition2(deleted));
 	}
 	
 	@Test
 	public void resourcesAddedOrUpdatedUnauthorized() throws JsonProcessingException{
-		when(fedRepo.findOne("fed1")).thenReturn(f);
 		fr = new FederatedResource("a@p1",dummy, (double) 4);
 		toSend = new ResourcesAddedOrUpdatedMessage(Arrays.asList(fr));
 		
+		//federations are not checked before authorization
 		when(securityManager.generateServiceResponse()).thenReturn(new ResponseEntity<>(HttpStatus.OK));
 		when(securityManager.checkRequest(any(HttpHeaders.class),any(String.class),any(String.class))).thenReturn(new ResponseEntity<>(HttpStatus.UNAUTHORIZED));
-		assertEquals(new ResponseEntity<>(HttpStatus.UNAUTHORIZED), restInterface.resourcesAddedOrUpdated(new HttpHeaders(), om.writeValueAsString(toSend)));
+		assertEquals(new ResponseEntity<>(HttpStatus.UNAUTHORIZED), restInterface.resourcesAddedOrUpdated(new HttpHeaders(), body(om.writeValueAsString(toSend))).join());
+		verify(fedResRepo, never()).bulkSave(any(List.class));
 	}
 	
 	@Test
 	public void resourcesAddedOrUpdatedAuthorizedOk() throws JsonProcessingException{
-		when(fedRepo.findOne("fed1")).thenReturn(f);
+		federationTopology.federationSaved(federation("fed1", "home", "p1"));
 		fr = new FederatedResource("p1sas@p1", dummy, (double) 4);
 		toSend = new ResourcesAddedOrUpdatedMessage(Arrays.asList(fr));
 
-		when(securityManager.generateServiceResponse()).thenReturn(new ResponseEntity<>(HttpStatus.OK));
-		when(securityManager.checkRequest(any(HttpHeaders.class),any(String.class),any(String.class))).thenReturn(new ResponseEntity<>(HttpStatus.OK));
+		authorized();
 		HttpHeaders headers = new HttpHeaders();
 		headers.put(SecurityConstants.SECURITY_RESPONSE_HEADER, Collections.singletonList(null));
-		assertEquals(new ResponseEntity<>(headers, HttpStatus.OK),restInterface.resourcesAddedOrUpdated(new HttpHeaders(), om.writeValueAsString(toSend)));
+		assertEquals(new ResponseEntity<>(headers, HttpStatus.OK),restInterface.resourcesAddedOrUpdated(new HttpHeaders(), body(om.writeValueAsString(toSend))).join());
 	}
 	
 	@Test
 	public void resourcesDeletedUnauthorized() throws JsonProcessingException{
-		FederationMember fm = new FederationMember();
-		fm.setPlatformId("a");
-		f.setMembers(Arrays.asList(fm));
-		when(fedResRepo.findOne(any(String.class))).thenReturn(fr);
-		when(fedRepo.findOne(any(String.class))).thenReturn(f);
-		
 		when(securityManager.generateServiceResponse()).thenReturn(new ResponseEntity<>(HttpStatus.UNAUTHORIZED));
-		assertEquals(new ResponseEntity<>(HttpStatus.UNAUTHORIZED), restInterface.resourcesDeleted(new HttpHeaders(), om.writeValueAsString(deleted)));
+		assertEquals(new ResponseEntity<>(HttpStatus.UNAUTHORIZED), restInterface.resourcesDeleted(new HttpHeaders(), body(om.writeValueAsString(deleted))).join());
+		verify(fedResRepo, never()).findExistingIds(any(Collection.class));
 	}
 	
 	@Test
 	public void resourcesDeletedAuthorizedOk() throws JsonProcessingException{
-		FederationMember fm = new FederationMember();
-		fm.setPlatformId("a");
-		f.setMembers(Arrays.asList(fm));
-		when(fedResRepo.findOne(any(String.class))).thenReturn(fr);
-		when(fedRepo.findOne(any(String.class))).thenReturn(f);
+		when(fedResRepo.findExistingIds(any(Collection.class))).thenReturn(Collections.singleton("fr1@a"));
+		federationTopology.federationSaved(federation("fed1", "home", "a"));
+		federationTopology.federationSaved(federation("fed2", "home", "a"));
 		
-		when(securityManager.generateServiceResponse()).thenReturn(new ResponseEntity<>(HttpStatus.OK));
-		when(securityManager.checkRequest(any(HttpHeaders.class),any(String.class),any(String.class))).thenReturn(new ResponseEntity<>(HttpStatus.OK));
+		authorized();
 		HttpHeaders headers = new HttpHeaders();
 		headers.put(SecurityConstants.SECURITY_RESPONSE_HEADER, Collections.singletonList(null));
-		assertEquals(new ResponseEntity<>(headers, HttpStatus.OK), restInterface.resourcesDeleted(new HttpHeaders(), om.writeValueAsString(deleted)));
+		assertEquals(new ResponseEntity<>(headers, HttpStatus.OK), restInterface.resourcesDeleted(new HttpHeaders(), body(om.writeValueAsString(deleted))).join());
+	}
+	
+	@Test
+	public void resourcesAddedOrUpdatedStoredPerChunk() throws JsonProcessingException{
+		restInterface = new RestInterface(rabbitManager, securityManager, fedResRepo, null, null, federationTopology,
+				new InboundRequestExecutor(1, 10, 1, 10, 10), 2, 1024);
+		federationTopology.federationSaved(federation("fed1", "home", "p1"));
+		FederatedResource a = federatedResource("a@p1", "fed1");
+		FederatedResource b = federatedResource("b@p1", "fed1");
+		FederatedResource c = federatedResource("c@p1", "fed1");
+		toSend = new ResourcesAddedOrUpdatedMessage(Arrays.asList(a, b, c));
+
+		authorized();
+		assertEquals(HttpStatus.OK, restInterface.resourcesAddedOrUpdated(new HttpHeaders(), body(om.writeValueAsString(toSend))).join().getStatusCode());
+		ArgumentCaptor<List> stored = ArgumentCaptor.forClass(List.class);
+		verify(fedResRepo, times(2)).bulkSave(stored.capture());
+		assertEquals(Arrays.asList("a@p1", "b@p1"), aggregationIds(stored.getAllValues().get(0)));
+		assertEquals(Arrays.asList("c@p1"), aggregationIds(stored.getAllValues().get(1)));
+		verify(rabbitManager, times(2)).sendAsyncMessageJSON(any(String.class), any(String.class), any(Object.class));
+	}
+	
+	@Test
+	public void resourcesAddedOrUpdatedLastChunkRejected() throws JsonProcessingException{
+		restInterface = new RestInterface(rabbitManager, securityManager, fedResRepo, null, null, federationTopology,
+				new InboundRequestExecutor(1, 10, 1, 10, 10), 1, 1024);
+		federationTopology.federationSaved(federation("fed1", "home", "p1"));
+		toSend = new ResourcesAddedOrUpdatedMessage(Arrays.asList(federatedResource("a@p1", "fed1"),
+				federatedResource("b@p1", "fed1"), federatedResource("c@p1", "fed2")));
+
+		authorized();
+		assertEquals(HttpStatus.BAD_REQUEST, restInterface.resourcesAddedOrUpdated(new HttpHeaders(), body(om.writeValueAsString(toSend))).join().getStatusCode());
+		//chunks validated before the rejected one are applied, rejected chunk is not
+		verify(fedResRepo, times(2)).bulkSave(any(List.class));
+		verify(rabbitManager, times(2)).sendAsyncMessageJSON(any(String.class), any(String.class), any(Object.class));
+	}
+	
+	@Test
+	public void resourcesDeletedLastChunkRejected() throws JsonProcessingException{
+		restInterface = new RestInterface(rabbitManager, securityManager, fedResRepo, null, null, federationTopology,
+				new InboundRequestExecutor(1, 10, 1, 10, 10), 1, 1024);
+		when(fedResRepo.findExistingIds(any(Collection.class))).thenReturn(Collections.singleton("fr1@a"));
+		federationTopology.federationSaved(federation("fed1", "home", "a"));
+		federationTopology.federationSaved(federation("fed2", "home", "a"));
+		federationTopology.federationSaved(federation("fed3", "home"));
+		//symbioteIds are read in the order of the message
+		String message = "{\"deletedFederatedResources\":[\"fr1@a@fed1\",\"fr1@a@fed2\",\"fr1@a@fed3\"]}";
+
+		authorized();
+		assertEquals(HttpStatus.BAD_REQUEST, restInterface.resourcesDeleted(new HttpHeaders(), body(message)).join().getStatusCode());
+		//chunks validated before the rejected one are applied, rejected chunk is not
+		verify(fedResRepo).unshareFromFederation(Collections.singleton("fr1@a"), "fed1");
+		verify(fedResRepo).unshareFromFederation(Collections.singleton("fr1@a"), "fed2");
+		verify(fedResRepo, never()).unshareFromFederation(any(Collection.class), eq("fed3"));
+		verify(rabbitManager, times(2)).sendAsyncMessageJSON(any(String.class), any(String.class), any(Object.class));
+	}
+	
+	@Test
+	public void resourcesAddedOrUpdatedNotForwarded() throws JsonProcessingException{
+		federationTopology.federationSaved(federation("fed1", "home", "p1"));
+		toSend = new ResourcesAddedOrUpdatedMessage(Arrays.asList(federatedResource("a@p1", "fed1")));
+		CompletableFuture<Void> notConfirmed = new CompletableFuture<>();
+		notConfirmed.completeExceptionally(new IllegalStateException("Publisher queue is full"));
+		when(rabbitManager.sendAsyncMessageJSON(any(String.class), any(String.class), any(Object.class))).thenReturn(notConfirmed);
+
+		authorized();
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, restInterface.resourcesAddedOrUpdated(new HttpHeaders(), body(om.writeValueAsString(toSend))).join().getStatusCode());
+	}
+	
+	private void authorized() {
+		when(securityManager.generateServiceResponse()).thenReturn(new ResponseEntity<>(HttpStatus.OK));
+		when(securityManager.checkRequest(any(HttpHeaders.class),any(String.class),any(String.class))).thenReturn(new ResponseEntity<>(HttpStatus.OK));
+	}
+	
+	private static List<String> aggregationIds(List<FederatedResource> resources) {
+		return resources.stream().map(FederatedResource::getAggregationId).collect(Collectors.toList());
+	}
+	
+	private static InputStream body(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static FederatedResource federatedResource(String aggregationId, String federationId) {
+		Resource resource = new Resource();
+		resource.setInterworkingServiceURL("dummyUrl");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(resource);
+		FederationInfoBean fib = new FederationInfoBean();
+		Map<String, ResourceSharingInformation> map = new HashMap<>();
+		map.put(federationId, null);
+		fib.setSharingInformation(map);
+		cloudResource.setFederationInfo(fib);
+		return new FederatedResource(aggregationId, cloudResource, (double) 4);
+	}
+	
+	private static Federation federation(String id, String... memberIds) {
+		Federation federation = new Federation();
+		federation.setId(id);
+		federation.setMembers(Arrays.stream(memberIds).map(memberId -> {
+			FederationMember member = new FederationMember();
+			member.setPlatformId(memberId);
+			return member;
+		}).collect(Collectors.toList()));
+		return federation;
 	}
 }
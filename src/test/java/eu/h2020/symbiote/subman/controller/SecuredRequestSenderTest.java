@@ -1,7 +1,14 @@
 package eu.h2020.symbiote.subman.controller;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,10 +18,18 @@ import java.util.Set;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -73,13 +88,45 @@ public class SecuredRequestSenderTest {
 	public void sendAddedOrUpdatedTest() throws JsonProcessingException{
 		
 		SecurityRequest sr= new SecurityRequest("guestTokenDummy");
-		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, SecuredRequestSender.sendSecuredRequest(sr, om.writeValueAsString(toSend), "localhost:8080".replaceAll("/+$", "") + "/subscriptionManager" + "/addOrUpdate").getStatusCode());
+		String url = "https://p1/subscriptionManager/addOrUpdate";
+		byte[] payload = om.writeValueAsBytes(toSend);
+		ResponseEntity<Object> response = new ResponseEntity<>("ok", HttpStatus.OK);
+		doReturn(response).when(restTemplate).exchange(eq(url), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+
+		assertSame(response, srs.sendSecuredRequest(sr, payload, url));
+
+		//payload is sent as is, with security headers of the securityRequest
+		ArgumentCaptor<HttpEntity> request = ArgumentCaptor.forClass(HttpEntity.class);
+		verify(restTemplate).exchange(eq(url), eq(HttpMethod.POST), request.capture(), eq(Object.class));
+		assertSame(payload, request.getValue().getBody());
+		HttpHeaders headers = request.getValue().getHeaders();
+		assertEquals(MediaType.APPLICATION_JSON, headers.getContentType());
+		for (Map.Entry<String, String> header : sr.getSecurityRequestHeaderParams().entrySet())
+			assertEquals(Arrays.asList(header.getValue()), headers.get(header.getKey()));
 	}
 	
 	@Test
 	public void sendDeletedTest() throws JsonProcessingException{
 		
 		SecurityRequest sr= new SecurityRequest("guestTokenDummy");
-		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, SecuredRequestSender.sendSecuredRequest(sr, om.writeValueAsString(deleted), "localhost:8080".replaceAll("/+$", "") + "/subscriptionManager" + "/delete").getStatusCode());
+		String url = "https://p1/subscriptionManager/delete";
+		doThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST, "Bad Request", "Received JSON message cannot be mapped!".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8))
+				.when(restTemplate).exchange(eq(url), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+
+		//status and body of the error response are kept
+		ResponseEntity<?> response = srs.sendSecuredRequest(sr, om.writeValueAsBytes(deleted), url);
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+		assertEquals("Received JSON message cannot be mapped!", response.getBody());
+	}
+	
+	@Test
+	public void sendFailedTest() throws JsonProcessingException{
+		
+		SecurityRequest sr= new SecurityRequest("guestTokenDummy");
+		String url = "https://p1/subscriptionManager/delete";
+		doThrow(new ResourceAccessException("Connection refused"))
+				.when(restTemplate).exchange(eq(url), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, srs.sendSecuredRequest(sr, om.writeValueAsBytes(deleted), url).getStatusCode());
 	}
 }
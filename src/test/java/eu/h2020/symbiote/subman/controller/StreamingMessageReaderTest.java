@@ -0,0 +1,57 @@
+package eu.h2020.symbiote.subman.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StreamingMessageReaderTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void readInChunks() throws IOException {
+		try (StreamingMessageReader<String> reader = new StreamingMessageReader<>(mapper,
+				body("{\"other\":{\"ids\":[\"x\"]},\"ids\":[\"a\",\"b\",\"c\"],\"last\":1}"), "ids", String.class)) {
+			assertEquals(Arrays.asList("a", "b"), reader.next(2));
+			assertEquals(Arrays.asList("c"), reader.next(2));
+			assertTrue(reader.next(2).isEmpty());
+		}
+	}
+
+	@Test
+	public void missingArray() throws IOException {
+		try (StreamingMessageReader<String> reader = new StreamingMessageReader<>(mapper, body("{\"other\":[1]}"), "ids", String.class)) {
+			assertTrue(reader.next(2).isEmpty());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void malformedMessage() throws IOException {
+		try (StreamingMessageReader<String> reader = new StreamingMessageReader<>(mapper, body("{\"ids\":[\"a\",\"b\""), "ids", String.class)) {
+			assertEquals(Arrays.asList("a"), reader.next(1));
+			reader.next(2);
+		}
+	}
+
+	@Test
+	public void payloadPreview() throws IOException {
+		PayloadPreviewInputStream payload = new PayloadPreviewInputStream(body("{\"ids\":[\"abc\"]}"), 8);
+		try (StreamingMessageReader<String> reader = new StreamingMessageReader<>(mapper, payload, "ids", String.class)) {
+			assertEquals(Arrays.asList("abc"), reader.next(10));
+		}
+		assertEquals("{\"ids\":[... (15 bytes)", payload.getPreview());
+	}
+
+	private static InputStream body(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+}
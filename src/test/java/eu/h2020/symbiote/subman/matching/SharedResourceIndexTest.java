@@ -0,0 +1,129 @@
+package eu.h2020.symbiote.subman.matching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.FederationInfoBean;
+import eu.h2020.symbiote.cloud.model.internal.Subscription;
+import eu.h2020.symbiote.model.cim.Location;
+import eu.h2020.symbiote.model.cim.Resource;
+import eu.h2020.symbiote.model.cim.Sensor;
+import eu.h2020.symbiote.model.cim.Service;
+import eu.h2020.symbiote.model.cim.SymbolicLocation;
+import eu.h2020.symbiote.subman.repositories.FederatedResourceRepository;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SharedResourceIndexTest {
+
+	@Mock
+	FederatedResourceRepository fedResRepo;
+
+	FederatedResource service;
+	FederatedResource sensor;
+
+	SharedResourceIndex index;
+
+	@Before
+	public void setUp() {
+		service = federatedResource("service@home", new Service(), "fed1", "fed2");
+
+		Sensor s = new Sensor();
+		Location location = new SymbolicLocation();
+		location.setName("Split");
+		s.setLocatedAt(location);
+		s.setObservesProperty(Arrays.asList("temperature"));
+		sensor = federatedResource("sensor@home", s, "fed2");
+
+		when(fedResRepo.findByPlatformId("home")).thenReturn(Arrays.asList(service, sensor));
+		index = new SharedResourceIndex(fedResRepo, "home");
+	}
+
+	@Test
+	public void findByFederations() {
+		Subscription subscription = new Subscription();
+
+		Map<String, Set<String>> found = index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed1"));
+		assertEquals(1, found.size());
+		assertEquals(new HashSet<>(Arrays.asList("fed1")), found.get("service@home"));
+
+		found = index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed1", "fed2", "fed3"));
+		assertEquals(2, found.size());
+		assertEquals(new HashSet<>(Arrays.asList("fed1", "fed2")), found.get("service@home"));
+		assertEquals(new HashSet<>(Arrays.asList("fed2")), found.get("sensor@home"));
+
+		assertTrue(index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed3")).isEmpty());
+	}
+
+	@Test
+	public void findBySubscription() {
+		Subscription subscription = new Subscription();
+		subscription.setObservedProperties(Arrays.asList("humidity", "temperature"));
+		assertEquals(new HashSet<>(Arrays.asList("sensor@home")),
+				index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed1", "fed2")).keySet());
+
+		subscription.setLocations(Arrays.asList("Zagreb"));
+		assertTrue(index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed1", "fed2")).isEmpty());
+
+		subscription = new Subscription();
+		subscription.getResourceType().put("sensor", false);
+		assertEquals(new HashSet<>(Arrays.asList("service@home")),
+				index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed1", "fed2")).keySet());
+	}
+
+	@Test
+	public void updatesAndForeignResources() {
+		Subscription subscription = new Subscription();
+
+		index.put(federatedResource("foreign@other", new Service(), "fed1"));
+		assertFalse(index.contains("foreign@other"));
+
+		index.put(federatedResource("service@home", new Service(), "fed2"));
+		assertTrue(index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed1")).isEmpty());
+
+		index.remove("sensor@home");
+		assertEquals(new HashSet<>(Arrays.asList("service@home")),
+				index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed2")).keySet());
+	}
+
+	@Test
+	public void unshare() {
+		Subscription subscription = new Subscription();
+
+		index.unshare(Arrays.asList("service@home", "sensor@home"), "fed2");
+		assertEquals(new HashSet<>(Arrays.asList("service@home")),
+				index.find(SubscriptionPredicate.compile(subscription), Arrays.asList("fed1", "fed2")).keySet());
+		assertFalse(index.contains("sensor@home"));
+
+		index.unshare(Arrays.asList("service@home"), "fed1");
+		assertFalse(index.contains("service@home"));
+	}
+
+	private static FederatedResource federatedResource(String aggregationId, Resource resource, String... federationIds) {
+		resource.setInterworkingServiceURL("dummyUrl");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(resource);
+		FederationInfoBean fib = new FederationInfoBean();
+		fib.setSharingInformation(new HashMap<>());
+		cloudResource.setFederationInfo(fib);
+		FederatedResource fedRes = new FederatedResource(aggregationId, cloudResource, (double) 4);
+		for(String federationId : federationIds)
+			fedRes.shareToNewFederation(federationId, true);
+		return fedRes;
+	}
+}
@@ -0,0 +1,150 @@
+package eu.h2020.symbiote.subman.matching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.Subscription;
+import eu.h2020.symbiote.model.cim.Actuator;
+import eu.h2020.symbiote.model.cim.Capability;
+import eu.h2020.symbiote.model.cim.Device;
+import eu.h2020.symbiote.model.cim.Location;
+import eu.h2020.symbiote.model.cim.Resource;
+import eu.h2020.symbiote.model.cim.Sensor;
+import eu.h2020.symbiote.model.cim.Service;
+import eu.h2020.symbiote.model.cim.SymbolicLocation;
+import eu.h2020.symbiote.subman.messaging.Consumers;
+import eu.h2020.symbiote.subman.repositories.SubscriptionRepository;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SubscriptionIndexTest {
+
+	@Mock
+	SubscriptionRepository subscriptionRepo;
+
+	List<Subscription> subscriptions;
+	List<FederatedResource> resources;
+
+	@Before
+	public void setUp() {
+		subscriptions = new ArrayList<>();
+
+		subscriptions.add(subscription("all"));
+
+		Subscription noActuators = subscription("noActuators");
+		noActuators.getResourceType().put("actuator", false);
+		subscriptions.add(noActuators);
+
+		Subscription split = subscription("split");
+		split.setLocations(Arrays.asList("Split"));
+		subscriptions.add(split);
+
+		Subscription temperature = subscription("temperature");
+		temperature.setObservedProperties(Arrays.asList("temperature", "humidity"));
+		subscriptions.add(temperature);
+
+		Subscription onOffInZagreb = subscription("onOffInZagreb");
+		onOffInZagreb.setLocations(Arrays.asList("Zagreb"));
+		onOffInZagreb.setCapabilities(Arrays.asList("on-off"));
+		subscriptions.add(onOffInZagreb);
+
+		resources = new ArrayList<>();
+		resources.add(federatedResource("service@p", new Service()));
+		resources.add(federatedResource("device@p", located(new Device(), "Split")));
+
+		Sensor sensor = located(new Sensor(), "Split");
+		sensor.setObservesProperty(Arrays.asList("temperature"));
+		resources.add(federatedResource("sensor@p", sensor));
+
+		Sensor noise = located(new Sensor(), "Zagreb");
+		noise.setObservesProperty(Arrays.asList("noise"));
+		resources.add(federatedResource("noise@p", noise));
+
+		Actuator actuator = located(new Actuator(), "Zagreb");
+		Capability capability = new Capability();
+		capability.setName("on-off");
+		actuator.setCapabilities(Arrays.asList(capability));
+		resources.add(federatedResource("actuator@p", actuator));
+
+		resources.add(federatedResource("unlocated@p", new Actuator()));
+	}
+
+	@Test
+	public void sameResultAsIsSubscribed() {
+		when(subscriptionRepo.findAll()).thenReturn(subscriptions);
+		SubscriptionIndex index = new SubscriptionIndex(subscriptionRepo);
+
+		for(FederatedResource fedRes : resources)
+			assertEquals(fedRes.getAggregationId(), expected(fedRes), index.findSubscribedPlatforms(fedRes));
+	}
+
+	@Test
+	public void subscriptionUpdates() {
+		when(subscriptionRepo.findAll()).thenReturn(new ArrayList<>());
+		SubscriptionIndex index = new SubscriptionIndex(subscriptionRepo);
+		FederatedResource service = resources.get(0);
+
+		assertTrue(index.findSubscribedPlatforms(service).isEmpty());
+
+		index.put(subscription("p1"));
+		assertEquals(new HashSet<>(Arrays.asList("p1")), index.findSubscribedPlatforms(service));
+		assertEquals("p1", index.getSubscription("p1").getPlatformId());
+
+		Subscription noServices = subscription("p1");
+		noServices.getResourceType().put("service", false);
+		index.put(noServices);
+		assertTrue(index.findSubscribedPlatforms(service).isEmpty());
+		assertSame(noServices, index.getSubscription("p1"));
+
+		index.put(subscription("p2"));
+		index.remove("p2");
+		assertTrue(index.findSubscribedPlatforms(service).isEmpty());
+		assertNull(index.getSubscription("p2"));
+		assertEquals(1, index.getSubscriptions().size());
+	}
+
+	private Set<String> expected(FederatedResource fedRes) {
+		Set<String> expected = new HashSet<>();
+		for(Subscription subscription : subscriptions) {
+			if(Consumers.isSubscribed(subscription, fedRes))
+				expected.add(subscription.getPlatformId());
+		}
+		return expected;
+	}
+
+	private static Subscription subscription(String platformId) {
+		Subscription subscription = new Subscription();
+		subscription.setPlatformId(platformId);
+		return subscription;
+	}
+
+	private static <T extends Device> T located(T device, String locationName) {
+		Location location = new SymbolicLocation();
+		location.setName(locationName);
+		device.setLocatedAt(location);
+		return device;
+	}
+
+	private static FederatedResource federatedResource(String aggregationId, Resource resource) {
+		resource.setInterworkingServiceURL("dummyUrl");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(resource);
+		return new FederatedResource(aggregationId, cloudResource, (double) 4);
+	}
+}
@@ -0,0 +1,84 @@
+package eu.h2020.symbiote.subman.matching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.Subscription;
+import eu.h2020.symbiote.model.cim.Actuator;
+import eu.h2020.symbiote.model.cim.Capability;
+import eu.h2020.symbiote.model.cim.Location;
+import eu.h2020.symbiote.model.cim.Resource;
+import eu.h2020.symbiote.model.cim.Sensor;
+import eu.h2020.symbiote.model.cim.Service;
+import eu.h2020.symbiote.model.cim.SymbolicLocation;
+
+public class SubscriptionPredicateTest {
+
+	@Test
+	public void resourceTypes() {
+		Subscription subscription = subscription("p1");
+		SubscriptionPredicate predicate = SubscriptionPredicate.compile(subscription);
+		assertEquals("p1", predicate.getPlatformId());
+		assertTrue(predicate.matches(federatedResource(new Service())));
+		assertTrue(predicate.matches(federatedResource(new Actuator())));
+
+		subscription.getResourceType().put("service", false);
+		predicate = SubscriptionPredicate.compile(subscription);
+		assertFalse(predicate.matches(federatedResource(new Service())));
+		assertTrue(predicate.matches(federatedResource(new Sensor())));
+		assertEquals(0, predicate.getResourceTypeMask() & ResourceTraits.typeBit(ResourceTraits.SERVICE));
+	}
+
+	@Test
+	public void conditions() {
+		Sensor sensor = new Sensor();
+		Location location = new SymbolicLocation();
+		location.setName("Split");
+		sensor.setLocatedAt(location);
+		sensor.setObservesProperty(Arrays.asList("temperature"));
+		FederatedResource sensorResource = federatedResource(sensor);
+
+		Actuator actuator = new Actuator();
+		Capability capability = new Capability();
+		capability.setName("on-off");
+		actuator.setCapabilities(Arrays.asList(capability));
+		FederatedResource actuatorResource = federatedResource(actuator);
+
+		Subscription subscription = subscription("p1");
+		subscription.setLocations(Arrays.asList("Zagreb", "Split"));
+		assertTrue(SubscriptionPredicate.compile(subscription).matches(sensorResource));
+		//resource without location does not match location condition
+		assertFalse(SubscriptionPredicate.compile(subscription).matches(actuatorResource));
+
+		subscription = subscription("p1");
+		subscription.setObservedProperties(Arrays.asList("humidity", "temperature"));
+		assertTrue(SubscriptionPredicate.compile(subscription).matches(sensorResource));
+		subscription.setObservedProperties(Arrays.asList("humidity"));
+		assertFalse(SubscriptionPredicate.compile(subscription).matches(sensorResource));
+
+		subscription = subscription("p1");
+		subscription.setCapabilities(Arrays.asList("on-off"));
+		assertTrue(SubscriptionPredicate.compile(subscription).matches(actuatorResource));
+		assertFalse(SubscriptionPredicate.compile(subscription).matches(sensorResource));
+	}
+
+	private static Subscription subscription(String platformId) {
+		Subscription subscription = new Subscription();
+		subscription.setPlatformId(platformId);
+		return subscription;
+	}
+
+	private static FederatedResource federatedResource(Resource resource) {
+		resource.setInterworkingServiceURL("dummyUrl");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(resource);
+		return new FederatedResource("resource@p", cloudResource, (double) 4);
+	}
+}
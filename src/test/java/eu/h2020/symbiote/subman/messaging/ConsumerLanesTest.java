@@ -0,0 +1,120 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConsumerLanesTest {
+
+	ConsumerLanes lanes = new ConsumerLanes(4, 10);
+
+	@After
+	public void tearDown() {
+		lanes.shutdown();
+	}
+
+	@Test
+	public void sameKeyProcessedInOrder() {
+		List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		//more tasks than lane capacity, submitting waits for space
+		for (int i = 0; i < 50; i++) {
+			int task = i;
+			futures.add(lanes.submit("resource@platform", () -> processed.add(task)));
+		}
+		futures.forEach(CompletableFuture::join);
+
+		for (int i = 0; i < 50; i++)
+			assertEquals(Integer.valueOf(i), processed.get(i));
+	}
+
+	@Test
+	public void differentLanesProcessedInParallel() throws InterruptedException {
+		String first = "a@platform";
+		String second = keyOnOtherLane(first);
+
+		CountDownLatch secondProcessed = new CountDownLatch(1);
+		List<Boolean> result = new ArrayList<>();
+		CompletableFuture<Void> blocked = lanes.submit(first, () -> {
+			try {
+				result.add(secondProcessed.await(5, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		lanes.submit(second, secondProcessed::countDown);
+
+		blocked.join();
+		assertTrue(result.get(0));
+	}
+
+	@Test
+	public void partitionedItems() {
+		String first = "a@platform";
+		String second = keyOnOtherLane(first);
+
+		List<List<String>> partitions = Collections.synchronizedList(new ArrayList<>());
+		lanes.submitPartitioned(Arrays.asList(first, second, first), item -> item, partitions::add).join();
+
+		assertEquals(2, partitions.size());
+		assertTrue(partitions.contains(Arrays.asList(first, first)));
+		assertTrue(partitions.contains(Arrays.asList(second)));
+
+		assertTrue(lanes.submitPartitioned(new ArrayList<String>(), item -> item, partitions::add).isDone());
+	}
+
+	@Test
+	public void barrierOrderedAgainstAllLanes() throws InterruptedException {
+		String first = "a@platform";
+		String second = keyOnOtherLane(first);
+		List<String> processed = Collections.synchronizedList(new ArrayList<>());
+
+		CountDownLatch release = new CountDownLatch(1);
+		lanes.submit(first, () -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			processed.add("before");
+		});
+		CompletableFuture<Void> barrier = lanes.submitBarrier(() -> processed.add("barrier"));
+		CompletableFuture<Void> after = lanes.submit(second, () -> processed.add("after"));
+
+		//work of another lane waits for the barrier, which waits for earlier work of all lanes
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertTrue(processed.isEmpty());
+		release.countDown();
+
+		after.join();
+		assertTrue(barrier.isDone());
+		assertEquals(Arrays.asList("before", "barrier", "after"), processed);
+	}
+
+	@Test
+	public void failedBarrierReleasesLanes() {
+		CompletableFuture<Void> barrier = lanes.submitBarrier(() -> {
+			throw new IllegalStateException("Failed to store federation");
+		});
+
+		assertTrue(lanes.submit("a@platform", () -> {}).thenApply(result -> barrier.isCompletedExceptionally()).join());
+	}
+
+	private String keyOnOtherLane(String key) {
+		for (int i = 0; ; i++) {
+			String other = "resource" + i + "@platform";
+			if (lanes.laneOf(other) != lanes.laneOf(key))
+				return other;
+		}
+	}
+}
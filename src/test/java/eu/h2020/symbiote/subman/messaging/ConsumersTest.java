@@ -6,7 +6,15 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.HashMap;
@@ -22,12 +30,16 @@ import org.junit.runner.RunWith;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.rabbitmq.client.Channel;
 
 import eu.h2020.symbiote.cloud.model.internal.CloudResource;
 import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
@@ -48,10 +60,14 @@ import eu.h2020.symbiote.model.cim.SymbolicLocation;
 import eu.h2020.symbiote.model.mim.Federation;
 import eu.h2020.symbiote.model.mim.FederationMember;
 import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.subman.controller.CredentialManager;
 import eu.h2020.symbiote.subman.controller.SecurityManager;
+import eu.h2020.symbiote.subman.matching.SharedResourceIndex;
+import eu.h2020.symbiote.subman.matching.SubscriptionIndex;
 import eu.h2020.symbiote.subman.repositories.FederatedResourceRepository;
 import eu.h2020.symbiote.subman.repositories.FederationRepository;
 import eu.h2020.symbiote.subman.repositories.SubscriptionRepository;
+import eu.h2020.symbiote.subman.topology.FederationTopology;
 
 /**
  * @author Petar Krivic (UniZG-FER)
@@ -101,6 +117,21 @@ public class ConsumersTest {
     @Autowired
     SecurityManager securityManager;
 
+    @Autowired
+    CredentialManager credentialManager;
+    
+    @Autowired
+    SubscriptionIndex subscriptionIndex;
+    
+    @Autowired
+    SharedResourceIndex sharedResourceIndex;
+    
+    @Autowired
+    FederationTopology federationTopology;
+
+    @Autowired
+    Consumers consumers;
+
     static Resource resDummy;
 	static CloudResource dummy;
 	static FederatedResource fr;
@@ -113,8 +144,9 @@ public class ConsumersTest {
         federationRepository.deleteAll();
         fedResRepo.deleteAll();
         subRepo.deleteAll();
-        Consumers.addressBook.clear();
-        Consumers.numberOfCommonFederations.clear();
+        subscriptionIndex.clear();
+        sharedResourceIndex.clear();
+        federationTopology.clear();
         resDummy = new Service();
 		resDummy.setInterworkingServiceURL("dummyUrl");
 		dummy = new CloudResource();
@@ -144,6 +176,7 @@ public class ConsumersTest {
 		Subscription s = new Subscription();
     	s.setPlatformId("todel");
     	subRepo.save(s);
+    	subscriptionIndex.put(s);
     }
 
     @Test
@@ -157,8 +190,8 @@ public class ConsumersTest {
 
         TimeUnit.MILLISECONDS.sleep(1000);
         //check that federation is saved in mongoDB+
-        assertEquals(1, Consumers.addressBook.size());
-        assertEquals(1, Consumers.numberOfCommonFederations.size());
+        assertEquals(1, federationTopology.current().getAddresses().size());
+        assertEquals(1, federationTopology.getPeers().size());
         assertNotNull(federationRepository.findOne("exampleId"));
         
         FederationMember fm2 = new FederationMember();
@@ -170,8 +203,8 @@ public class ConsumersTest {
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationCreatedKey, federation);
         
         TimeUnit.MILLISECONDS.sleep(1000);
-        assertEquals(1, Consumers.addressBook.size());
-        assertEquals(1, Consumers.numberOfCommonFederations.size());
+        assertEquals(1, federationTopology.current().getAddresses().size());
+        assertEquals(1, federationTopology.getPeers().size());
         assertEquals(2, federationRepository.findAll().size());
     }
     
@@ -188,16 +221,16 @@ public class ConsumersTest {
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationCreatedKey, federation);
 
         TimeUnit.MILLISECONDS.sleep(600);
-        assertEquals(0, Consumers.addressBook.size());
-        assertEquals(0, Consumers.numberOfCommonFederations.size());
+        assertEquals(0, federationTopology.current().getAddresses().size());
+        assertEquals(0, federationTopology.getPeers().size());
         
         //adding this platform to existing federation
         federation.setMembers(Arrays.asList(fm5,fm1));
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationChangedKey, federation);
         
         TimeUnit.MILLISECONDS.sleep(600);
-        assertEquals(1, Consumers.addressBook.size());
-        assertEquals(1, Consumers.numberOfCommonFederations.size());
+        assertEquals(1, federationTopology.current().getAddresses().size());
+        assertEquals(1, federationTopology.getPeers().size());
         
         //adding another platform in federation with this platform
         FederationMember fm2 = new FederationMember();
@@ -207,24 +240,24 @@ public class ConsumersTest {
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationChangedKey, federation);
         
         TimeUnit.MILLISECONDS.sleep(800);
-        assertEquals(2, Consumers.addressBook.size());
-        assertEquals(2, Consumers.numberOfCommonFederations.size());
+        assertEquals(2, federationTopology.current().getAddresses().size());
+        assertEquals(2, federationTopology.getPeers().size());
         
         //removing other platform from federation with this platform
         federation.setMembers(Arrays.asList(fm5,fm1));
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationChangedKey, federation);
         
         TimeUnit.MILLISECONDS.sleep(800);
-        assertEquals(1, Consumers.addressBook.size());
-        assertEquals(1, Consumers.numberOfCommonFederations.size());
+        assertEquals(1, federationTopology.current().getAddresses().size());
+        assertEquals(1, federationTopology.getPeers().size());
         
         //removing this platform from existing federation
         federation.setMembers(Arrays.asList(fm5));
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationChangedKey, federation);
         
         TimeUnit.MILLISECONDS.sleep(600);
-        assertEquals(0, Consumers.addressBook.size());
-        assertEquals(0, Consumers.numberOfCommonFederations.size());
+        assertEquals(0, federationTopology.current().getAddresses().size());
+        assertEquals(0, federationTopology.getPeers().size());
     }
     
     @Test
@@ -240,8 +273,8 @@ public class ConsumersTest {
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationCreatedKey, federation);
 
         TimeUnit.MILLISECONDS.sleep(700);
-        assertEquals(0, Consumers.addressBook.size());
-        assertEquals(0, Consumers.numberOfCommonFederations.size());
+        assertEquals(0, federationTopology.current().getAddresses().size());
+        assertEquals(0, federationTopology.getPeers().size());
         
         Federation federation2 = new Federation();
 
@@ -251,8 +284,8 @@ public class ConsumersTest {
         federation2.setMembers(Arrays.asList(fm1,fm5));
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationCreatedKey, federation2);
         TimeUnit.MILLISECONDS.sleep(700);
-        assertEquals(1, Consumers.addressBook.size());
-        assertEquals(1, Consumers.numberOfCommonFederations.size());
+        assertEquals(1, federationTopology.current().getAddresses().size());
+        assertEquals(1, federationTopology.getPeers().size());
         
         fr = new FederatedResource("a@1950",dummy, (double) 4);
         fr.shareToNewFederation("exampleId", true);
@@ -264,14 +297,16 @@ public class ConsumersTest {
         fr.shareToNewFederation("exampleId2", true);
         fr.unshareFromFederation("todel");
         fedResRepo.save(fr);
+        sharedResourceIndex.put(fr);
         Subscription s = new Subscription();
         s.setPlatformId("1950");
         subRepo.save(s);
+        subscriptionIndex.put(s);
         
         federation.setMembers(Arrays.asList(fm1,fm5));
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationChangedKey, federation);
         TimeUnit.MILLISECONDS.sleep(700);
-        assertEquals((Integer)2, Consumers.numberOfCommonFederations.get("1950"));
+        assertEquals(2, federationTopology.getCommonFederations("1950").size());
         
         assertEquals(2, fedResRepo.findAll().size());
         //remove other platform that shared fedRes from federation
@@ -319,14 +354,14 @@ public class ConsumersTest {
         TimeUnit.MILLISECONDS.sleep(800);
 
         assertNotNull(federationRepository.findOne("exampleId"));
-        assertEquals(2, Consumers.addressBook.size());
-        assertEquals(2, Consumers.numberOfCommonFederations.size());
+        assertEquals(2, federationTopology.current().getAddresses().size());
+        assertEquals(2, federationTopology.getPeers().size());
         
         TimeUnit.MILLISECONDS.sleep(400);
         rabbitManager.sendAsyncMessageJSON(federationExchange, federationCreatedKey, federation2);
         TimeUnit.MILLISECONDS.sleep(800);
-        assertEquals(2, Consumers.addressBook.size());
-        assertEquals(2, Consumers.numberOfCommonFederations.size());
+        assertEquals(2, federationTopology.current().getAddresses().size());
+        assertEquals(2, federationTopology.getPeers().size());
         
         RabbitTemplate rabbitTemplate = rabbitManager.getRabbitTemplate();
         Message message = new Message("exampleId".getBytes(), new MessageProperties());
@@ -336,16 +371,16 @@ public class ConsumersTest {
         //check that federation is removed from mongoDB
         assertNotNull(federationRepository.findOne("exampleId2"));
         assertNull(federationRepository.findOne("exampleId"));
-        assertEquals(1, Consumers.addressBook.size());
-        assertEquals(1, Consumers.numberOfCommonFederations.size());
+        assertEquals(1, federationTopology.current().getAddresses().size());
+        assertEquals(1, federationTopology.getPeers().size());
         
         Message message1 = new Message("exampleId2".getBytes(), new MessageProperties());
         rabbitTemplate.send(federationExchange, federationDeletedKey, message1);
         TimeUnit.MILLISECONDS.sleep(1000);
         
         assertNull(federationRepository.findOne("exampleId2"));
-        assertEquals(0, Consumers.addressBook.size());
-        assertEquals(0, Consumers.numberOfCommonFederations.size());
+        assertEquals(0, federationTopology.current().getAddresses().size());
+        assertEquals(0, federationTopology.getPeers().size());
     }
     
     @Test
@@ -435,35 +470,6 @@ public class ConsumersTest {
     	assertEquals(0, current.size());
     }
     
-    @Test
-    public void serializationTest() {
-    	Resource r = new Resource();
-    	r.setId("id1");
-    	r.setName("dummy");
-    	r.setInterworkingServiceURL("dummyURL");
-    	CloudResource cr = new CloudResource();
-    	cr.setInternalId("id1");
-    	cr.setPluginId("pg1");
-    	cr.setResource(r);
-    	FederationInfoBean fib = new FederationInfoBean();
-    	fib.setAggregationId("id@shs");
-    	cr.setFederationInfo(fib);
-        FederatedResource fr = new FederatedResource(cr);
-        
-        String serialized = Consumers.serializeFederatedResource(fr);
-        FederatedResource cloneFr = Consumers.deserializeFederatedResource(serialized);
-        
-        assertEquals(cloneFr.getCloudResource().getInternalId(), fr.getCloudResource().getInternalId());
-    }
-    
-    @Test
-    public void serializationFailureTest() {
-    	
-        FederatedResource cloneFr = Consumers.deserializeFederatedResource("dummy");
-        
-        assertNull(cloneFr);
-    }
-    
     @Test
     public void deletedFederatedResourceInterestedFederationBroadcastNoResponseTest() throws InterruptedException{
     	Map<String, FederatedResourceInfo> fedDummies = new HashMap<>();
@@ -505,8 +511,8 @@ public class ConsumersTest {
     	List<FederatedResource> current = fedResRepo.findAll();
     	assertEquals(1, current.get(0).getFederations().size());
     	assertEquals(1, current.size());
-    	assertEquals(1, Consumers.numberOfCommonFederations.size());
-    	assertEquals(1, Consumers.addressBook.size());
+    	assertEquals(1, federationTopology.getPeers().size());
+    	assertEquals(1, federationTopology.current().getAddresses().size());
     	
     	Set<String> toDelete = new HashSet<>();
     	toDelete.add("a@a@todel");
@@ -514,9 +520,10 @@ public class ConsumersTest {
     	Subscription s = new Subscription();
     	s.setPlatformId("todel");
     	subRepo.save(s);
+    	subscriptionIndex.put(s);
     	 
     	doReturn(new SecurityRequest("sdad"))
-    		.when(securityManager).generateSecurityRequest();
+    		.when(credentialManager).getSecurityRequest();
     	
     	rabbitManager.sendAsyncMessageJSON(subscriptionManagerExchange, resRemovedRk, msg);
     	TimeUnit.MILLISECONDS.sleep(400);
@@ -542,9 +549,10 @@ public class ConsumersTest {
     	Subscription s = new Subscription();
     	s.setPlatformId("todel");
     	subRepo.save(s);
+    	subscriptionIndex.put(s);
     	
     	doReturn(new SecurityRequest("sdad"))
-        .when(securityManager).generateSecurityRequest();
+        .when(credentialManager).getSecurityRequest();
         
     	doReturn(true)
         .when(securityManager).verifyReceivedResponse(any(String.class),any(String.class),any(String.class));
@@ -766,4 +774,46 @@ public class ConsumersTest {
     	assertNull(fedResRepo.findOne("a@a"));
     }
     
+    @Test
+    public void federatedResourcesAcknowledgedAfterLaneProcessing() throws Exception {
+    	Channel channel = mock(Channel.class);
+    	Message msg = new Jackson2JsonMessageConverter().toMessage(new ResourcesAddedOrUpdatedMessage(Arrays.asList(fr)), new MessageProperties());
+
+    	consumers.addedOrUpdateFederatedResource(msg, channel, 1);
+
+    	verify(channel, timeout(2000)).basicAck(1, false);
+    	assertNotNull(fedResRepo.findOne(fr.getAggregationId()));
+    	verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    public void failedFederatedResourcesRequeued() throws Exception {
+    	Channel channel = mock(Channel.class);
+    	Message msg = new Jackson2JsonMessageConverter().toMessage(new ResourcesAddedOrUpdatedMessage(Arrays.asList(fr)), new MessageProperties());
+    	FederatedResourceRepository failingRepo = mock(FederatedResourceRepository.class);
+    	when(failingRepo.bulkSave(anyList())).thenThrow(new IllegalStateException("MongoDB is not available"));
+
+    	ReflectionTestUtils.setField(Consumers.class, "fedResRepo", failingRepo);
+    	try {
+    		consumers.addedOrUpdateFederatedResource(msg, channel, 1);
+    		verify(channel, timeout(2000)).basicNack(1, false, true);
+    	} finally {
+    		ReflectionTestUtils.setField(Consumers.class, "fedResRepo", fedResRepo);
+    	}
+    	verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void federationAcknowledgedAfterBarrier() throws Exception {
+    	Channel channel = mock(Channel.class);
+    	f.setMembers(Arrays.asList(fm, fm1));
+    	Message msg = new Jackson2JsonMessageConverter().toMessage(f, new MessageProperties());
+
+    	consumers.federationCreated(msg, channel, 1);
+
+    	verify(channel, timeout(2000)).basicAck(1, false);
+    	assertNotNull(federationRepository.findOne(f.getId()));
+    	assertEquals(1, federationTopology.getPeers().size());
+    }
+
 }
\ No newline at end of file
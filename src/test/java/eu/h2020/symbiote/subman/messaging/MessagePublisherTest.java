@@ -0,0 +1,144 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.core.ChannelCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.RabbitExceptionTranslator;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+public class MessagePublisherTest {
+
+	RabbitTemplate rabbitTemplate;
+	MongoTemplate mongoTemplate;
+	Channel channel;
+	List<String> published;
+
+	MessagePublisher publisher;
+
+	@Before
+	public void setUp() throws Exception {
+		rabbitTemplate = mock(RabbitTemplate.class);
+		mongoTemplate = mock(MongoTemplate.class);
+		channel = mock(Channel.class);
+		published = new CopyOnWriteArrayList<>();
+
+		doAnswer(invocation -> {
+			try {
+				return ((ChannelCallback<?>) invocation.getArguments()[0]).doInRabbit(channel);
+			} catch (Exception e) {
+				throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+			}
+		}).when(rabbitTemplate).execute(any(ChannelCallback.class));
+		doAnswer(invocation -> {
+			published.add(new String((byte[]) invocation.getArguments()[4], StandardCharsets.UTF_8));
+			return null;
+		}).when(channel).basicPublish(any(String.class), any(String.class), anyBoolean(), any(AMQP.BasicProperties.class), any(byte[].class));
+
+		publisher = new MessagePublisher(rabbitTemplate, mongoTemplate, 100, 10, 10, 1000, 10, 3);
+	}
+
+	@After
+	public void tearDown() {
+		publisher.shutdown();
+	}
+
+	@Test
+	public void compactJsonConfirmed() throws Exception {
+		CompletableFuture<Void> confirmed = publisher.publish("exchange", "key", Collections.singletonMap("a", Collections.singletonList("b")));
+
+		confirmed.get(2, TimeUnit.SECONDS);
+		verify(channel).waitForConfirmsOrDie(anyLong());
+		verify(channel).confirmSelect();
+		verify(channel).basicPublish(eq("exchange"), eq("key"), eq(false), any(AMQP.BasicProperties.class), any(byte[].class));
+		assertEquals(Collections.singletonList("{\"a\":[\"b\"]}"), published);
+		assertFalse(published.get(0).contains("\n"));
+	}
+
+	@Test
+	public void unconfirmedBatchRetried() throws Exception {
+		doThrow(new TimeoutException()).doNothing().when(channel).waitForConfirmsOrDie(anyLong());
+
+		publisher.publish("exchange", "key", "message");
+
+		verify(channel, timeout(2000).times(2)).waitForConfirmsOrDie(anyLong());
+		assertEquals(Arrays.asList("\"message\"", "\"message\""), published);
+	}
+
+	@Test
+	public void unconfirmedBatchDeadLettered() throws Exception {
+		doThrow(new TimeoutException()).doThrow(new TimeoutException()).doThrow(new TimeoutException()).doNothing()
+				.when(channel).waitForConfirmsOrDie(anyLong());
+
+		CompletableFuture<Void> failed = publisher.publish("exchange", "key", "poison");
+
+		try {
+			failed.get(2, TimeUnit.SECONDS);
+			fail("Unconfirmed message completed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		ArgumentCaptor<Collection> deadLetters = ArgumentCaptor.forClass(Collection.class);
+		verify(mongoTemplate).insert(deadLetters.capture(), eq(PublisherDeadLetter.class));
+		PublisherDeadLetter deadLetter = (PublisherDeadLetter) deadLetters.getValue().iterator().next();
+		assertEquals("exchange", deadLetter.getExchange());
+		assertEquals("key", deadLetter.getRoutingKey());
+		assertEquals("\"poison\"", deadLetter.getBody());
+
+		//later messages are not blocked by the dead lettered batch
+		publisher.publish("exchange", "key", "later").get(2, TimeUnit.SECONDS);
+		assertEquals("\"later\"", published.get(published.size() - 1));
+	}
+
+	@Test
+	public void fullQueueFailsWithoutBlocking() throws Exception {
+		publisher.shutdown();
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			release.await();
+			return null;
+		}).when(channel).waitForConfirmsOrDie(anyLong());
+		publisher = new MessagePublisher(rabbitTemplate, mongoTemplate, 1, 10, 1, 1000, 10, 3);
+
+		CompletableFuture<Void> publishing = publisher.publish("exchange", "key", "first");
+		verify(channel, timeout(2000)).waitForConfirmsOrDie(anyLong());
+		CompletableFuture<Void> queued = publisher.publish("exchange", "key", "second");
+		CompletableFuture<Void> rejected = publisher.publish("exchange", "key", "third");
+
+		assertTrue(rejected.isCompletedExceptionally());
+		release.countDown();
+		publishing.get(2, TimeUnit.SECONDS);
+		queued.get(2, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,175 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.model.cim.Service;
+
+public class ResourceMessageBatcherTest {
+
+	Channel channel;
+
+	List<List<FederatedResource>> addedBatches;
+	List<List<String>> removedBatches;
+	CompletableFuture<Void> processed;
+
+	ResourceMessageBatcher batcher;
+
+	@Before
+	public void setUp() {
+		channel = mock(Channel.class);
+		addedBatches = Collections.synchronizedList(new ArrayList<>());
+		removedBatches = Collections.synchronizedList(new ArrayList<>());
+		processed = CompletableFuture.completedFuture(null);
+	}
+
+	@After
+	public void tearDown() {
+		batcher.shutdown();
+	}
+
+	@Test
+	public void flushedBySize() throws Exception {
+		batcher = batcher(2, 10000);
+		FederatedResource a = federatedResource("a@p");
+		FederatedResource b = federatedResource("b@p");
+		FederatedResource newerB = federatedResource("b@p");
+		FederatedResource c = federatedResource("c@p");
+
+		batcher.addOrUpdate(Arrays.asList(a, b), channel, 1, false);
+		assertTrue(addedBatches.isEmpty());
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+		batcher.addOrUpdate(Arrays.asList(newerB, c), channel, 2, false);
+		assertEquals(1, addedBatches.size());
+		assertEquals(3, addedBatches.get(0).size());
+		assertSame(a, addedBatches.get(0).get(0));
+		assertSame(newerB, addedBatches.get(0).get(1));
+		assertSame(c, addedBatches.get(0).get(2));
+		verify(channel).basicAck(1, false);
+		verify(channel).basicAck(2, false);
+	}
+
+	@Test
+	public void flushedByWindow() throws Exception {
+		batcher = batcher(100, 50);
+
+		batcher.remove(Arrays.asList("a@p@fed1", "a@p@fed1", "b@p@fed2"), channel, 1, false);
+		verify(channel, timeout(2000)).basicAck(1, false);
+		assertEquals(Arrays.asList(Arrays.asList("a@p@fed1", "b@p@fed2")), removedBatches);
+	}
+
+	@Test
+	public void orderOfKindsKept() throws Exception {
+		batcher = batcher(100, 10000);
+
+		batcher.addOrUpdate(Arrays.asList(federatedResource("a@p")), channel, 1, false);
+		batcher.remove(Arrays.asList("a@p@fed1"), channel, 2, false);
+		assertEquals(1, addedBatches.size());
+		assertTrue(removedBatches.isEmpty());
+
+		batcher.addOrUpdate(Arrays.asList(federatedResource("a@p")), channel, 3, false);
+		assertEquals(1, removedBatches.size());
+		assertEquals(1, addedBatches.size());
+
+		batcher.flush();
+		assertEquals(2, addedBatches.size());
+	}
+
+	@Test
+	public void acknowledgedAfterProcessing() throws Exception {
+		batcher = batcher(1, 10000);
+		processed = new CompletableFuture<>();
+
+		batcher.addOrUpdate(Arrays.asList(federatedResource("a@p")), channel, 1, false);
+		assertEquals(1, addedBatches.size());
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+		processed.complete(null);
+		verify(channel).basicAck(1, false);
+	}
+
+	@Test
+	public void failedBatchRejected() throws Exception {
+		batcher = batcher(2, 10000);
+		processed = new CompletableFuture<>();
+		processed.completeExceptionally(new IllegalStateException("Failed to store federated resources"));
+
+		batcher.addOrUpdate(Arrays.asList(federatedResource("a@p")), channel, 1, false);
+		batcher.addOrUpdate(Arrays.asList(federatedResource("b@p")), channel, 2, true);
+
+		//first delivery is requeued, message that already failed once is dropped
+		verify(channel).basicNack(1, false, true);
+		verify(channel).basicNack(2, false, false);
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+	}
+
+	@Test
+	public void redeliveredProcessedAlone() throws Exception {
+		batcher = batcher(10, 10000);
+		FederatedResource a = federatedResource("a@p");
+		FederatedResource b = federatedResource("b@p");
+
+		batcher.addOrUpdate(Arrays.asList(a), channel, 1, false);
+		batcher.addOrUpdate(Arrays.asList(b), channel, 2, true);
+
+		assertEquals(Arrays.asList(Arrays.asList(a), Arrays.asList(b)), addedBatches);
+		verify(channel).basicAck(1, false);
+		verify(channel).basicAck(2, false);
+	}
+
+	@Test
+	public void notProcessedAfterShutdown() throws Exception {
+		batcher = batcher(10, 10000);
+
+		batcher.addOrUpdate(Arrays.asList(federatedResource("a@p")), channel, 1, false);
+		batcher.shutdown();
+		verify(channel).basicAck(1, false);
+
+		//message is left unacknowledged, so it is redelivered
+		batcher.remove(Arrays.asList("a@p@fed1"), channel, 2, false);
+		batcher.flush();
+		assertTrue(removedBatches.isEmpty());
+		verify(channel, never()).basicAck(2, false);
+		verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+	}
+
+	private ResourceMessageBatcher batcher(int maxMessages, long window) {
+		return new ResourceMessageBatcher(maxMessages, window, resources -> {
+			addedBatches.add(resources);
+			return processed;
+		}, symbioteIds -> {
+			removedBatches.add(symbioteIds);
+			return processed;
+		});
+	}
+
+	private static FederatedResource federatedResource(String aggregationId) {
+		Service service = new Service();
+		service.setInterworkingServiceURL("dummyUrl");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(service);
+		return new FederatedResource(aggregationId, cloudResource, (double) 4);
+	}
+}
@@ -0,0 +1,91 @@
+package eu.h2020.symbiote.subman.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+
+public class RpcClientTest {
+
+	Channel channel;
+	RpcClient rpcClient;
+
+	@Before
+	public void setUp() throws Exception {
+		ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+		Connection connection = mock(Connection.class);
+		channel = mock(Channel.class);
+		when(connectionFactory.createConnection()).thenReturn(connection);
+		when(connection.createChannel(false)).thenReturn(channel);
+		when(channel.isOpen()).thenReturn(true);
+		when(channel.basicConsume(eq(RpcClient.DIRECT_REPLY_TO), eq(true), any(Consumer.class))).thenReturn("tag");
+
+		rpcClient = new RpcClient(connectionFactory);
+	}
+
+	@After
+	public void tearDown() {
+		rpcClient.shutdown();
+	}
+
+	@Test
+	public void concurrentCallsCorrelated() throws Exception {
+		CompletableFuture<Object> first = rpcClient.call("exchange", "key", "first", 5000);
+		CompletableFuture<Object> second = rpcClient.call("exchange", "key", "second", 5000);
+
+		ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+		verify(channel, times(2)).basicPublish(eq("exchange"), eq("key"), anyBoolean(), properties.capture(), any(byte[].class));
+		assertEquals(RpcClient.DIRECT_REPLY_TO, properties.getAllValues().get(0).getReplyTo());
+
+		ArgumentCaptor<Consumer> consumer = ArgumentCaptor.forClass(Consumer.class);
+		verify(channel).basicConsume(eq(RpcClient.DIRECT_REPLY_TO), eq(true), consumer.capture());
+
+		//replies arrive in reverse order
+		consumer.getValue().handleDelivery("tag", new Envelope(1, false, "", RpcClient.DIRECT_REPLY_TO),
+				reply(properties.getAllValues().get(1).getCorrelationId()), "second reply".getBytes(StandardCharsets.UTF_8));
+		consumer.getValue().handleDelivery("tag", new Envelope(2, false, "", RpcClient.DIRECT_REPLY_TO),
+				reply(properties.getAllValues().get(0).getCorrelationId()), "first reply".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals("first reply", first.get());
+		assertEquals("second reply", second.get());
+		assertEquals(0, rpcClient.getPending());
+	}
+
+	@Test
+	public void callTimesOut() throws InterruptedException {
+		CompletableFuture<Object> future = rpcClient.call("exchange", "key", "request", 50);
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(future.isCompletedExceptionally());
+		assertEquals(0, rpcClient.getPending());
+	}
+
+	private static AMQP.BasicProperties reply(String correlationId) {
+		return new AMQP.BasicProperties.Builder().correlationId(correlationId).contentType("text/plain").build();
+	}
+}
@@ -0,0 +1,61 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PeerCircuitBreakerTest {
+
+	AtomicLong time;
+	PeerCircuitBreaker circuitBreaker;
+
+	@Before
+	public void setUp() {
+		time = new AtomicLong();
+		circuitBreaker = new PeerCircuitBreaker(3, 1000, time::get);
+	}
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		assertFalse(circuitBreaker.onFailure());
+		assertFalse(circuitBreaker.onFailure());
+		circuitBreaker.onSuccess();
+		assertFalse(circuitBreaker.onFailure());
+		assertFalse(circuitBreaker.onFailure());
+		assertTrue(circuitBreaker.allowRequest());
+
+		assertTrue(circuitBreaker.onFailure());
+		assertEquals(PeerCircuitBreaker.State.OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void halfOpenTrial() {
+		for (int i = 0; i < 3; i++)
+			circuitBreaker.onFailure();
+
+		time.set(999);
+		assertFalse(circuitBreaker.allowRequest());
+
+		//single trial request is allowed after timeout
+		time.set(1000);
+		assertTrue(circuitBreaker.allowRequest());
+		assertEquals(PeerCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.allowRequest());
+
+		//failed trial opens circuit again
+		assertTrue(circuitBreaker.onFailure());
+		assertFalse(circuitBreaker.allowRequest());
+
+		time.set(2000);
+		assertTrue(circuitBreaker.allowRequest());
+		assertTrue(circuitBreaker.onSuccess());
+		assertEquals(PeerCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertTrue(circuitBreaker.allowRequest());
+	}
+}
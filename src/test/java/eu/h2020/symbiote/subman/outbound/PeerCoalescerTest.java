@@ -0,0 +1,293 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.FederationInfoBean;
+import eu.h2020.symbiote.cloud.model.internal.ResourcesAddedOrUpdatedMessage;
+import eu.h2020.symbiote.cloud.model.internal.ResourcesDeletedMessage;
+import eu.h2020.symbiote.model.cim.Service;
+import eu.h2020.symbiote.subman.outbound.CoalescerJournalEntry.Recipient;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PeerCoalescerTest {
+
+	@Mock
+	PeerOutbox peerOutbox;
+
+	@Mock
+	MongoTemplate mongoTemplate;
+
+	PeerCoalescer coalescer;
+
+	ObjectMapper mapper = new ObjectMapper();
+
+	//<path, <platformId, payload>> of enqueued messages
+	Map<String, Map<String, byte[]>> enqueued;
+	int enqueueCalls;
+
+	@Before
+	public void setUp() {
+		//long window, flushes are triggered by the test
+		coalescer = new PeerCoalescer(peerOutbox, mongoTemplate, 60000);
+
+		enqueued = new HashMap<>();
+		enqueueCalls = 0;
+		doAnswer(invocation -> {
+			enqueueCalls++;
+			for (Object platformId : (Iterable<?>) invocation.getArguments()[0])
+				enqueued.computeIfAbsent((String) invocation.getArguments()[1], k -> new HashMap<>())
+						.put((String) platformId, (byte[]) invocation.getArguments()[2]);
+			return null;
+		}).when(peerOutbox).enqueue(anyCollectionOf(String.class), anyString(), any(byte[].class));
+	}
+
+	@After
+	public void tearDown() {
+		coalescer.shutdown();
+	}
+
+	@Test
+	public void latestVersionKept() throws Exception {
+		addOrUpdate("p1", federatedResource("a@home", "v1", "fed1"), "v1", false);
+		addOrUpdate("p1", federatedResource("b@home", "v1", "fed1"), "v1", false);
+		addOrUpdate("p1", federatedResource("a@home", "v2", "fed1"), "v2", false);
+		assertTrue(enqueued.isEmpty());
+
+		coalescer.flush();
+
+		List<FederatedResource> sent = added("p1");
+		assertEquals(Arrays.asList("a@home", "b@home"), sent.stream().map(FederatedResource::getAggregationId).collect(Collectors.toList()));
+		assertEquals("v2", sent.get(0).getCloudResource().getResource().getName());
+		assertNull(enqueued.get(PeerOutbox.DELETE_PATH));
+	}
+
+	@Test
+	public void addOfNewResourceCancelledByDelete() throws Exception {
+		addOrUpdate("p1", federatedResource("a@home", "v1", "fed1", "fed2"), "v1", true);
+		addOrUpdate("p1", federatedResource("b@home", "v1", "fed1"), "v1", true);
+		delete("p1", "a@home@fed1");
+		delete("p1", "b@home@fed1");
+
+		coalescer.flush();
+
+		List<FederatedResource> sent = added("p1");
+		assertEquals(1, sent.size());
+		assertEquals(new HashSet<>(Arrays.asList("fed2")), sent.get(0).getFederatedResourceInfoMap().keySet());
+		assertNull(enqueued.get(PeerOutbox.DELETE_PATH));
+	}
+
+	@Test
+	public void deleteOfKnownResourceKept() throws Exception {
+		addOrUpdate("p1", federatedResource("a@home", "v2", "fed1"), "v2", false);
+		delete("p1", "a@home@fed1");
+		//deleted and shared again, platform still has to receive the update
+		delete("p1", "b@home@fed1");
+		addOrUpdate("p1", federatedResource("b@home", "v2", "fed1"), "v2", true);
+
+		coalescer.flush();
+
+		assertEquals(new HashSet<>(Arrays.asList("a@home@fed1")), deleted("p1"));
+		assertEquals(Arrays.asList("b@home"), added("p1").stream().map(FederatedResource::getAggregationId).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void identicalChangesSerializedOnce() throws Exception {
+		FederatedResource publicView = PublicViewCopier.publicView(federatedResource("a@home", "v1"));
+		for (String platformId : Arrays.asList("p1", "p2", "p3")) {
+			FederatedResource copy = PublicViewCopier.copyForPlatform(publicView);
+			copy.shareToNewFederation(platformId.equals("p3") ? "fed2" : "fed1", true);
+			addOrUpdate(platformId, copy, "v1", false);
+			delete(platformId, "b@home@fed1");
+		}
+
+		coalescer.flush();
+
+		//one delete message for all platforms, and two distinct add messages
+		assertEquals(3, enqueueCalls);
+		assertSame(enqueued.get(PeerOutbox.DELETE_PATH).get("p1"), enqueued.get(PeerOutbox.DELETE_PATH).get("p3"));
+		assertSame(enqueued.get(PeerOutbox.ADD_OR_UPDATE_PATH).get("p1"), enqueued.get(PeerOutbox.ADD_OR_UPDATE_PATH).get("p2"));
+		assertEquals(new HashSet<>(Arrays.asList("fed2")), added("p3").get(0).getFederatedResourceInfoMap().keySet());
+	}
+
+	@Test
+	public void equalResourcesSerializedOnce() throws Exception {
+		//copies recovered from the journal are different objects with the same version
+		addOrUpdate("p1", federatedResource("a@home", "v1", "fed1"), "v1", false);
+		addOrUpdate("p2", federatedResource("a@home", "v1", "fed1"), "v1", false);
+		addOrUpdate("p3", federatedResource("a@home", "v2", "fed1"), "v2", false);
+
+		coalescer.flush();
+
+		assertEquals(2, enqueueCalls);
+		assertSame(enqueued.get(PeerOutbox.ADD_OR_UPDATE_PATH).get("p1"), enqueued.get(PeerOutbox.ADD_OR_UPDATE_PATH).get("p2"));
+		assertEquals("v2", added("p3").get(0).getCloudResource().getResource().getName());
+	}
+
+	@Test
+	public void changesJournaledUntilFlushed() throws Exception {
+		addOrUpdate("p1", federatedResource("a@home", "v1", "fed1"), "v1", false);
+		delete("p1", "b@home@fed1");
+
+		verify(mongoTemplate, times(2)).insert(anyCollectionOf(CoalescerJournalEntry.class), eq(CoalescerJournalEntry.class));
+		verify(mongoTemplate, never()).remove(any(Query.class), eq(CoalescerJournalEntry.class));
+
+		coalescer.flush();
+		verify(mongoTemplate).remove(any(Query.class), eq(CoalescerJournalEntry.class));
+	}
+
+	@Test
+	public void batchJournaledOncePerResource() throws Exception {
+		Map<String, Map<String, FederatedResource>> platformResources = new LinkedHashMap<>();
+		for (String platformId : Arrays.asList("p1", "p2")) {
+			Map<String, FederatedResource> resources = new LinkedHashMap<>();
+			resources.put("a@home", federatedResource("a@home", "v1", platformId.equals("p1") ? "fed1" : "fed2"));
+			resources.put("b@home", federatedResource("b@home", "v1", "fed1"));
+			platformResources.put(platformId, resources);
+		}
+		Map<String, String> versions = new HashMap<>();
+		versions.put("a@home", "v1");
+		versions.put("b@home", "v1");
+
+		coalescer.addOrUpdate(platformResources, versions, Collections.singleton("a@home"));
+
+		ArgumentCaptor<Collection> journaled = ArgumentCaptor.forClass(Collection.class);
+		verify(mongoTemplate).insert(journaled.capture(), eq(CoalescerJournalEntry.class));
+		List<CoalescerJournalEntry> entries = new ArrayList<>(journaled.getValue());
+		assertEquals(2, entries.size());
+		assertEquals("a@home", entries.get(0).getFederatedResource().getAggregationId());
+		assertEquals(new HashSet<>(Arrays.asList("fed1", "fed2")), entries.get(0).getFederatedResource().getFederatedResourceInfoMap().keySet());
+		assertTrue(entries.get(0).isNewResource());
+		assertEquals(Arrays.asList("p1", "p2"), entries.get(0).getRecipients().stream().map(Recipient::getPlatformId).collect(Collectors.toList()));
+		assertEquals(Arrays.asList("fed2"), entries.get(0).getRecipients().get(1).getFederationIds());
+		assertEquals(Arrays.asList("p1", "p2"), entries.get(1).getRecipients().stream().map(Recipient::getPlatformId).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void partlyFlushedEntryKept() throws Exception {
+		Map<String, Set<String>> platformSymbioteIds = new LinkedHashMap<>();
+		platformSymbioteIds.put("p1", Collections.singleton("b@home@fed1"));
+		platformSymbioteIds.put("p2", Collections.singleton("b@home@fed1"));
+		coalescer.delete(platformSymbioteIds);
+
+		coalescer.send(Arrays.asList("p1"), PeerOutbox.SUBSCRIPTION_PATH, "{}".getBytes());
+		//only the recipient that was flushed is removed from the entry
+		verify(mongoTemplate, never()).remove(any(Query.class), eq(CoalescerJournalEntry.class));
+		verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(CoalescerJournalEntry.class));
+
+		coalescer.flush();
+		verify(mongoTemplate).remove(any(Query.class), eq(CoalescerJournalEntry.class));
+	}
+
+	@Test
+	public void journalRecovered() throws Exception {
+		FederatedResource journaledResource = federatedResource("a@home", "v1", "fed1", "fed2", "fed3");
+		CoalescerJournalEntry added = journalEntry(new CoalescerJournalEntry(journaledResource, "v1", true),
+				new Recipient("p1", Arrays.asList("fed1", "fed2")));
+		CoalescerJournalEntry deleted = journalEntry(new CoalescerJournalEntry("a@home@fed1"), new Recipient("p1", new ArrayList<>()));
+		CoalescerJournalEntry deletedKnown = journalEntry(new CoalescerJournalEntry("b@home@fed1"), new Recipient("p2", new ArrayList<>()));
+		when(mongoTemplate.find(any(Query.class), eq(CoalescerJournalEntry.class))).thenReturn(Arrays.asList(added, deleted, deletedKnown));
+
+		coalescer.recover();
+		coalescer.flush();
+
+		assertEquals(new HashSet<>(Arrays.asList("fed2")), added("p1").get(0).getFederatedResourceInfoMap().keySet());
+		assertEquals(new HashSet<>(Arrays.asList("b@home@fed1")), deleted("p2"));
+		assertNull(enqueued.get(PeerOutbox.DELETE_PATH).get("p1"));
+	}
+
+	@Test
+	public void sentAfterQueuedChanges() throws Exception {
+		addOrUpdate("p1", federatedResource("a@home", "v1", "fed1"), "v1", false);
+		addOrUpdate("p2", federatedResource("a@home", "v1", "fed1"), "v1", false);
+
+		coalescer.send(Arrays.asList("p1"), PeerOutbox.SUBSCRIPTION_PATH, "{}".getBytes());
+
+		InOrder inOrder = inOrder(peerOutbox);
+		inOrder.verify(peerOutbox).enqueue(eq(Arrays.asList("p1")), eq(PeerOutbox.ADD_OR_UPDATE_PATH), any(byte[].class));
+		inOrder.verify(peerOutbox).enqueue(eq(Arrays.asList("p1")), eq(PeerOutbox.SUBSCRIPTION_PATH), any(byte[].class));
+		//changes of other platforms stay queued
+		assertNull(enqueued.get(PeerOutbox.ADD_OR_UPDATE_PATH).get("p2"));
+	}
+
+	private void addOrUpdate(String platformId, FederatedResource fedRes, String version, boolean newResource) {
+		coalescer.addOrUpdate(Collections.singletonMap(platformId, Collections.singletonMap(fedRes.getAggregationId(), fedRes)),
+				Collections.singletonMap(fedRes.getAggregationId(), version),
+				newResource ? Collections.singleton(fedRes.getAggregationId()) : Collections.emptySet());
+	}
+
+	private void delete(String platformId, String symbioteId) {
+		coalescer.delete(Collections.singletonMap(platformId, Collections.singleton(symbioteId)));
+	}
+
+	private static CoalescerJournalEntry journalEntry(CoalescerJournalEntry entry, Recipient recipient) {
+		entry.setId(PeerCoalescer.newVersion());
+		entry.getRecipients().add(recipient);
+		return entry;
+	}
+
+	private List<FederatedResource> added(String platformId) throws Exception {
+		byte[] payload = enqueued.get(PeerOutbox.ADD_OR_UPDATE_PATH).get(platformId);
+		return new ArrayList<>(mapper.readValue(payload, ResourcesAddedOrUpdatedMessage.class).getNewFederatedResources());
+	}
+
+	private Set<String> deleted(String platformId) throws Exception {
+		byte[] payload = enqueued.get(PeerOutbox.DELETE_PATH).get(platformId);
+		return new HashSet<>(mapper.readValue(payload, ResourcesDeletedMessage.class).getDeletedFederatedResources());
+	}
+
+	private static FederatedResource federatedResource(String aggregationId, String name, String... federationIds) {
+		Service service = new Service();
+		service.setName(name);
+		service.setInterworkingServiceURL("dummyUrl");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(service);
+		FederationInfoBean fib = new FederationInfoBean();
+		fib.setSharingInformation(new HashMap<>());
+		cloudResource.setFederationInfo(fib);
+		FederatedResource fedRes = new FederatedResource(aggregationId, cloudResource, (double) 4);
+		for(String federationId : federationIds)
+			fedRes.shareToNewFederation(federationId, true);
+		return fedRes;
+	}
+}
@@ -0,0 +1,163 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import eu.h2020.symbiote.security.commons.SecurityConstants;
+import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.subman.controller.SecuredRequestSender;
+import eu.h2020.symbiote.subman.controller.SecurityManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PeerDispatcherTest {
+
+	@Mock
+	SecurityManager securityManager;
+
+	PeerDispatcher dispatcher;
+
+	@Before
+	public void setUp() {
+		dispatcher = dispatcher(new RestTemplate());
+	}
+
+	@After
+	public void tearDown() {
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void sendFailure() {
+		SecurityRequest sr = new SecurityRequest("guestTokenDummy");
+		assertEquals(DeliveryOutcome.SEND_FAILED, dispatcher.send(sr, new PeerMessage("p1", "localhost:8080/subscriptionManager/addOrUpdate", "{}".getBytes())));
+	}
+
+	@Test
+	public void dispatchReportsOutcomePerPlatform() {
+		SecurityRequest sr = new SecurityRequest("guestTokenDummy");
+		Map<String, DeliveryOutcome> outcomes = dispatchAll(sr, Arrays.asList(
+				new PeerMessage("p1", "localhost:8080/subscriptionManager/addOrUpdate", "{}".getBytes()),
+				new PeerMessage("p2", "localhost:8080/subscriptionManager/delete", "{}".getBytes()),
+				new PeerMessage("p3", "localhost:8080/subscriptionManager/delete", "{}".getBytes())));
+
+		assertEquals(3, outcomes.size());
+		for (DeliveryOutcome outcome : outcomes.values())
+			assertEquals(DeliveryOutcome.SEND_FAILED, outcome);
+	}
+
+	@Test
+	public void openCircuitFailsFast() {
+		SecurityRequest sr = new SecurityRequest("guestTokenDummy");
+		PeerMessage message = new PeerMessage("p1", "localhost:8080/subscriptionManager/addOrUpdate", "{}".getBytes());
+
+		assertEquals(DeliveryOutcome.SEND_FAILED, dispatcher.send(sr, message));
+		assertEquals(PeerCircuitBreaker.State.CLOSED, dispatcher.getCircuitState("p1"));
+		assertEquals(DeliveryOutcome.SEND_FAILED, dispatcher.send(sr, message));
+		assertEquals(PeerCircuitBreaker.State.OPEN, dispatcher.getCircuitState("p1"));
+
+		assertEquals(DeliveryOutcome.DEFERRED, dispatcher.send(sr, message));
+
+		//other platforms are not affected
+		assertEquals(PeerCircuitBreaker.State.CLOSED, dispatcher.getCircuitState("p2"));
+	}
+
+	@Test
+	public void sendSuccess() {
+		RestTemplate restTemplate = new RestTemplate();
+		MockRestServiceServer server = MockRestServiceServer.createServer(restTemplate);
+		dispatcher.shutdown();
+		dispatcher = dispatcher(restTemplate);
+		HttpHeaders headers = new HttpHeaders();
+		headers.add(SecurityConstants.SECURITY_RESPONSE_HEADER, "serviceResponse");
+		server.expect(requestTo("http://p1/subscriptionManager/addOrUpdate")).andRespond(withSuccess().headers(headers));
+		when(securityManager.verifyReceivedResponse("serviceResponse", "subscriptionManager", "p1")).thenReturn(true);
+
+		SecurityRequest sr = new SecurityRequest("guestTokenDummy");
+		assertEquals(DeliveryOutcome.DELIVERED, dispatcher.send(sr, new PeerMessage("p1", "http://p1/subscriptionManager/addOrUpdate", "{}".getBytes())));
+		server.verify();
+		assertEquals(PeerCircuitBreaker.State.CLOSED, dispatcher.getCircuitState("p1"));
+	}
+
+	@Test
+	public void sendTimeout() throws Exception {
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setReadTimeout(200);
+		dispatcher.shutdown();
+		dispatcher = dispatcher(new RestTemplate(requestFactory));
+
+		//server accepts connections but never responds
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			String url = "http://localhost:" + serverSocket.getLocalPort() + "/subscriptionManager/addOrUpdate";
+			SecurityRequest sr = new SecurityRequest("guestTokenDummy");
+			Map<String, DeliveryOutcome> outcomes = dispatchAll(sr, Arrays.asList(
+					new PeerMessage("p1", url, "{}".getBytes()),
+					new PeerMessage("p2", url, "{}".getBytes()),
+					new PeerMessage("p3", url, "{}".getBytes()),
+					new PeerMessage("p4", url, "{}".getBytes())));
+
+			//two messages are sent by the pool, one waits in the queue and one is sent by the calling thread
+			assertEquals(4, outcomes.size());
+			for (DeliveryOutcome outcome : outcomes.values())
+				assertEquals(DeliveryOutcome.SEND_FAILED, outcome);
+		}
+	}
+
+	@Test
+	public void refusalsAndRejections() {
+		RestTemplate restTemplate = new RestTemplate();
+		MockRestServiceServer server = MockRestServiceServer.createServer(restTemplate);
+		dispatcher.shutdown();
+		dispatcher = dispatcher(restTemplate);
+		server.expect(requestTo("http://p1/subscriptionManager/addOrUpdate")).andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+		server.expect(requestTo("http://p1/subscriptionManager/addOrUpdate")).andRespond(withStatus(HttpStatus.BAD_REQUEST));
+
+		SecurityRequest sr = new SecurityRequest("guestTokenDummy");
+		PeerMessage message = new PeerMessage("p1", "http://p1/subscriptionManager/addOrUpdate", "{}".getBytes());
+		assertEquals(DeliveryOutcome.REFUSED, dispatcher.send(sr, message));
+		assertEquals(DeliveryOutcome.REJECTED, dispatcher.send(sr, message));
+		server.verify();
+
+		assertTrue(PeerDispatcher.isRefusal(HttpStatus.FORBIDDEN));
+		assertTrue(PeerDispatcher.isRefusal(HttpStatus.TOO_MANY_REQUESTS));
+		assertFalse(PeerDispatcher.isRefusal(HttpStatus.UNPROCESSABLE_ENTITY));
+	}
+
+	private Map<String, DeliveryOutcome> dispatchAll(SecurityRequest sr, List<PeerMessage> messages) {
+		//all messages are dispatched before any outcome is awaited
+		Map<String, CompletableFuture<DeliveryOutcome>> futures = new LinkedHashMap<>();
+		for (PeerMessage message : messages)
+			futures.put(message.getPlatformId(), dispatcher.dispatch(sr, message));
+		Map<String, DeliveryOutcome> outcomes = new HashMap<>();
+		futures.forEach((platformId, future) -> outcomes.put(platformId, future.join()));
+		return outcomes;
+	}
+
+	private PeerDispatcher dispatcher(RestTemplate restTemplate) {
+		return new PeerDispatcher(securityManager, new SecuredRequestSender(restTemplate), 2, 1, 2, 60000);
+	}
+}
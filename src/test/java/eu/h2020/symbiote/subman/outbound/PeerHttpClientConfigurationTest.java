@@ -0,0 +1,59 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+public class PeerHttpClientConfigurationTest {
+
+	PeerHttpClientConfiguration configuration;
+
+	PoolingHttpClientConnectionManager connectionManager;
+	CloseableHttpClient httpClient;
+
+	@Before
+	public void setUp() {
+		configuration = new PeerHttpClientConfiguration();
+		ReflectionTestUtils.setField(configuration, "maxConnections", 20);
+		ReflectionTestUtils.setField(configuration, "maxConnectionsPerPlatform", 3);
+		ReflectionTestUtils.setField(configuration, "connectTimeout", 1000);
+		ReflectionTestUtils.setField(configuration, "readTimeout", 2000);
+		ReflectionTestUtils.setField(configuration, "poolAcquireTimeout", 500);
+		ReflectionTestUtils.setField(configuration, "idleTimeout", 60000L);
+
+		connectionManager = configuration.peerConnectionManager();
+		httpClient = configuration.peerHttpClient(connectionManager);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		httpClient.close();
+		connectionManager.shutdown();
+	}
+
+	@Test
+	public void connectionsPooled() {
+		assertEquals(20, connectionManager.getMaxTotal());
+		assertEquals(3, connectionManager.getDefaultMaxPerRoute());
+		assertEquals(3, connectionManager.getMaxPerRoute(new HttpRoute(new HttpHost("platform1", 443, "https"))));
+		assertEquals(0, connectionManager.getTotalStats().getLeased());
+	}
+
+	@Test
+	public void restTemplateUsesPooledClient() {
+		RestTemplate restTemplate = configuration.peerRestTemplate(httpClient);
+
+		assertTrue(restTemplate.getRequestFactory() instanceof HttpComponentsClientHttpRequestFactory);
+		assertEquals(httpClient, ((HttpComponentsClientHttpRequestFactory) restTemplate.getRequestFactory()).getHttpClient());
+	}
+}
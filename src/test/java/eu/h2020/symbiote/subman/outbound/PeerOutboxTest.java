@@ -0,0 +1,245 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.DBCollection;
+
+import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.subman.controller.CredentialManager;
+import eu.h2020.symbiote.subman.repositories.OutboxRepository;
+import eu.h2020.symbiote.subman.topology.FederationTopology;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PeerOutboxTest {
+
+	@Mock
+	OutboxRepository outboxRepo;
+
+	@Mock
+	MongoTemplate mongoTemplate;
+
+	@Mock
+	DBCollection collection;
+
+	@Mock
+	PeerDispatcher peerDispatcher;
+
+	@Mock
+	CredentialManager credentialManager;
+
+	@Mock
+	FederationTopology federationTopology;
+
+	PeerOutbox outbox;
+
+	//<platformId, responses of the dispatcher to its messages, in order>
+	Map<String, Queue<CompletableFuture<DeliveryOutcome>>> responses;
+	List<PeerMessage> dispatched;
+
+	@Before
+	public void setUp() {
+		outbox = new PeerOutbox(outboxRepo, mongoTemplate, peerDispatcher, credentialManager, federationTopology, 1000, 10000, 2);
+
+		when(mongoTemplate.getCollectionName(OutboxEntry.class)).thenReturn("peerOutbox");
+		when(mongoTemplate.getCollection("peerOutbox")).thenReturn(collection);
+		when(credentialManager.getSecurityRequest()).thenReturn(new SecurityRequest("guestTokenDummy"));
+		when(federationTopology.getAddress("p1")).thenReturn("https://p1/");
+		when(federationTopology.getAddress("p2")).thenReturn("https://p2");
+
+		responses = new HashMap<>();
+		dispatched = new ArrayList<>();
+		when(peerDispatcher.dispatch(any(SecurityRequest.class), any(PeerMessage.class))).thenAnswer(invocation -> {
+			PeerMessage message = (PeerMessage) invocation.getArguments()[1];
+			dispatched.add(message);
+			return responses.get(message.getPlatformId()).poll();
+		});
+	}
+
+	@Test
+	public void backoff() {
+		assertEquals(1000, outbox.backoff(1));
+		assertEquals(2000, outbox.backoff(2));
+		assertEquals(8000, outbox.backoff(4));
+		assertEquals(10000, outbox.backoff(5));
+		assertEquals(10000, outbox.backoff(100));
+	}
+
+	@Test
+	public void deliveredInOrderAndFailedRetried() {
+		OutboxEntry first = entry("1", "p1", PeerOutbox.ADD_OR_UPDATE_PATH);
+		OutboxEntry second = entry("2", "p1", PeerOutbox.DELETE_PATH);
+		OutboxEntry failing = entry("3", "p2", PeerOutbox.ADD_OR_UPDATE_PATH);
+
+		when(collection.distinct("platformId")).thenReturn(Arrays.asList("p1", "p2"));
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p1")).thenReturn(first, second, null);
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p2")).thenReturn(failing);
+		respond("p1", DeliveryOutcome.DELIVERED, DeliveryOutcome.DELIVERED);
+		respond("p2", DeliveryOutcome.SEND_FAILED);
+
+		outbox.dispatchPending();
+
+		verify(outboxRepo).delete("1");
+		verify(outboxRepo).delete("2");
+		verify(outboxRepo, never()).delete("3");
+
+		ArgumentCaptor<OutboxEntry> saved = ArgumentCaptor.forClass(OutboxEntry.class);
+		verify(outboxRepo).save(saved.capture());
+		assertEquals("3", saved.getValue().getId());
+		assertEquals(1, saved.getValue().getAttempts());
+		assertEquals("SEND_FAILED", saved.getValue().getLastOutcome());
+		assertTrue(saved.getValue().getNextAttemptAt().after(new Date()));
+
+		verify(peerDispatcher, times(3)).dispatch(any(SecurityRequest.class), any(PeerMessage.class));
+		assertEquals(Arrays.asList("https://p1" + PeerOutbox.ADD_OR_UPDATE_PATH, "https://p1" + PeerOutbox.DELETE_PATH), urls("p1"));
+	}
+
+	@Test
+	public void deferredKeptInOrder() {
+		OutboxEntry first = entry("1", "p1", PeerOutbox.ADD_OR_UPDATE_PATH);
+
+		when(collection.distinct("platformId")).thenReturn(Arrays.asList("p1"));
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p1")).thenReturn(first);
+		respond("p1", DeliveryOutcome.DEFERRED);
+
+		outbox.dispatchPending();
+
+		//later messages of the platform are not sent before the deferred one
+		verify(peerDispatcher, times(1)).dispatch(any(SecurityRequest.class), any(PeerMessage.class));
+		verify(outboxRepo, never()).delete(any(String.class));
+		verify(outboxRepo, never()).save(any(OutboxEntry.class));
+		assertEquals(0, first.getAttempts());
+	}
+
+	@Test
+	public void rejectedRetriedThenDeadLettered() {
+		OutboxEntry rejected = entry("1", "p1", PeerOutbox.ADD_OR_UPDATE_PATH);
+		OutboxEntry next = entry("2", "p1", PeerOutbox.DELETE_PATH);
+
+		when(collection.distinct("platformId")).thenReturn(Arrays.asList("p1"));
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p1")).thenReturn(rejected, rejected, next, null);
+		respond("p1", DeliveryOutcome.REJECTED, DeliveryOutcome.REJECTED, DeliveryOutcome.DELIVERED);
+
+		//first rejection is retried with backoff
+		outbox.dispatchPending();
+		verify(outboxRepo).save(rejected);
+		verify(outboxRepo, never()).delete("1");
+		assertEquals(1, rejected.getRejections());
+
+		//second rejection moves the message to dead letters, and the next message is sent
+		rejected.setNextAttemptAt(new Date(0));
+		outbox.dispatchPending();
+		verify(mongoTemplate).insert(rejected, PeerOutbox.DEAD_LETTER_COLLECTION);
+		verify(outboxRepo).delete("1");
+		verify(outboxRepo).delete("2");
+	}
+
+	@Test
+	public void refusedRetried() {
+		OutboxEntry refused = entry("1", "p1", PeerOutbox.ADD_OR_UPDATE_PATH);
+
+		when(collection.distinct("platformId")).thenReturn(Arrays.asList("p1"));
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p1")).thenReturn(refused);
+		respond("p1", DeliveryOutcome.REFUSED, DeliveryOutcome.REFUSED, DeliveryOutcome.REFUSED);
+
+		for (int i = 0; i < 3; i++) {
+			refused.setNextAttemptAt(new Date(0));
+			outbox.dispatchPending();
+		}
+
+		verify(outboxRepo, never()).delete(any(String.class));
+		verify(mongoTemplate, never()).insert(any(OutboxEntry.class), eq(PeerOutbox.DEAD_LETTER_COLLECTION));
+		assertEquals(3, refused.getAttempts());
+		assertEquals(0, refused.getRejections());
+	}
+
+	@Test
+	public void schedulerNotBlocked() {
+		OutboxEntry first = entry("1", "p1", PeerOutbox.ADD_OR_UPDATE_PATH);
+
+		when(collection.distinct("platformId")).thenReturn(Arrays.asList("p1"));
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p1")).thenReturn(first, (OutboxEntry) null);
+		CompletableFuture<DeliveryOutcome> sending = new CompletableFuture<>();
+		responses.put("p1", new ArrayDeque<>(Arrays.asList(sending)));
+
+		outbox.dispatchPending();
+		//sending is in progress, so the next call does not send the message again
+		outbox.dispatchPending();
+		verify(peerDispatcher, times(1)).dispatch(any(SecurityRequest.class), any(PeerMessage.class));
+
+		sending.complete(DeliveryOutcome.DELIVERED);
+		verify(outboxRepo).delete("1");
+	}
+
+	@Test
+	public void slowPlatformDoesNotDelayOthers() {
+		OutboxEntry slow = entry("1", "p1", PeerOutbox.ADD_OR_UPDATE_PATH);
+		OutboxEntry first = entry("2", "p2", PeerOutbox.ADD_OR_UPDATE_PATH);
+		OutboxEntry second = entry("3", "p2", PeerOutbox.DELETE_PATH);
+		OutboxEntry later = entry("4", "p2", PeerOutbox.ADD_OR_UPDATE_PATH);
+
+		when(collection.distinct("platformId")).thenReturn(Arrays.asList("p1", "p2"));
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p1")).thenReturn(slow, (OutboxEntry) null);
+		when(outboxRepo.findFirstByPlatformIdOrderByIdAsc("p2")).thenReturn(first, second, null, later, null);
+		CompletableFuture<DeliveryOutcome> slowDelivery = new CompletableFuture<>();
+		responses.put("p1", new ArrayDeque<>(Arrays.asList(slowDelivery)));
+		respond("p2", DeliveryOutcome.DELIVERED, DeliveryOutcome.DELIVERED, DeliveryOutcome.DELIVERED);
+
+		//all messages of p2 are delivered while the message of p1 is still being sent
+		outbox.dispatchPending();
+		verify(outboxRepo).delete("2");
+		verify(outboxRepo).delete("3");
+
+		//next poll sends new messages of p2, and does not send the message of p1 again
+		outbox.dispatchPending();
+		verify(outboxRepo).delete("4");
+		verify(outboxRepo, never()).delete("1");
+		assertEquals(1, urls("p1").size());
+
+		slowDelivery.complete(DeliveryOutcome.DELIVERED);
+		verify(outboxRepo).delete("1");
+	}
+
+	private void respond(String platformId, DeliveryOutcome... outcomes) {
+		Queue<CompletableFuture<DeliveryOutcome>> queue = responses.computeIfAbsent(platformId, k -> new ArrayDeque<>());
+		for (DeliveryOutcome outcome : outcomes)
+			queue.add(CompletableFuture.completedFuture(outcome));
+	}
+
+	private List<String> urls(String platformId) {
+		return dispatched.stream().filter(message -> message.getPlatformId().equals(platformId))
+				.map(PeerMessage::getUrl).collect(Collectors.toList());
+	}
+
+	private static OutboxEntry entry(String id, String platformId, String path) {
+		OutboxEntry entry = new OutboxEntry(platformId, path, "{}".getBytes());
+		entry.setId(id);
+		entry.setNextAttemptAt(new Date(0));
+		return entry;
+	}
+}
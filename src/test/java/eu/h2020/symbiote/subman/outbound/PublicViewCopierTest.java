@@ -0,0 +1,70 @@
+package eu.h2020.symbiote.subman.outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.FederationInfoBean;
+import eu.h2020.symbiote.model.cim.Resource;
+
+public class PublicViewCopierTest {
+
+	@Test
+	public void privateInfoAndFederationsNotCopied() {
+		FederatedResource fedRes = federatedResource();
+
+		FederatedResource publicView = PublicViewCopier.publicView(fedRes);
+
+		assertEquals("res@home", publicView.getAggregationId());
+		assertSame(fedRes.getCloudResource().getResource(), publicView.getCloudResource().getResource());
+		assertNull(publicView.getCloudResource().getInternalId());
+		assertNull(publicView.getCloudResource().getPluginId());
+		assertEquals("res@home", publicView.getCloudResource().getFederationInfo().getAggregationId());
+		assertTrue(publicView.getFederatedResourceInfoMap().isEmpty());
+		assertTrue(publicView.getCloudResource().getFederationInfo().getSharingInformation().isEmpty());
+	}
+
+	@Test
+	public void platformCopiesHaveOwnFederations() {
+		FederatedResource fedRes = federatedResource();
+		FederatedResource publicView = PublicViewCopier.publicView(fedRes);
+
+		FederatedResource first = PublicViewCopier.copyForPlatform(publicView);
+		FederatedResource second = PublicViewCopier.copyForPlatform(publicView);
+		first.shareToNewFederation("fed1", true);
+		second.shareToNewFederation("fed2", false);
+
+		assertSame(publicView.getCloudResource().getResource(), first.getCloudResource().getResource());
+		assertEquals(new HashSet<>(Arrays.asList("fed1")), first.getFederatedResourceInfoMap().keySet());
+		assertEquals(new HashSet<>(Arrays.asList("fed2")), second.getCloudResource().getFederationInfo().getSharingInformation().keySet());
+		assertTrue(publicView.getFederatedResourceInfoMap().isEmpty());
+		assertEquals(new HashSet<>(Arrays.asList("fed1", "fed2")), fedRes.getFederatedResourceInfoMap().keySet());
+	}
+
+	private static FederatedResource federatedResource() {
+		Resource resource = new Resource();
+		resource.setId("id1");
+		resource.setName("dummy");
+		resource.setInterworkingServiceURL("dummyURL");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setInternalId("internal1");
+		cloudResource.setPluginId("plugin1");
+		cloudResource.setResource(resource);
+		FederationInfoBean fib = new FederationInfoBean();
+		fib.setSharingInformation(new HashMap<>());
+		cloudResource.setFederationInfo(fib);
+		FederatedResource fedRes = new FederatedResource("res@home", cloudResource, (double) 4);
+		fedRes.shareToNewFederation("fed1", true);
+		fedRes.shareToNewFederation("fed2", true);
+		return fedRes;
+	}
+}
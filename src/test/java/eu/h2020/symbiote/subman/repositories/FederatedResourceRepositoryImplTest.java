@@ -0,0 +1,171 @@
+package eu.h2020.symbiote.subman.repositories;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+import eu.h2020.symbiote.cloud.model.internal.CloudResource;
+import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
+import eu.h2020.symbiote.cloud.model.internal.FederationInfoBean;
+import eu.h2020.symbiote.model.cim.Resource;
+
+public class FederatedResourceRepositoryImplTest {
+
+	private static final String COLLECTION = "federatedResource";
+
+	MongoTemplate mongoTemplate;
+	DBCollection collection;
+	DBCursor cursor;
+
+	FederatedResourceRepositoryImpl repository;
+
+	@Before
+	public void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		collection = mock(DBCollection.class);
+		cursor = mock(DBCursor.class);
+		when(mongoTemplate.getCollectionName(FederatedResource.class)).thenReturn(COLLECTION);
+		when(mongoTemplate.getCollection(COLLECTION)).thenReturn(collection);
+		when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+
+		repository = new FederatedResourceRepositoryImpl(mongoTemplate, 1000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void batchSizeValidated() {
+		new FederatedResourceRepositoryImpl(mongoTemplate, 0);
+	}
+
+	@Test
+	public void bulkSavedInBatches() {
+		BulkWriteOperation bulk = bulkOperation();
+		repository = new FederatedResourceRepositoryImpl(mongoTemplate, 2);
+
+		Map<String, String> failed = repository.bulkSave(Arrays.asList(federatedResource("a@p", "fed1"),
+				federatedResource("b@p", "fed1"), federatedResource("c@p", "fed1")));
+
+		assertTrue(failed.isEmpty());
+		verify(collection, times(2)).initializeUnorderedBulkOperation();
+		verify(bulk, times(2)).execute();
+	}
+
+	@Test
+	public void bulkSaveFailureReported() {
+		BulkWriteOperation bulk = bulkOperation();
+		when(bulk.execute()).thenReturn(null).thenThrow(new MongoException("write failed"));
+		repository = new FederatedResourceRepositoryImpl(mongoTemplate, 2);
+
+		Map<String, String> failed = repository.bulkSave(Arrays.asList(federatedResource("a@p", "fed1"),
+				federatedResource("b@p", "fed1"), federatedResource("c@p", "fed1")));
+
+		assertEquals(new HashSet<>(Arrays.asList("c@p")), failed.keySet());
+		assertEquals("write failed", failed.get("c@p"));
+	}
+
+	@Test
+	public void unshareWithUpdate() {
+		found("a@p", "b@p");
+
+		Set<String> unshared = repository.unshareAllFromFederation("fed1");
+
+		assertEquals(new HashSet<>(Arrays.asList("a@p", "b@p")), unshared);
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate).updateMulti(any(Query.class), update.capture(), eq(FederatedResource.class));
+		DBObject unset = (DBObject) update.getValue().getUpdateObject().get("$unset");
+		assertEquals(new HashSet<>(Arrays.asList("federatedResourceInfoMap.fed1", "cloudResource.federationInfo.sharingInformation.fed1")),
+				unset.keySet());
+		assertTrue(update.getValue().getUpdateObject().containsField("$pull"));
+		verify(mongoTemplate).remove(any(Query.class), eq(FederatedResource.class));
+	}
+
+	@Test
+	public void unshareNotShared() {
+		found();
+
+		assertTrue(repository.unsharePlatformFromFederation("p", "fed1").isEmpty());
+		verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(FederatedResource.class));
+		verify(mongoTemplate, never()).remove(any(Query.class), eq(FederatedResource.class));
+	}
+
+	@Test
+	public void unshareFederationIdNotFieldName() {
+		FederatedResource sharedInOne = federatedResource("a@p", "fed.1");
+		FederatedResource sharedInTwo = federatedResource("b@p", "fed.1", "fed2");
+		found("a@p", "b@p");
+		when(mongoTemplate.find(any(Query.class), eq(FederatedResource.class))).thenReturn(Arrays.asList(sharedInOne, sharedInTwo));
+
+		Set<String> unshared = repository.unshareFromFederation(Arrays.asList("a@p", "b@p", "c@p"), "fed.1");
+
+		assertEquals(new HashSet<>(Arrays.asList("a@p", "b@p")), unshared);
+		verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(FederatedResource.class));
+		verify(mongoTemplate).remove(sharedInOne);
+		verify(mongoTemplate).save(sharedInTwo);
+		assertEquals(new HashSet<>(Arrays.asList("fed2")), sharedInTwo.getFederatedResourceInfoMap().keySet());
+	}
+
+	@Test
+	public void fieldNames() {
+		assertTrue(FederatedResourceRepositoryImpl.isFieldName("fed1"));
+		assertTrue(FederatedResourceRepositoryImpl.isFieldName("fed$1"));
+		assertFalse(FederatedResourceRepositoryImpl.isFieldName("fed.1"));
+		assertFalse(FederatedResourceRepositoryImpl.isFieldName("$fed1"));
+		assertFalse(FederatedResourceRepositoryImpl.isFieldName(""));
+	}
+
+	private BulkWriteOperation bulkOperation() {
+		BulkWriteOperation bulk = mock(BulkWriteOperation.class, RETURNS_DEEP_STUBS);
+		when(mongoTemplate.getConverter()).thenReturn(mock(MongoConverter.class));
+		when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+		return bulk;
+	}
+
+	private void found(String... aggregationIds) {
+		DBObject[] dbos = new DBObject[aggregationIds.length];
+		for (int i = 0; i < aggregationIds.length; i++)
+			dbos[i] = new BasicDBObject("_id", aggregationIds[i]);
+		when(cursor.iterator()).thenReturn(Arrays.asList(dbos).iterator());
+	}
+
+	private static FederatedResource federatedResource(String aggregationId, String... federationIds) {
+		Resource resource = new Resource();
+		resource.setInterworkingServiceURL("dummyURL");
+		CloudResource cloudResource = new CloudResource();
+		cloudResource.setResource(resource);
+		FederationInfoBean fib = new FederationInfoBean();
+		fib.setSharingInformation(new HashMap<>());
+		cloudResource.setFederationInfo(fib);
+		FederatedResource fedRes = new FederatedResource(aggregationId, cloudResource, (double) 4);
+		for (String federationId : federationIds)
+			fedRes.shareToNewFederation(federationId, true);
+		return fedRes;
+	}
+}
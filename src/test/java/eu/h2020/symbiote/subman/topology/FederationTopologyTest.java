@@ -0,0 +1,102 @@
+package eu.h2020.symbiote.subman.topology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import eu.h2020.symbiote.model.mim.Federation;
+import eu.h2020.symbiote.model.mim.FederationMember;
+import eu.h2020.symbiote.subman.repositories.FederationRepository;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FederationTopologyTest {
+
+	@Mock
+	FederationRepository fedRepo;
+
+	FederationTopology topology;
+
+	@Before
+	public void setUp() {
+		when(fedRepo.findAll()).thenReturn(Arrays.asList(
+				federation("fed1", "home", "p1", "p2"),
+				federation("fed2", "home", "p2"),
+				federation("other", "p1", "p3")));
+		topology = new FederationTopology(fedRepo, "home");
+	}
+
+	@Test
+	public void initializedFromRepository() {
+		assertEquals(new HashSet<>(Arrays.asList("p1", "p2")), topology.getPeers());
+		assertEquals(new HashSet<>(Arrays.asList("fed1", "fed2")), topology.getCommonFederations("p2"));
+		assertEquals("https://p1", topology.getAddress("p1"));
+		assertFalse(topology.isPeer("p3"));
+		assertFalse(topology.isPeer("home"));
+		assertTrue(topology.current().getMembers("other").isEmpty());
+	}
+
+	@Test
+	public void federationEvents() {
+		TopologySnapshot before = topology.current();
+
+		TopologySnapshot previous = topology.federationSaved(federation("fed2", "home", "p3"));
+		assertSame(before, previous);
+		assertEquals(new HashSet<>(Arrays.asList("fed1")), topology.getCommonFederations("p2"));
+		assertEquals(new HashSet<>(Arrays.asList("fed2")), topology.getCommonFederations("p3"));
+		//previous snapshot is not changed by updates
+		assertFalse(previous.isPeer("p3"));
+
+		previous = topology.federationDeleted("fed1");
+		assertEquals(new HashSet<>(Arrays.asList("home", "p1", "p2")), previous.getMembers("fed1"));
+		assertEquals(new HashSet<>(Arrays.asList("p3")), topology.getPeers());
+		assertNull(topology.getAddress("p1"));
+
+		//this platform removed from federation
+		topology.federationSaved(federation("fed2", "p3"));
+		assertTrue(topology.getPeers().isEmpty());
+	}
+
+	@Test
+	public void rebuiltFromRepositoryOnRestart() {
+		topology.federationSaved(federation("fed3", "home", "p3"));
+
+		//federation saved to repository, but not yet applied to topology before restart
+		when(fedRepo.findAll()).thenReturn(Arrays.asList(
+				federation("fed1", "home", "p1"),
+				federation("fed3", "home", "p3"),
+				federation("fed4", "home", "p4")));
+		topology = new FederationTopology(fedRepo, "home");
+
+		assertEquals(new HashSet<>(Arrays.asList("p1", "p3", "p4")), topology.getPeers());
+		assertEquals(new HashSet<>(Arrays.asList("fed4")), topology.getCommonFederations("p4"));
+		assertTrue(topology.getCommonFederations("p2").isEmpty());
+	}
+
+	private static Federation federation(String id, String... memberIds) {
+		List<FederationMember> members = new ArrayList<>();
+		for (String memberId : memberIds) {
+			FederationMember member = new FederationMember();
+			member.setPlatformId(memberId);
+			member.setInterworkingServiceURL("https://" + memberId);
+			members.add(member);
+		}
+		Federation federation = new Federation();
+		federation.setId(id);
+		federation.setMembers(members);
+		return federation;
+	}
+}